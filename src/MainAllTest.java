@@ -1,10 +1,23 @@
 import clients.*;
+import entities.AlgorithmeHachage;
+import entities.BilanTransferts;
+import entities.FileManager;
+import entities.Hachage;
 import entities.Peer;
+import entities.IntervalleFichier;
+import entities.Metadata;
 import entities.PeerInfo;
+import entities.Transfert;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -39,7 +52,64 @@ public class MainAllTest {
             // --- 7. Tests de performance ---
             testPerformance();
             
-            // --- 8. Tests de cas limites supplémentaires ---
+            // --- 8. Tests du moteur NIO ---
+            testModeNio();
+            
+            // --- 9. Tests des GET parallèles ---
+            testGetParalleles();
+            
+            // --- 10. Tests de limitation de débit ---
+            testLimitationDebit();
+            
+            // --- 11. Tests du contrôle d'admission ---
+            testControleAdmission();
+            
+            // --- 12. Tests des transferts asynchrones ---
+            testTransfertsAsynchrones();
+            
+            // --- 13. Tests de la découverte multicast ---
+            testDecouverteMulticast();
+            
+            // --- 14. Tests de reprise des téléchargements ---
+            testRepriseTelechargement();
+            
+            // --- 15. Tests des lectures par intervalle ---
+            testGetIntervalles();
+            
+            // --- 16. Tests du téléchargement en essaim ---
+            testTelechargementEssaim();
+            
+            // --- 17. Tests des sessions d'upload ---
+            testSessionUpload();
+            
+            // --- 18. Tests des téléchargements groupés ---
+            testGetMany();
+            
+            // --- 19. Tests de la synchronisation différentielle ---
+            testSynchronisationDifferentielle();
+            
+            // --- 20. Tests des téléchargements par contenu ---
+            testTelechargementParContenu();
+            
+            // --- 21. Tests de la vérification par blocs ---
+            testVerificationBlocs();
+            
+            // --- 22. Tests du hachage à la réception ---
+            testHachageReception();
+            
+            // --- 23. Tests de l'index persistant des checksums ---
+            testIndexPersistant();
+            
+            // --- 24. Tests du hachage en arrière-plan ---
+            testHachageArrierePlan();
+            
+            // --- 25. Tests du hachage par mappage mémoire ---
+            testHachageMappe();
+            
+            // --- 26. Tests du hachage rapide ---
+            testHachageRapide();
+            
+            // --- 27. Tests de cas limites supplémentaires ---
             testCasLimites();
             
             System.out.println("\n🎉 Tous les tests sont terminés !");
@@ -48,6 +118,9 @@ public class MainAllTest {
             System.err.println("❌ Erreur lors des tests : " + e.getMessage());
             e.printStackTrace();
         } finally {
+            // Consommation de ressources du scénario
+            afficherRessources();
+            
             // Nettoyage
             arreterTousLesPeers();
         }
@@ -100,7 +173,7 @@ public class MainAllTest {
     }
     
     private static void testCasLimites() throws Exception {
-        System.out.println("=== 8. Test de cas limites supplémentaires ===");
+        System.out.println("=== 27. Test de cas limites supplémentaires ===");
         
         // Test 1: Upload d'un fichier inexistant
         System.out.println("\n📤 Test upload fichier inexistant...");
@@ -129,6 +202,31 @@ public class MainAllTest {
         boolean downloadVide = ben.telechargerFichierDepuisPeer("", "localhost", 8001);
         resultatTest(!downloadVide, "Erreur gérée : nom fichier vide");
         
+        // Chemins hors du dossier partagé refusés par le serveur (GET, UPLOAD)
+        File horsPartage = new File(diallo.getDossierPartage().getParentFile(), "hors_partage.txt");
+        File evasion = new File(diallo.getDossierPartage().getParentFile(), "evasion.txt");
+        try (FileOutputStream fos = new FileOutputStream(horsPartage)) {
+            fos.write("Hors du dossier partagé".getBytes());
+        }
+        try {
+            try (Socket socket = new Socket("localhost", 8006)) {
+                socket.getOutputStream().write("GET ../hors_partage.txt\n".getBytes());
+                String reponse = new java.io.BufferedReader(
+                        new java.io.InputStreamReader(socket.getInputStream())).readLine();
+                resultatTest("ERREUR: fichier introuvable".equals(reponse), "GET hors du dossier partagé : " + reponse);
+            }
+            try (Socket socket = new Socket("localhost", 8006)) {
+                socket.getOutputStream().write("UPLOAD ../evasion.txt 5 abc\nabcde".getBytes());
+                String reponse = new java.io.BufferedReader(
+                        new java.io.InputStreamReader(socket.getInputStream())).readLine();
+                resultatTest("ERREUR: nom de fichier invalide".equals(reponse) && !evasion.exists(),
+                        "UPLOAD hors du dossier partagé : " + reponse);
+            }
+        } finally {
+            horsPartage.delete();
+            evasion.delete();
+        }
+        
         // Test 5: Test avec port invalide
         System.out.println("\n🔌 Test avec port invalide...");
         List<String> fichiersPortInvalide = ben.listerFichiersPeerDistant("localhost", -1);
@@ -504,8 +602,1424 @@ public class MainAllTest {
         System.out.println();
     }
     
+    private static void testModeNio() throws Exception {
+        System.out.println("=== 8. Test du moteur NIO ===");
+        
+        // Peer supplémentaire servi par le sélecteur NIO
+        Peer peerNio = new Peer("Nio", 8010, "./uploads/Nio", Peer.ModeServeur.NIO);
+        File fichierNio = new File(peerNio.getDossierPartage(), "nio.txt");
+        try (FileOutputStream fos = new FileOutputStream(fichierNio)) {
+            fos.write("Fichier servi par le moteur NIO".getBytes());
+        }
+        
+        try {
+            peerNio.demarrer().get(5, TimeUnit.SECONDS);
+            resultatTest(peerNio.estActif(), "Peer NIO démarré");
+            
+            // Plan de contrôle (LIST) servi par les threads d'E/S
+            List<String> fichiers = ben.listerFichiersPeerDistant("localhost", 8010);
+            resultatTest(fichiers.contains("nio.txt"), "LIST servi par le moteur NIO");
+            
+            // Requêtes de contrôle concurrentes
+            List<CompletableFuture<List<String>>> listes = new java.util.ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                listes.add(CompletableFuture.supplyAsync(() -> safy.listerFichiersPeerDistant("localhost", 8010)));
+            }
+            long listesOk = listes.stream().filter(f -> !f.join().isEmpty()).count();
+            resultatTest(listesOk == 50, "Requêtes LIST concurrentes : " + listesOk + "/50");
+            
+            // Transfert (GET) rendu en mode bloquant
+            boolean download = fatou.telechargerFichierDepuisPeer("nio.txt", "localhost", 8010);
+            resultatTest(download, "Téléchargement depuis un peer NIO");
+            
+            testPlafondConnexions(peerNio, 8010);
+        } finally {
+            peerNio.arreter();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testGetParalleles() throws Exception {
+        System.out.println("=== 9. Test des GET parallèles ===");
+        
+        // Fichier plus gros que les tampons TCP: le serveur reste dans
+        // envoyerFichier tant que le client n'a pas tout lu
+        File fichier = new File(diallo.getDossierPartage(), "parallele.dat");
+        try (FileOutputStream fos = new FileOutputStream(fichier)) {
+            byte[] buffer = new byte[1024 * 1024];
+            for (int i = 0; i < 8; i++) {
+                fos.write(buffer);
+            }
+        }
+        
+        // Référence: un GET lent seul
+        long debut = System.currentTimeMillis();
+        long recu = lireLentement(8006, "parallele.dat");
+        long dureeSeul = System.currentTimeMillis() - debut;
+        resultatTest(recu == fichier.length(), "GET lent seul en " + dureeSeul + " ms");
+        
+        // N GET lents simultanés du même fichier
+        int n = 4;
+        debut = System.currentTimeMillis();
+        List<CompletableFuture<Long>> gets = new java.util.ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            gets.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return lireLentement(8006, "parallele.dat");
+                } catch (IOException e) {
+                    return -1L;
+                }
+            }));
+        }
+        
+        // LIST pendant les transferts: ne doit pas attendre leur fin
+        Thread.sleep(200);
+        long debutList = System.currentTimeMillis();
+        List<String> fichiers = ben.listerFichiersPeerDistant("localhost", 8006);
+        long dureeList = System.currentTimeMillis() - debutList;
+        resultatTest(fichiers.contains("parallele.dat") && dureeList < dureeSeul,
+                "LIST pendant " + n + " GET en " + dureeList + " ms");
+        
+        long complets = gets.stream().filter(f -> f.join() == fichier.length()).count();
+        long dureeParallele = System.currentTimeMillis() - debut;
+        resultatTest(complets == n, "GET parallèles complets : " + complets + "/" + n);
+        
+        // Sérialisés, les GET prendraient n fois la durée d'un seul
+        double acceleration = (double) n * dureeSeul / dureeParallele;
+        resultatTest(acceleration > n / 2.0, String.format(
+                "%d GET parallèles en %d ms (accélération x%.1f)", n, dureeParallele, acceleration));
+        
+        fichier.delete();
+        System.out.println();
+    }
+    
+    private static void testLimitationDebit() throws Exception {
+        System.out.println("=== 10. Test de limitation de débit ===");
+        
+        File fichier = new File(diallo.getDossierPartage(), "debit.dat");
+        try (FileOutputStream fos = new FileOutputStream(fichier)) {
+            byte[] contenu = new byte[2 * 1024 * 1024];
+            new java.util.Random(10).nextBytes(contenu);
+            fos.write(contenu);
+        }
+        long unMo = 1024 * 1024;
+        
+        try {
+            // Limite globale des envois du serveur: 2 Mo à 1 Mo/s
+            diallo.setDebitMaxEnvoi(unMo);
+            long debut = System.currentTimeMillis();
+            boolean download = ben.telechargerFichierDepuisPeer("debit.dat", "localhost", 8006);
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(download && duree >= 1500,
+                    "Envoi limité à 1 Mo/s : 2 Mo en " + duree + " ms");
+            diallo.setDebitMaxEnvoi(0);
+            
+            // Limite par peer des réceptions du client
+            PeerInfo source = new PeerInfo("localhost", 8006, "Diallo");
+            safy.setDebitMaxReception(source, unMo);
+            debut = System.currentTimeMillis();
+            download = safy.telechargerFichierDepuisPeer("debit.dat", "localhost", 8006);
+            duree = System.currentTimeMillis() - debut;
+            resultatTest(download && duree >= 1500,
+                    "Réception limitée à 1 Mo/s depuis Diallo : 2 Mo en " + duree + " ms");
+            
+            // Retrait de la limite à chaud; la copie reçue est retirée pour que
+            // le contenu soit bien transféré à nouveau
+            safy.setDebitMaxReception(source, 0);
+            new File(safy.getDossierPartage(), "debit.dat").delete();
+            debut = System.currentTimeMillis();
+            download = safy.telechargerFichierDepuisPeer("debit.dat", "localhost", 8006);
+            duree = System.currentTimeMillis() - debut;
+            resultatTest(download && duree < 1500, "Réception sans limite : 2 Mo en " + duree + " ms");
+        } finally {
+            diallo.setDebitMaxEnvoi(0);
+            safy.setDebitMaxReception(new PeerInfo("localhost", 8006, "Diallo"), 0);
+            fichier.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testControleAdmission() throws Exception {
+        System.out.println("=== 11. Test du contrôle d'admission ===");
+        
+        File gros = new File(diallo.getDossierPartage(), "admission.dat");
+        try (FileOutputStream fos = new FileOutputStream(gros)) {
+            byte[] contenu = new byte[6 * 1024 * 1024];
+            new java.util.Random(11).nextBytes(contenu);
+            fos.write(contenu);
+        }
+        File petit = new File(diallo.getDossierPartage(), "admission.txt");
+        try (FileOutputStream fos = new FileOutputStream(petit)) {
+            fos.write("Fichier servi après BUSY".getBytes());
+        }
+        
+        diallo.setMaxTransfertsSimultanes(1);
+        try {
+            // Un GET lent occupe l'unique place de transfert
+            CompletableFuture<Long> lent = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return lireLentement(8006, "admission.dat");
+                } catch (IOException e) {
+                    return -1L;
+                }
+            });
+            Thread.sleep(200);
+            
+            // Client v1: réponse BUSY <délai>
+            try (Socket socket = new Socket("localhost", 8006)) {
+                socket.getOutputStream().write("GET admission.txt 0\n".getBytes());
+                java.io.BufferedReader in = new java.io.BufferedReader(
+                        new java.io.InputStreamReader(socket.getInputStream()));
+                String reponse = in.readLine();
+                resultatTest(reponse != null && reponse.startsWith("BUSY "), "Réponse v1 : " + reponse);
+            }
+            
+            // Le contrôle reste servi pendant le transfert
+            resultatTest(ben.listerFichiersPeerDistant("localhost", 8006).contains("admission.txt"),
+                    "LIST servi pendant que les transferts sont saturés");
+            
+            // Client v2: BUSY respecté, nouvel essai après le délai
+            long debut = System.currentTimeMillis();
+            boolean download = ben.telechargerFichierDepuisPeer("admission.txt", "localhost", 8006);
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(download && duree >= 900,
+                    "Téléchargement réussi après BUSY en " + duree + " ms");
+            
+            resultatTest(lent.join() == gros.length(), "Transfert occupant terminé normalement");
+            
+            testPlafondConnexions(diallo, 8006);
+        } finally {
+            diallo.setMaxTransfertsSimultanes(32);
+            gros.delete();
+            petit.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    /**
+     * Plafond de connexions atteint: une connexion muette est fermée sans
+     * attendre le délai de keep-alive, une requête reçoit BUSY
+     */
+    private static void testPlafondConnexions(Peer peer, int port) throws Exception {
+        int maximum = peer.getMaxConnexionsSimultanees();
+        peer.setMaxConnexionsSimultanees(0);
+        try {
+            long debut = System.currentTimeMillis();
+            int lu;
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(10000);
+                lu = socket.getInputStream().read();
+            } catch (IOException e) {
+                lu = -1;
+            }
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(lu == -1 && duree < 5000, "Connexion muette au-delà du plafond fermée en " + duree + " ms");
+            
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.getOutputStream().write("LIST\n".getBytes());
+                String reponse = new java.io.BufferedReader(
+                        new java.io.InputStreamReader(socket.getInputStream())).readLine();
+                resultatTest(reponse != null && reponse.startsWith("BUSY "),
+                        "Connexion au-delà du plafond : " + reponse);
+            }
+        } finally {
+            peer.setMaxConnexionsSimultanees(maximum);
+        }
+    }
+    
+    private static void testTransfertsAsynchrones() throws Exception {
+        System.out.println("=== 12. Test des transferts asynchrones ===");
+        
+        File fichier = new File(diallo.getDossierPartage(), "asynchrone.dat");
+        try (FileOutputStream fos = new FileOutputStream(fichier)) {
+            byte[] contenu = new byte[2 * 1024 * 1024];
+            new java.util.Random(12).nextBytes(contenu);
+            fos.write(contenu);
+        }
+        PeerInfo source = new PeerInfo("localhost", 8006, "Diallo");
+        
+        try {
+            // Téléchargement en arrière-plan avec suivi de progression
+            List<Double> progressions = new java.util.concurrent.CopyOnWriteArrayList<>();
+            Transfert transfert = ben.telechargerDepuisPeerAsync(source, "asynchrone.dat")
+                    .surProgression(t -> progressions.add(t.getProgression()));
+            boolean download = transfert.getResultat().get(30, TimeUnit.SECONDS);
+            resultatTest(download && !progressions.isEmpty() && progressions.get(progressions.size() - 1) == 1.0,
+                    "Téléchargement asynchrone : " + progressions.size() + " notifications, "
+                            + (long) (transfert.getDebitOctetsParSeconde() / 1024) + " Ko/s");
+            new File(ben.getDossierPartage(), "asynchrone.dat").delete();
+            
+            // Annulation d'un transfert ralenti: la connexion est coupée aussitôt
+            diallo.setDebitMaxEnvoi(256 * 1024);
+            Transfert lent = safy.telechargerDepuisPeerAsync(source, "asynchrone.dat")
+                    .surProgression(t -> { });
+            long attente = System.currentTimeMillis() + 5000;
+            while (lent.getProgression() == 0 && System.currentTimeMillis() < attente) {
+                Thread.sleep(20);
+            }
+            long debut = System.currentTimeMillis();
+            lent.annuler();
+            try {
+                lent.getResultat().get(5, TimeUnit.SECONDS);
+            } catch (java.util.concurrent.CancellationException attendue) {
+                // résultat annulé
+            }
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(lent.estAnnule() && lent.getResultat().isCancelled() && duree < 1000
+                    && lent.getProgression() > 0 && lent.getProgression() < 1,
+                    "Transfert annulé à " + (int) (lent.getProgression() * 100) + "% en " + duree + " ms");
+            
+            // Le fichier partiel est supprimé une fois le transfert interrompu
+            Thread.sleep(300);
+            resultatTest(!new File(safy.getDossierPartage(), "asynchrone.dat").exists(),
+                    "Fichier partiel supprimé après annulation");
+        } finally {
+            diallo.setDebitMaxEnvoi(0);
+            fichier.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testDecouverteMulticast() throws Exception {
+        System.out.println("=== 13. Test de la découverte multicast ===");
+        
+        Peer alpha = new Peer("Alpha", 8030, "./uploads/Alpha");
+        Peer beta = new Peer("Beta", 8031, "./uploads/Beta");
+        File catalogue = new File(alpha.getDossierPartage(), "catalogue.txt");
+        catalogue.delete();
+        
+        try {
+            alpha.demarrer().get(5, TimeUnit.SECONDS);
+            
+            // La requête de démarrage de Beta reçoit la réponse d'Alpha
+            long debut = System.currentTimeMillis();
+            beta.demarrer().get(5, TimeUnit.SECONDS);
+            PeerInfo alphaVu = attendrePeer(beta, 8030, 3000);
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(alphaVu != null && "Alpha".equals(alphaVu.getPseudo()),
+                    "Alpha découvert par Beta en " + duree + " ms");
+            resultatTest(attendrePeer(alpha, 8031, 1000) != null, "Beta découvert par Alpha");
+            
+            // Un fichier reçu par Alpha change la version annoncée de son catalogue
+            if (alphaVu != null) {
+                long version = alphaVu.getVersionCatalogue();
+                try (FileOutputStream fos = new FileOutputStream(new File(ben.getDossierPartage(), "catalogue.txt"))) {
+                    fos.write("Nouveau fichier du catalogue".getBytes());
+                }
+                ben.uploaderFichierVersPeer("catalogue.txt", "localhost", 8030);
+                
+                // Ben partage aussi le fichier: seule la source Alpha compte
+                java.util.function.BooleanSupplier vuChezAlpha = () -> beta.rechercherFichierAvecPeerInfo("catalogue.txt")
+                        .stream().anyMatch(p -> p.getPort() == 8030);
+                long limite = System.currentTimeMillis() + 3000;
+                while (!vuChezAlpha.getAsBoolean() && System.currentTimeMillis() < limite) {
+                    Thread.sleep(20);
+                }
+                resultatTest(alphaVu.getVersionCatalogue() > version && vuChezAlpha.getAsBoolean(),
+                        "Nouvelle version du catalogue d'Alpha vue par Beta : " + version + " -> "
+                                + alphaVu.getVersionCatalogue());
+                new File(ben.getDossierPartage(), "catalogue.txt").delete();
+            }
+        } finally {
+            beta.arreter();
+            alpha.arreter();
+            catalogue.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testRepriseTelechargement() throws Exception {
+        System.out.println("=== 14. Test de reprise des téléchargements ===");
+        
+        File original = new File(diallo.getDossierPartage(), "reprise.dat");
+        byte[] contenu = new byte[6 * 1024 * 1024];
+        for (int i = 0; i < contenu.length; i++) {
+            contenu[i] = (byte) (i * 31 + i / 4096);
+        }
+        try (FileOutputStream fos = new FileOutputStream(original)) {
+            fos.write(contenu);
+        }
+        File copie = new File(ben.getDossierPartage(), "reprise.dat");
+        copie.delete();
+        int coupure = 2_500_000;
+        
+        try (java.net.ServerSocket sourceInterrompue = new java.net.ServerSocket(8032)) {
+            // Source qui annonce le fichier puis coupe la connexion en cours de route
+            String checksum = diallo.getFileManager().calculerChecksum(original);
+            CompletableFuture<Void> source = CompletableFuture.runAsync(() -> {
+                try (Socket socket = sourceInterrompue.accept()) {
+                    java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+                    in.readByte();
+                    in.readByte();
+                    int requestId = in.readInt();
+                    in.readFully(new byte[in.readInt()]);
+                    
+                    byte[] nomChecksum = checksum.getBytes("UTF-8");
+                    java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream());
+                    out.writeByte(0xB2);
+                    out.writeByte(0x80);
+                    out.writeInt(requestId);
+                    out.writeInt(4 + nomChecksum.length + 8);
+                    out.writeInt(nomChecksum.length);
+                    out.write(nomChecksum);
+                    out.writeLong(contenu.length);
+                    out.write(contenu, 0, coupure);
+                    out.flush();
+                } catch (IOException e) {
+                    System.err.println("Source interrompue : " + e.getMessage());
+                }
+            });
+            
+            boolean download = ben.telechargerFichierDepuisPeer("reprise.dat", "localhost", 8032);
+            source.join();
+            resultatTest(!download && ben.getTelechargementsInterrompus().contains("reprise.dat"),
+                    "Téléchargement interrompu conservé pour reprise");
+            resultatTest(safy.listerFichiersPeerDistant("localhost", 8002).stream().noneMatch(f -> f.startsWith("reprise.dat")),
+                    "Fichier partiel absent du partage");
+            
+            // Nouvelle tentative depuis une autre source: seule la fin est transférée
+            double[] depart = {-1};
+            Transfert reprise = ben.telechargerDepuisPeerAsync(new PeerInfo("localhost", 8006, "Diallo"), "reprise.dat")
+                    .surProgression(t -> {
+                        if (depart[0] < 0) depart[0] = t.getProgression();
+                    });
+            boolean repris = reprise.getResultat().get(30, TimeUnit.SECONDS);
+            resultatTest(repris && depart[0] >= (double) coupure / contenu.length && copie.length() == contenu.length,
+                    "Reprise à " + (int) (depart[0] * 100) + "% puis fichier complet vérifié");
+            resultatTest(ben.getTelechargementsInterrompus().isEmpty(), "Journal de reprise supprimé");
+        } finally {
+            original.delete();
+            copie.delete();
+        }
+        
+        // Réception bufferisée: points de reprise enregistrés pendant le transfert
+        byte[] gros = new byte[20 * 1024 * 1024];
+        new java.util.Random(14).nextBytes(gros);
+        int envoyes = 17 * 1024 * 1024;
+        File journal = new File(ben.getDossierPartage(), "reprise_tampon.dat.part.journal");
+        java.util.concurrent.CountDownLatch fin = new java.util.concurrent.CountDownLatch(1);
+        boolean zeroCopie = ben.isTransfertZeroCopie();
+        ben.setTransfertZeroCopie(false);
+        try (java.net.ServerSocket sourceBloquee = new java.net.ServerSocket(8032)) {
+            String checksum = String.format("%064x",
+                    new java.math.BigInteger(1, java.security.MessageDigest.getInstance("SHA-256").digest(gros)));
+            CompletableFuture<Void> source = CompletableFuture.runAsync(() -> {
+                try (Socket socket = sourceBloquee.accept()) {
+                    java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+                    in.readByte();
+                    in.readByte();
+                    int requestId = in.readInt();
+                    in.readFully(new byte[in.readInt()]);
+                    
+                    byte[] nomChecksum = checksum.getBytes("UTF-8");
+                    java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream());
+                    out.writeByte(0xB2);
+                    out.writeByte(0x80);
+                    out.writeInt(requestId);
+                    out.writeInt(4 + nomChecksum.length + 8);
+                    out.writeInt(nomChecksum.length);
+                    out.write(nomChecksum);
+                    out.writeLong(gros.length);
+                    out.write(gros, 0, envoyes);
+                    out.flush();
+                    // Source bloquée: seul le point de reprise déjà enregistré protège les octets reçus
+                    fin.await(10, TimeUnit.SECONDS);
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("Source bloquée : " + e.getMessage());
+                }
+            });
+            
+            Transfert transfert = ben.telechargerDepuisPeerAsync(new PeerInfo("localhost", 8032, "Bloquee"),
+                    "reprise_tampon.dat");
+            long confirmes = 0;
+            long limite = System.currentTimeMillis() + 10000;
+            while (confirmes < 16 * 1024 * 1024 && System.currentTimeMillis() < limite) {
+                Thread.sleep(50);
+                java.util.Properties proprietes = new java.util.Properties();
+                try (java.io.InputStream in = new java.io.FileInputStream(journal)) {
+                    proprietes.load(in);
+                    confirmes = Long.parseLong(proprietes.getProperty("confirmes", "0"));
+                } catch (IOException | RuntimeException e) {
+                    // Journal pas encore créé ou en cours de remplacement
+                }
+            }
+            resultatTest(confirmes >= 16 * 1024 * 1024,
+                    "Point de reprise enregistré pendant une réception bufferisée : " + confirmes + " octets");
+            fin.countDown();
+            source.join();
+            resultatTest(!transfert.getResultat().get(30, TimeUnit.SECONDS)
+                    && ben.getTelechargementsInterrompus().contains("reprise_tampon.dat"),
+                    "Réception bufferisée interrompue conservée pour reprise");
+        } finally {
+            fin.countDown();
+            ben.setTransfertZeroCopie(zeroCopie);
+            journal.delete();
+            new File(ben.getDossierPartage(), "reprise_tampon.dat.part").delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testGetIntervalles() throws Exception {
+        System.out.println("=== 15. Test des lectures par intervalle ===");
+        
+        File fichier = new File(diallo.getDossierPartage(), "intervalles.dat");
+        byte[] contenu = new byte[1_000_003];
+        for (int i = 0; i < contenu.length; i++) {
+            contenu[i] = (byte) (i % 251);
+        }
+        try (FileOutputStream fos = new FileOutputStream(fichier)) {
+            fos.write(contenu);
+        }
+        PeerInfo source = new PeerInfo("localhost", 8006, "Diallo");
+        
+        try {
+            // Intervalle au milieu du fichier
+            IntervalleFichier milieu = ben.lireIntervalle(source, "intervalles.dat", 1000, 5000);
+            resultatTest(java.util.Arrays.equals(milieu.getDonnees(), java.util.Arrays.copyOfRange(contenu, 1000, 6000))
+                    && milieu.getTailleFichier() == contenu.length
+                    && milieu.getChecksumFichier().equals(diallo.getFileManager().calculerChecksum(fichier)),
+                    "Intervalle " + milieu + " identique à l'original");
+            
+            // Intervalles aux bornes
+            IntervalleFichier fin = ben.lireIntervalle(source, "intervalles.dat", contenu.length - 10, 100);
+            resultatTest(fin.getLongueur() == 10 && fin.atteintFin() && fin.getDonnees()[9] == contenu[contenu.length - 1],
+                    "Intervalle tronqué à la fin du fichier : " + fin);
+            IntervalleFichier apresFin = ben.lireIntervalle(source, "intervalles.dat", contenu.length, 10);
+            resultatTest(apresFin.getLongueur() == 0, "Intervalle vide à la fin du fichier");
+            IntervalleFichier vide = ben.lireIntervalle(source, "intervalles.dat", 0, 0);
+            resultatTest(vide.getLongueur() == 0 && vide.getTailleFichier() == contenu.length, "Intervalle de longueur 0");
+            try {
+                ben.lireIntervalle(source, "intervalles.dat", contenu.length + 1, 10);
+                resultatTest(false, "Erreur gérée : offset au-delà de la fin");
+            } catch (IOException e) {
+                resultatTest(true, "Erreur gérée : offset au-delà de la fin (" + e.getMessage() + ")");
+            }
+            try {
+                ben.lireIntervalle(source, "intervalle_inexistant.dat", 0, 10);
+                resultatTest(false, "Erreur gérée : intervalle d'un fichier inexistant");
+            } catch (IOException e) {
+                resultatTest(true, "Erreur gérée : intervalle d'un fichier inexistant");
+            }
+            try {
+                ben.lireIntervalle(source, "../Diallo/intervalles.dat", 0, 10);
+                resultatTest(false, "Erreur gérée : intervalle d'un chemin relatif");
+            } catch (IOException e) {
+                resultatTest(true, "Erreur gérée : intervalle d'un chemin relatif (" + e.getMessage() + ")");
+            }
+            
+            // Fichier vide
+            File fichierVide = new File(aimerou.getDossierPartage(), "fichier_vide.txt");
+            fichierVide.createNewFile();
+            IntervalleFichier intervalleVide = ben.lireIntervalle(new PeerInfo("localhost", 8003, "Aimerou"),
+                    "fichier_vide.txt", 0, 1024);
+            resultatTest(intervalleVide.getLongueur() == 0 && intervalleVide.getTailleFichier() == 0
+                    && intervalleVide.atteintFin(), "Intervalle d'un fichier vide");
+            
+            // Le checksum révèle une modification entre deux intervalles
+            contenu[0] = (byte) 255;
+            try (FileOutputStream fos = new FileOutputStream(fichier)) {
+                fos.write(contenu);
+            }
+            fichier.setLastModified(System.currentTimeMillis() + 2000); // invalide le checksum en cache
+            IntervalleFichier apresModification = ben.lireIntervalle(source, "intervalles.dat", 6000, 5000);
+            resultatTest(!apresModification.getChecksumFichier().equals(milieu.getChecksumFichier()),
+                    "Modification du fichier détectée entre deux intervalles");
+        } finally {
+            fichier.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testTelechargementEssaim() throws Exception {
+        System.out.println("=== 16. Test du téléchargement en essaim ===");
+        
+        byte[] contenu = new byte[6 * 1024 * 1024];
+        for (int i = 0; i < contenu.length; i++) {
+            contenu[i] = (byte) (i * 7 + i / 65536);
+        }
+        byte[] autreVersion = contenu.clone();
+        autreVersion[0]++;
+        Peer[] detenteurs = {diallo, fatou, moussa};
+        long deuxMo = 2 * 1024 * 1024;
+        File copie = new File(ben.getDossierPartage(), "essaim.dat");
+        copie.delete();
+        
+        try {
+            // Trois détenteurs à 2 Mo/s, le troisième beaucoup plus lent;
+            // Aimerou partage une autre version du fichier
+            for (Peer detenteur : detenteurs) {
+                try (FileOutputStream fos = new FileOutputStream(new File(detenteur.getDossierPartage(), "essaim.dat"))) {
+                    fos.write(contenu);
+                }
+                detenteur.setDebitMaxEnvoi(detenteur == moussa ? deuxMo / 8 : deuxMo);
+            }
+            try (FileOutputStream fos = new FileOutputStream(new File(aimerou.getDossierPartage(), "essaim.dat"))) {
+                fos.write(autreVersion);
+            }
+            java.util.function.IntSupplier nbDetenteurs = () -> (int) ben.rechercherFichierAvecPeerInfo("essaim.dat")
+                    .stream().mapToInt(PeerInfo::getPort).distinct().count();
+            long limite = System.currentTimeMillis() + 5000;
+            while (nbDetenteurs.getAsInt() < 4 && System.currentTimeMillis() < limite) {
+                Thread.sleep(50);
+            }
+            resultatTest(nbDetenteurs.getAsInt() == 4, "Fichier visible chez 4 peers");
+            
+            // Une seule source à 2 Mo/s mettrait 3 s
+            long debut = System.currentTimeMillis();
+            boolean download = ben.telechargerFichier("essaim.dat");
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(download && duree < 2500, "Téléchargement en essaim de 6 Mo en " + duree + " ms");
+            resultatTest(copie.length() == contenu.length
+                    && java.util.Arrays.equals(java.nio.file.Files.readAllBytes(copie.toPath()), contenu),
+                    "Fichier assemblé identique à la version majoritaire");
+            resultatTest(ben.getTelechargementsInterrompus().isEmpty()
+                    && !new File(ben.getDossierPartage(), "essaim.dat.part").exists(),
+                    "Fichier partiel et journal supprimés");
+            
+            // Plusieurs flux parallèles vers un seul peer
+            File copieSafy = new File(safy.getDossierPartage(), "essaim.dat");
+            copieSafy.delete();
+            safy.setFluxParPeer(4);
+            try {
+                boolean multiFlux = safy.telechargerFichierDepuisPeer("essaim.dat", "localhost", 8006);
+                resultatTest(multiFlux && java.util.Arrays.equals(java.nio.file.Files.readAllBytes(copieSafy.toPath()), contenu),
+                        "Téléchargement sur plusieurs flux depuis Diallo identique à l'original");
+            } finally {
+                safy.setFluxParPeer(1);
+                copieSafy.delete();
+            }
+        } finally {
+            for (Peer detenteur : detenteurs) {
+                detenteur.setDebitMaxEnvoi(0);
+                new File(detenteur.getDossierPartage(), "essaim.dat").delete();
+            }
+            new File(aimerou.getDossierPartage(), "essaim.dat").delete();
+            copie.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testSessionUpload() throws Exception {
+        System.out.println("=== 17. Test des sessions d'upload ===");
+        
+        int n = 300;
+        List<String> noms = new java.util.ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String nom = "session_" + i + ".txt";
+            try (FileOutputStream fos = new FileOutputStream(new File(ben.getDossierPartage(), nom))) {
+                fos.write(("Fichier " + i + " de la session\n").repeat(1 + i % 50).getBytes());
+            }
+            noms.add(nom);
+        }
+        
+        try {
+            // Un fichier par connexion, deux allers-retours chacun
+            int unParUn = 30;
+            long debut = System.currentTimeMillis();
+            for (int i = 0; i < unParUn; i++) {
+                ben.uploaderFichierVersPeer(noms.get(i), "localhost", 8005);
+            }
+            double msParFichier = (System.currentTimeMillis() - debut) / (double) unParUn;
+            
+            // Tous les fichiers dans une seule session, plus un fichier absent
+            List<String> session = new java.util.ArrayList<>(noms);
+            session.add("session_absent.txt");
+            debut = System.currentTimeMillis();
+            BilanTransferts bilan = ben.uploaderFichiersVersPeer(session, "localhost", 8006);
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(bilan.getReussites().size() == n && bilan.getEchecs().keySet().equals(
+                    java.util.Collections.singleton("session_absent.txt")), "Bilan de session : " + bilan);
+            
+            boolean identiques = true;
+            for (String nom : noms) {
+                identiques &= java.util.Arrays.equals(
+                        java.nio.file.Files.readAllBytes(new File(ben.getDossierPartage(), nom).toPath()),
+                        java.nio.file.Files.readAllBytes(new File(diallo.getDossierPartage(), nom).toPath()));
+            }
+            resultatTest(identiques, "Fichiers de la session identiques aux originaux");
+            resultatTest(duree / (double) n < msParFichier, String.format(
+                    "%d fichiers en une session : %.2f ms/fichier contre %.2f ms un par un", n, duree / (double) n,
+                    msParFichier));
+            
+            // Les fichiers déjà présents sont renommés, pas écrasés
+            BilanTransferts doublons = ben.uploaderFichiersVersPeer(noms.subList(0, 2), "localhost", 8006);
+            resultatTest(doublons.estComplet() && doublons.getReussites().get("session_0.txt").equals("session_0(1).txt"),
+                    "Doublons renommés : " + doublons.getReussites());
+            
+            // Un peer qui répond par moins d'acceptations que de fichiers: la session échoue proprement
+            try (java.net.ServerSocket cibleInvalide = new java.net.ServerSocket(8033)) {
+                CompletableFuture<Void> cible = CompletableFuture.runAsync(() -> {
+                    try (Socket socket = cibleInvalide.accept()) {
+                        java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+                        in.readByte();
+                        in.readByte();
+                        int requestId = in.readInt();
+                        in.readFully(new byte[in.readInt()]);
+                        
+                        java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream());
+                        out.writeByte(0xB2);
+                        out.writeByte(0x80);
+                        out.writeInt(requestId);
+                        out.writeInt(4 + 1);
+                        out.writeInt(1);
+                        out.writeByte(1);
+                        out.flush();
+                        in.read();
+                    } catch (IOException e) {
+                        System.err.println("Cible invalide : " + e.getMessage());
+                    }
+                });
+                BilanTransferts invalide = ben.uploaderFichiersVersPeer(noms.subList(0, 2), "localhost", 8033);
+                cible.join();
+                resultatTest(invalide.getEchecs().size() == 2 && invalide.getReussites().isEmpty(),
+                        "Acceptations incomplètes : session en échec " + invalide.getEchecs());
+            }
+        } finally {
+            for (Peer peer : new Peer[] { ben, fatou, diallo }) {
+                File[] fichiers = peer.getDossierPartage().listFiles((d, nom) -> nom.startsWith("session_"));
+                if (fichiers != null) {
+                    for (File fichier : fichiers) {
+                        fichier.delete();
+                    }
+                }
+            }
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testGetMany() throws Exception {
+        System.out.println("=== 18. Test des téléchargements groupés ===");
+        
+        int n = 300;
+        List<String> noms = new java.util.ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String nom = "groupe_" + i + ".txt";
+            try (FileOutputStream fos = new FileOutputStream(new File(diallo.getDossierPartage(), nom))) {
+                fos.write(("Petit fichier " + i + "\n").repeat(1 + i % 40).getBytes());
+            }
+            noms.add(nom);
+        }
+        
+        try {
+            // Un GET par fichier
+            int unParUn = 30;
+            long debut = System.currentTimeMillis();
+            for (int i = 0; i < unParUn; i++) {
+                safy.telechargerFichierDepuisPeer(noms.get(i), "localhost", 8006);
+            }
+            double msParFichier = (System.currentTimeMillis() - debut) / (double) unParUn;
+            
+            // Un téléchargement reprenable de groupe_1.txt est en attente chez Ben
+            File partielReprenable = new File(ben.getDossierPartage(), "groupe_1.txt.part");
+            File journalReprenable = new File(ben.getDossierPartage(), "groupe_1.txt.part.journal");
+            try (FileOutputStream fos = new FileOutputStream(partielReprenable)) {
+                fos.write("Petit fi".getBytes());
+            }
+            try (FileOutputStream fos = new FileOutputStream(journalReprenable)) {
+                fos.write("8\n".getBytes());
+            }
+            
+            // Tous les fichiers en un GET_MANY, plus un nom absent et un chemin refusé
+            List<String> demandes = new java.util.ArrayList<>(noms);
+            demandes.add("groupe_absent.txt");
+            demandes.add("../Safy/groupe_0.txt");
+            debut = System.currentTimeMillis();
+            BilanTransferts bilan = ben.telechargerFichiersDepuisPeer(demandes, "localhost", 8006);
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(bilan.getReussites().size() == n && bilan.getEchecs().size() == 2
+                    && bilan.getEchecs().containsKey("groupe_absent.txt"), "Bilan du GET_MANY : " + bilan
+                            + " " + bilan.getEchecs());
+            
+            boolean identiques = true;
+            for (String nom : noms) {
+                identiques &= java.util.Arrays.equals(
+                        java.nio.file.Files.readAllBytes(new File(diallo.getDossierPartage(), nom).toPath()),
+                        java.nio.file.Files.readAllBytes(new File(ben.getDossierPartage(), nom).toPath()));
+            }
+            resultatTest(identiques, "Fichiers reçus identiques aux originaux");
+            resultatTest(duree / (double) n < msParFichier, String.format(
+                    "%d fichiers en un GET_MANY : %.2f ms/fichier contre %.2f ms un par un", n, duree / (double) n,
+                    msParFichier));
+            resultatTest(ben.getDossierPartage().listFiles((d, nom) -> nom.endsWith(".part")).length == 1
+                    && partielReprenable.length() == 8 && journalReprenable.exists(),
+                    "Aucun fichier de travail restant, partiel reprenable intact");
+        } finally {
+            for (Peer peer : new Peer[] { ben, safy, diallo }) {
+                File[] fichiers = peer.getDossierPartage().listFiles((d, nom) -> nom.startsWith("groupe_"));
+                if (fichiers != null) {
+                    for (File fichier : fichiers) {
+                        fichier.delete();
+                    }
+                }
+            }
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testSynchronisationDifferentielle() throws Exception {
+        System.out.println("=== 19. Test de la synchronisation différentielle ===");
+        
+        String nom = "delta_test.bin";
+        File original = new File(diallo.getDossierPartage(), nom);
+        File copie = new File(ben.getDossierPartage(), nom);
+        byte[] contenu = new byte[4 * 1024 * 1024];
+        new java.util.Random(18).nextBytes(contenu);
+        
+        try {
+            java.nio.file.Files.write(original.toPath(), contenu);
+            java.nio.file.Files.write(copie.toPath(), contenu);
+            
+            // Déjà à jour: rien n'est reconstruit
+            resultatTest(ben.synchroniserDepuisPeer(nom, "localhost", 8006), "Fichier identique déjà à jour");
+            
+            // Signatures forgées annonçant 2^31 - 2 blocs dans 30 octets: refusées sans allocation
+            long nombreForge = Integer.MAX_VALUE - 1;
+            java.nio.ByteBuffer forge = java.nio.ByteBuffer.allocate(64)
+                    .putInt(nom.length()).put(nom.getBytes()).putInt(0)
+                    .putInt(2048).putLong(2048 * nombreForge).putInt((int) nombreForge);
+            resultatTest(echangerTrameForgee(8006, (byte) 0x0A, java.util.Arrays.copyOf(forge.array(), forge.position()))
+                    == 0x81, "Signatures de taille démesurée refusées");
+            
+            // Quelques octets modifiés, une insertion au milieu et un ajout à la fin
+            java.io.ByteArrayOutputStream modifie = new java.io.ByteArrayOutputStream();
+            modifie.write(contenu, 0, 1000);
+            modifie.write("modifié".getBytes());
+            modifie.write(contenu, 1000 + 8, 2 * 1024 * 1024 - 1008);
+            modifie.write("insertion au milieu du fichier".getBytes());
+            modifie.write(contenu, 2 * 1024 * 1024, contenu.length - 2 * 1024 * 1024);
+            modifie.write("ajout en fin de fichier".getBytes());
+            byte[] nouveau = modifie.toByteArray();
+            java.nio.file.Files.write(original.toPath(), nouveau);
+            original.setLastModified(System.currentTimeMillis() + 2000);
+            
+            // A 1 Mo/s, un transfert complet prendrait plus de 4 s
+            diallo.setDebitMaxEnvoi(1024 * 1024);
+            long debut = System.currentTimeMillis();
+            boolean synchronise = ben.synchroniserDepuisPeer(nom, "localhost", 8006);
+            long duree = System.currentTimeMillis() - debut;
+            diallo.setDebitMaxEnvoi(0);
+            
+            resultatTest(synchronise && java.util.Arrays.equals(nouveau, java.nio.file.Files.readAllBytes(copie.toPath())),
+                    "Version locale mise à jour à l'identique");
+            resultatTest(duree < 2000, "Synchronisation de 4 Mo à 1 Mo/s en " + duree + " ms");
+            File[] autres = ben.getDossierPartage().listFiles(
+                    (d, n) -> n.startsWith("delta_test") && !n.equals(nom));
+            resultatTest(autres != null && autres.length == 0, "Aucune copie ni fichier de travail créé");
+            
+            // Sans version locale, le fichier est téléchargé entièrement
+            copie.delete();
+            resultatTest(ben.synchroniserDepuisPeer(nom, "localhost", 8006) && copie.length() == nouveau.length,
+                    "Sans version locale, téléchargement complet");
+        } finally {
+            diallo.setDebitMaxEnvoi(0);
+            original.delete();
+            copie.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testTelechargementParContenu() throws Exception {
+        System.out.println("=== 20. Test des téléchargements par contenu ===");
+        
+        byte[] contenu = new byte[3 * 1024 * 1024];
+        new java.util.Random(19).nextBytes(contenu);
+        byte[] autreContenu = "Contenu désigné par son checksum\n".repeat(1000).getBytes();
+        File source = new File(diallo.getDossierPartage(), "contenu_a.bin");
+        File dejaLocal = new File(ben.getDossierPartage(), "contenu_local.bin");
+        File autre = new File(diallo.getDossierPartage(), "contenu_b.txt");
+        byte[] contenuHomonyme = "Autre fichier du même nom\n".repeat(100).getBytes();
+        File sourceHomonyme = new File(diallo.getDossierPartage(), "contenu_c.bin");
+        File homonymeLocal = new File(ben.getDossierPartage(), "contenu_c.bin");
+        
+        try {
+            java.nio.file.Files.write(source.toPath(), contenu);
+            java.nio.file.Files.write(sourceHomonyme.toPath(), contenu);
+            java.nio.file.Files.write(homonymeLocal.toPath(), contenuHomonyme);
+            java.nio.file.Files.write(dejaLocal.toPath(), contenu);
+            java.nio.file.Files.write(autre.toPath(), autreContenu);
+            String checksumAutre = new FileManager(diallo.getDossierPartage().getPath()).calculerChecksum(autre);
+            
+            long limite = System.currentTimeMillis() + 5000;
+            while ((ben.rechercherFichier("contenu_a.bin").isEmpty() || ben.rechercherFichier("contenu_c.bin").isEmpty()
+                    || safy.rechercherFichier("contenu_b.txt").isEmpty())
+                    && System.currentTimeMillis() < limite) {
+                Thread.sleep(50);
+            }
+            
+            // Même contenu déjà partagé sous un autre nom: rien n'est transféré,
+            // même à 256 Ko/s
+            diallo.setDebitMaxEnvoi(256 * 1024);
+            long debut = System.currentTimeMillis();
+            boolean download = ben.telechargerFichier("contenu_a.bin");
+            long duree = System.currentTimeMillis() - debut;
+            File copie = new File(ben.getDossierPartage(), "contenu_a.bin");
+            resultatTest(download && duree < 1000 && java.util.Arrays.equals(contenu,
+                    java.nio.file.Files.readAllBytes(copie.toPath())),
+                    "Contenu déjà présent obtenu localement en " + duree + " ms");
+            
+            // Un second téléchargement ne crée pas de copie "(1)"
+            resultatTest(ben.telechargerFichierDepuisPeer("contenu_a.bin", "localhost", 8006)
+                    && !new File(ben.getDossierPartage(), "contenu_a(1).bin").exists(),
+                    "Aucune copie en double du même contenu");
+            
+            // Le nom est pris par un autre contenu: version locale synchronisée, sans copie "(1)"
+            resultatTest(ben.telechargerFichierDepuisPeer("contenu_c.bin", "localhost", 8006)
+                    && java.util.Arrays.equals(contenu, java.nio.file.Files.readAllBytes(homonymeLocal.toPath()))
+                    && !new File(ben.getDossierPartage(), "contenu_c(1).bin").exists(),
+                    "Nom pris par un autre contenu : version locale synchronisée");
+            diallo.setDebitMaxEnvoi(0);
+            
+            // Téléchargement désigné par le checksum seul
+            File recu = safy.telechargerParChecksum(checksumAutre);
+            resultatTest(recu != null && recu.getName().equals("contenu_b.txt")
+                    && java.util.Arrays.equals(autreContenu, java.nio.file.Files.readAllBytes(recu.toPath())),
+                    "Téléchargement par checksum : " + (recu != null ? recu.getName() : "échec"));
+            File present = safy.telechargerParChecksum(checksumAutre);
+            resultatTest(recu != null && recu.equals(present), "Contenu déjà présent retrouvé par son checksum");
+            resultatTest(safy.telechargerParChecksum("0".repeat(64)) == null, "Checksum inconnu refusé");
+        } finally {
+            diallo.setDebitMaxEnvoi(0);
+            for (Peer peer : new Peer[] { ben, safy, diallo }) {
+                File[] fichiers = peer.getDossierPartage().listFiles((d, nom) -> nom.startsWith("contenu_"));
+                if (fichiers != null) {
+                    for (File fichier : fichiers) {
+                        fichier.delete();
+                    }
+                }
+            }
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testVerificationBlocs() throws Exception {
+        System.out.println("=== 21. Test de la vérification par blocs ===");
+        
+        // Les métadonnées portent la racine de Merkle des blocs
+        byte[] contenu = new byte[3 * 1024 * 1024 + 1000];
+        new java.util.Random(20).nextBytes(contenu);
+        File original = new File(diallo.getDossierPartage(), "merkle.bin");
+        File copie = new File(ben.getDossierPartage(), "merkle.bin");
+        java.nio.file.Files.write(original.toPath(), contenu);
+        
+        Metadata meta = new Metadata("merkle.bin", contenu.length, "abc", 42, "0f".repeat(32), 1024 * 1024);
+        Metadata relue = Metadata.deserialiser(meta.serialiser());
+        resultatTest(relue.aRacineMerkle() && relue.getRacineMerkle().equals(meta.getRacineMerkle())
+                && relue.getTailleBloc() == meta.getTailleBloc(), "Racine de Merkle conservée par la sérialisation");
+        
+        // Un client v1 (LIST texte) reçoit des métadonnées en version 1, seule qu'il sache lire
+        try (Socket socket = new Socket("localhost", 8006)) {
+            socket.getOutputStream().write("LIST\n".getBytes());
+            java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+            byte[] catalogue = new byte[in.readInt()];
+            in.readFully(catalogue);
+            java.nio.ByteBuffer lecture = java.nio.ByteBuffer.wrap(catalogue);
+            int nombre = lecture.getInt();
+            boolean versionInitiale = nombre > 0;
+            for (int i = 0; i < nombre; i++) {
+                byte[] entree = new byte[lecture.getInt()];
+                lecture.get(entree);
+                versionInitiale &= java.nio.ByteBuffer.wrap(entree, 4, 4).getInt() == 1
+                        && !Metadata.deserialiser(entree).aRacineMerkle();
+            }
+            resultatTest(versionInitiale, "LIST texte servi en métadonnées version 1 (" + nombre + " fichiers)");
+        }
+        
+        // Un octet du contenu altéré en route: seul son bloc est redemandé
+        try (ProxyCorrupteur proxy = new ProxyCorrupteur(8023, 8006, 1536 * 1024)) {
+            boolean download = ben.telechargerFichierDepuisPeer("merkle.bin", "localhost", 8023);
+            resultatTest(download && java.util.Arrays.equals(contenu, java.nio.file.Files.readAllBytes(copie.toPath())),
+                    "Fichier réparé identique à l'original");
+            long relayes = proxy.getOctetsRelayes();
+            resultatTest(proxy.aCorrompu() && relayes < contenu.length + 1536 * 1024,
+                    "Un seul bloc redemandé : " + relayes + " octets reçus pour " + contenu.length);
+            resultatTest(ben.getTelechargementsInterrompus().isEmpty(), "Aucun fichier partiel restant");
+        } finally {
+            original.delete();
+            copie.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testHachageReception() throws Exception {
+        System.out.println("=== 22. Test du hachage à la réception ===");
+        
+        byte[] contenu = new byte[5 * 1024 * 1024 + 123];
+        new java.util.Random(21).nextBytes(contenu);
+        File original = new File(diallo.getDossierPartage(), "hachage_recu.bin");
+        File telecharge = new File(ben.getDossierPartage(), "hachage_recu.bin");
+        File envoye = new File(safy.getDossierPartage(), "hachage_envoye.bin");
+        File uploade = new File(diallo.getDossierPartage(), "hachage_envoye.bin");
+        
+        try {
+            java.nio.file.Files.write(original.toPath(), contenu);
+            java.nio.file.Files.write(envoye.toPath(), contenu);
+            String checksum = new FileManager(diallo.getDossierPartage().getPath()).calculerChecksum(original);
+            // Les fichiers déjà partagés sont hachés avant de compter les lectures
+            long limiteIndexation = System.currentTimeMillis() + 10000;
+            for (Peer peer : new Peer[] { ben, diallo }) {
+                peer.getFileManager().lancerIndexation();
+                while (peer.getFileManager().getNombreFichiersEnAttente() > 0
+                        && System.currentTimeMillis() < limiteIndexation) {
+                    Thread.sleep(20);
+                }
+            }
+            
+            // Téléchargement: le checksum calculé à la réception remplit le cache
+            long lectures = lecturesHachage(ben);
+            boolean download = ben.telechargerFichierDepuisPeer("hachage_recu.bin", "localhost", 8006);
+            resultatTest(download && checksum.equals(ben.getFileManager().calculerChecksum(telecharge)),
+                    "Fichier téléchargé vérifié");
+            resultatTest(lecturesHachage(ben) == lectures, "Fichier téléchargé jamais relu pour son checksum");
+            
+            // Upload: même chose côté réception
+            lectures = lecturesHachage(diallo);
+            boolean upload = safy.uploaderFichierVersPeer("hachage_envoye.bin", "localhost", 8006);
+            resultatTest(upload && checksum.equals(diallo.getFileManager().calculerChecksum(uploade)),
+                    "Fichier uploadé vérifié");
+            resultatTest(lecturesHachage(diallo) == lectures, "Fichier uploadé jamais relu pour son checksum");
+        } finally {
+            original.delete();
+            telecharge.delete();
+            envoye.delete();
+            uploade.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static long lecturesHachage(Peer peer) {
+        return lecturesHachage(peer.getFileManager());
+    }
+    
+    private static long lecturesHachage(FileManager fileManager) {
+        return (Long) fileManager.getStatistiquesCache().get("lectures_hachage");
+    }
+    
+    private static long lecturesHachageRapide(FileManager fileManager) {
+        return (Long) fileManager.getStatistiquesCache().get("lectures_hachage_rapide");
+    }
+    
+    private static void testIndexPersistant() throws Exception {
+        System.out.println("=== 23. Test de l'index persistant des checksums ===");
+        
+        File dossier = new File("./uploads/Index");
+        dossier.mkdirs();
+        File index = new File(dossier, ".checksums.index");
+        File[] fichiers = new File[5];
+        try {
+            for (int i = 0; i < fichiers.length; i++) {
+                fichiers[i] = new File(dossier, "indexe_" + i + ".bin");
+                byte[] contenu = new byte[1024 * 1024 + i];
+                new java.util.Random(22 + i).nextBytes(contenu);
+                java.nio.file.Files.write(fichiers[i].toPath(), contenu);
+            }
+            
+            FileManager premier = new FileManager(dossier.getPath());
+            String[] checksums = new String[fichiers.length];
+            for (int i = 0; i < fichiers.length; i++) {
+                checksums[i] = premier.calculerChecksum(fichiers[i]);
+            }
+            resultatTest(premier.listerFichiers().size() == fichiers.length, "Index exclu des fichiers partagés");
+            
+            // Redémarrage: aucun fichier relu
+            FileManager redemarre = new FileManager(dossier.getPath());
+            boolean identiques = true;
+            for (int i = 0; i < fichiers.length; i++) {
+                identiques &= checksums[i].equals(redemarre.calculerChecksum(fichiers[i]));
+            }
+            resultatTest(identiques && lecturesHachage(redemarre) == 0,
+                    "Checksums repris au redémarrage sans relecture");
+            resultatTest(redemarre.calculerArbreMerkle(fichiers[0]) != null && lecturesHachage(redemarre) == 0,
+                    "Arbres de Merkle repris au redémarrage");
+            
+            // Fichier modifié et fin d'index tronquée par un arrêt brutal
+            java.nio.file.Files.write(fichiers[1].toPath(), "modifié".getBytes(),
+                    java.nio.file.StandardOpenOption.APPEND);
+            fichiers[1].setLastModified(fichiers[1].lastModified() + 2000);
+            long tailleIndex = index.length();
+            try (java.io.FileOutputStream fos = new java.io.FileOutputStream(index, true)) {
+                fos.write(new byte[] { 0, 0, 1, 0, 42, 42 });
+            }
+            FileManager apresCrash = new FileManager(dossier.getPath());
+            resultatTest(index.length() == tailleIndex, "Enregistrement incomplet retiré de l'index");
+            resultatTest(checksums[0].equals(apresCrash.calculerChecksum(fichiers[0])) && lecturesHachage(apresCrash) == 0,
+                    "Fichier inchangé repris après l'arrêt brutal");
+            resultatTest(!checksums[1].equals(apresCrash.calculerChecksum(fichiers[1])) && lecturesHachage(apresCrash) == 1,
+                    "Fichier modifié haché de nouveau");
+            
+            // Les réécritures successives finissent par compacter l'index
+            for (int i = 0; i < 100; i++) {
+                apresCrash.invaliderCache(fichiers[2]);
+                apresCrash.calculerChecksum(fichiers[2]);
+            }
+            resultatTest(index.length() < 10 * tailleIndex, "Index compacté : " + index.length() + " octets");
+            FileManager compacte = new FileManager(dossier.getPath());
+            for (File fichier : fichiers) {
+                compacte.calculerChecksum(fichier);
+            }
+            resultatTest(lecturesHachage(compacte) == 0, "Index compacté relu sans perte");
+        } finally {
+            File[] restants = dossier.listFiles();
+            if (restants != null) {
+                for (File fichier : restants) {
+                    fichier.delete();
+                }
+            }
+            dossier.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testHachageArrierePlan() throws Exception {
+        System.out.println("=== 24. Test du hachage en arrière-plan ===");
+        
+        // Indexation d'un dossier sur le ForkJoinPool
+        File dossier = new File("./uploads/Indexation");
+        dossier.mkdirs();
+        int n = 16;
+        try {
+            for (int i = 0; i < n; i++) {
+                byte[] contenu = new byte[2 * 1024 * 1024];
+                new java.util.Random(23 + i).nextBytes(contenu);
+                java.nio.file.Files.write(new File(dossier, "prehache_" + i + ".bin").toPath(), contenu);
+            }
+            FileManager fileManager = new FileManager(dossier.getPath());
+            fileManager.lancerIndexation();
+            fileManager.lancerIndexation();
+            long limite = System.currentTimeMillis() + 10000;
+            while (fileManager.getNombreFichiersEnAttente() > 0 && System.currentTimeMillis() < limite) {
+                Thread.sleep(20);
+            }
+            boolean tousHaches = true;
+            for (File fichier : fileManager.listerFichiers()) {
+                tousHaches &= fileManager.estHache(fichier) && fileManager.getProgressionHachage(fichier) == 1.0;
+            }
+            resultatTest(tousHaches && lecturesHachage(fileManager) == n && lecturesHachageRapide(fileManager) == 0,
+                    n + " fichiers lus une seule fois en arrière-plan");
+            fileManager.arreterIndexation();
+        } finally {
+            File[] restants = dossier.listFiles();
+            if (restants != null) {
+                for (File fichier : restants) {
+                    fichier.delete();
+                }
+            }
+            dossier.delete();
+        }
+        
+        // LIST annonce un nouveau fichier en attente au lieu de le hacher
+        byte[] gros = new byte[64 * 1024 * 1024];
+        new java.util.Random(24).nextBytes(gros);
+        File nouveau = new File(diallo.getDossierPartage(), "prehache_gros.bin");
+        try {
+            java.nio.file.Files.write(nouveau.toPath(), gros);
+            long debut = System.currentTimeMillis();
+            List<String> catalogue = ben.listerFichiersPeerDistant("localhost", 8006);
+            long duree = System.currentTimeMillis() - debut;
+            resultatTest(catalogue.contains("prehache_gros.bin"), "Nouveau fichier listé en " + duree + " ms");
+            
+            // Le checksum arrive avec le catalogue suivant, et le téléchargement le vérifie
+            long limite = System.currentTimeMillis() + 15000;
+            while (ben.rechercherFichier("prehache_gros.bin").isEmpty() && System.currentTimeMillis() < limite) {
+                Thread.sleep(50);
+            }
+            boolean download = ben.telechargerFichier("prehache_gros.bin");
+            File copie = new File(ben.getDossierPartage(), "prehache_gros.bin");
+            resultatTest(download && java.util.Arrays.equals(gros, java.nio.file.Files.readAllBytes(copie.toPath())),
+                    "Fichier en attente téléchargé et vérifié");
+            resultatTest(diallo.getFileManager().estHache(nouveau), "Fichier haché en arrière-plan chez Diallo");
+        } finally {
+            nouveau.delete();
+            new File(ben.getDossierPartage(), "prehache_gros.bin").delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testHachageMappe() throws Exception {
+        System.out.println("=== 25. Test du hachage par mappage mémoire ===");
+        
+        File dossier = new File("./uploads/Mappage");
+        dossier.mkdirs();
+        FileManager fileManager = new FileManager(dossier.getPath());
+        try {
+            // Tailles autour des limites de blocs de l'arbre de Merkle
+            boolean identiques = true;
+            for (int taille : new int[] { 0, 1, 1024 * 1024, 3 * 1024 * 1024 + 7 }) {
+                File fichier = new File(dossier, "mappe_" + taille + ".bin");
+                byte[] contenu = new byte[taille];
+                new java.util.Random(25).nextBytes(contenu);
+                java.nio.file.Files.write(fichier.toPath(), contenu);
+                
+                fileManager.setSeuilHachageMappe(Long.MAX_VALUE);
+                String checksumLu = fileManager.calculerChecksum(fichier);
+                fileManager.invaliderCache(fichier);
+                fileManager.setSeuilHachageMappe(0);
+                identiques &= checksumLu.equals(fileManager.calculerChecksum(fichier));
+            }
+            resultatTest(identiques, "Checksums identiques par lecture et par mappage");
+            
+            // Un gros fichier haché par mappage se télécharge avec vérification par blocs
+            File gros = new File(diallo.getDossierPartage(), "mappe_gros.bin");
+            File copie = new File(ben.getDossierPartage(), "mappe_gros.bin");
+            byte[] contenu = new byte[20 * 1024 * 1024 + 3];
+            new java.util.Random(26).nextBytes(contenu);
+            long seuilInitial = diallo.getFileManager().getSeuilHachageMappe();
+            try {
+                java.nio.file.Files.write(gros.toPath(), contenu);
+                diallo.getFileManager().setSeuilHachageMappe(16 * 1024 * 1024);
+                diallo.getFileManager().calculerChecksum(gros);
+                boolean download = ben.telechargerFichierDepuisPeer("mappe_gros.bin", "localhost", 8006);
+                resultatTest(download && java.util.Arrays.equals(contenu, java.nio.file.Files.readAllBytes(copie.toPath())),
+                        "Fichier haché par mappage téléchargé à l'identique");
+            } finally {
+                diallo.getFileManager().setSeuilHachageMappe(seuilInitial);
+                gros.delete();
+                copie.delete();
+            }
+        } finally {
+            fileManager.arreterIndexation();
+            File[] restants = dossier.listFiles();
+            if (restants != null) {
+                for (File fichier : restants) {
+                    fichier.delete();
+                }
+            }
+            dossier.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    private static void testHachageRapide() throws Exception {
+        System.out.println("=== 26. Test du hachage rapide ===");
+        
+        // Métadonnées version 3 avec le hash rapide, version 2 sans
+        Hachage crc = new Hachage(AlgorithmeHachage.CRC32C, "1a2b3c4d");
+        Metadata meta = new Metadata("rapide.bin", 42, "abc", 7, "0f".repeat(32), 1024 * 1024, crc);
+        Metadata v3 = Metadata.deserialiser(meta.serialiser());
+        Metadata v2 = Metadata.deserialiser(meta.serialiser(2));
+        resultatTest(crc.equals(v3.getHachageRapide()) && v3.getRacineMerkle().equals(meta.getRacineMerkle()),
+                "Hash rapide relu : " + v3.getHachageRapide());
+        resultatTest(v2.getHachageRapide() == null && v2.aRacineMerkle(), "Métadonnées version 2 sans hash rapide");
+        
+        File dossier = new File("./uploads/Rapide");
+        dossier.mkdirs();
+        int taille = 2 * 1024 * 1024;
+        try {
+            // Le hash rapide vient de la lecture du SHA-256, sans lecture de plus
+            File fichier = new File(dossier, "rapide_modifie.bin");
+            byte[] contenu = new byte[taille];
+            new java.util.Random(27).nextBytes(contenu);
+            java.nio.file.Files.write(fichier.toPath(), contenu);
+            FileManager fileManager = new FileManager(dossier.getPath());
+            String checksum = fileManager.calculerChecksum(fichier);
+            Hachage rapide = fileManager.getHachageRapide(fichier);
+            resultatTest(rapide != null && rapide.equals(fileManager.calculerHachageRapide(fichier))
+                    && lecturesHachage(fileManager) == 1 && lecturesHachageRapide(fileManager) == 0,
+                    "Hash rapide calculé dans la lecture du SHA-256 : " + rapide);
+            
+            // Même taille, contenu modifié: une seule relecture, en SHA-256
+            contenu[taille / 2] ^= 1;
+            java.nio.file.Files.write(fichier.toPath(), contenu);
+            fichier.setLastModified(fichier.lastModified() + 4000);
+            resultatTest(!checksum.equals(fileManager.calculerChecksum(fichier)) && lecturesHachage(fileManager) == 2
+                    && lecturesHachageRapide(fileManager) == 0, "Modification de même taille relue une seule fois");
+            fichier.delete();
+            
+            // Déduplication: seul le candidat de même taille et de même hash rapide est haché en SHA-256
+            byte[] cible = null;
+            for (int i = 0; i < 6; i++) {
+                byte[] octets = new byte[i < 5 ? taille : taille + 1];
+                new java.util.Random(28 + i).nextBytes(octets);
+                java.nio.file.Files.write(new File(dossier, "candidat_" + i + ".bin").toPath(), octets);
+                if (i == 3) {
+                    cible = octets;
+                }
+            }
+            AlgorithmeHachage.Calcul sha256 = AlgorithmeHachage.SHA256.nouveauCalcul();
+            AlgorithmeHachage.Calcul crc32c = AlgorithmeHachage.CRC32C.nouveauCalcul();
+            sha256.mettreAJour(cible, 0, cible.length);
+            crc32c.mettreAJour(cible, 0, cible.length);
+            FileManager candidats = new FileManager(dossier.getPath());
+            File trouve = candidats.trouverParChecksum(sha256.valeur(), taille,
+                    new Hachage(AlgorithmeHachage.CRC32C, crc32c.valeur()));
+            resultatTest(trouve != null && trouve.getName().equals("candidat_3.bin") && lecturesHachage(candidats) == 1
+                    && lecturesHachageRapide(candidats) == 5,
+                    "Candidat confirmé par un seul SHA-256 après 5 hashes rapides sur 6 fichiers");
+        } finally {
+            File[] restants = dossier.listFiles();
+            if (restants != null) {
+                for (File fichier : restants) {
+                    fichier.delete();
+                }
+            }
+            dossier.delete();
+        }
+        
+        System.out.println();
+    }
+    
+    /**
+     * Envoie une trame v2 forgée à la main et rend l'opcode de la réponse
+     */
+    private static int echangerTrameForgee(int port, byte opcode, byte[] payload) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream());
+            out.writeByte(0xB2);
+            out.writeByte(opcode);
+            out.writeInt(1);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+            java.io.DataInputStream in = new java.io.DataInputStream(socket.getInputStream());
+            in.readByte();
+            return in.readByte() & 0xff;
+        }
+    }
+    
+    /**
+     * Relais TCP qui altère un octet du premier flux serveur -> client
+     * assez long pour l'atteindre
+     */
+    private static class ProxyCorrupteur implements java.io.Closeable {
+        private final java.net.ServerSocket serveur;
+        private final java.util.concurrent.ExecutorService threads = java.util.concurrent.Executors.newCachedThreadPool();
+        private final long positionCorrompue;
+        private final java.util.concurrent.atomic.AtomicBoolean corrompu = new java.util.concurrent.atomic.AtomicBoolean();
+        private final java.util.concurrent.atomic.AtomicLong relayes = new java.util.concurrent.atomic.AtomicLong();
+        
+        ProxyCorrupteur(int port, int portCible, long positionCorrompue) throws IOException {
+            this.serveur = new java.net.ServerSocket(port);
+            this.positionCorrompue = positionCorrompue;
+            threads.execute(() -> {
+                while (!serveur.isClosed()) {
+                    try {
+                        Socket client = serveur.accept();
+                        Socket cible = new Socket("localhost", portCible);
+                        relayer(client, cible, false);
+                        relayer(cible, client, true);
+                    } catch (IOException e) {
+                        // Relais fermé
+                    }
+                }
+            });
+        }
+        
+        boolean aCorrompu() {
+            return corrompu.get();
+        }
+        
+        long getOctetsRelayes() {
+            return relayes.get();
+        }
+        
+        private void relayer(Socket de, Socket vers, boolean versClient) {
+            threads.execute(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                long position = 0;
+                try (InputStream in = de.getInputStream(); OutputStream out = vers.getOutputStream()) {
+                    int lu;
+                    while ((lu = in.read(buffer)) != -1) {
+                        if (versClient) {
+                            relayes.addAndGet(lu);
+                            if (position <= positionCorrompue && positionCorrompue < position + lu
+                                    && corrompu.compareAndSet(false, true)) {
+                                buffer[(int) (positionCorrompue - position)] ^= 0x01;
+                            }
+                        }
+                        position += lu;
+                        out.write(buffer, 0, lu);
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+                try {
+                    de.close();
+                    vers.close();
+                } catch (IOException ignored) {
+                }
+            });
+        }
+        
+        @Override
+        public void close() throws IOException {
+            serveur.close();
+            threads.shutdownNow();
+        }
+    }
+    
     // === MÉTHODES UTILITAIRES ===
     
+    /**
+     * Attend qu'un peer connaisse le peer local écoutant sur port
+     *
+     * @return le peer connu, ou null après delaiMs
+     */
+    private static PeerInfo attendrePeer(Peer peer, int port, long delaiMs) throws InterruptedException {
+        long limite = System.currentTimeMillis() + delaiMs;
+        do {
+            for (PeerInfo connu : peer.getPeersConnus()) {
+                if (connu.getPort() == port && connu.getAdresse().equals("localhost")) {
+                    return connu;
+                }
+            }
+            Thread.sleep(5);
+        } while (System.currentTimeMillis() < limite);
+        return null;
+    }
+    
+    /**
+     * GET texte v1 lu au rythme d'un client lent (petit tampon de réception)
+     *
+     * @return nombre d'octets reçus
+     */
+    private static long lireLentement(int port, String nomFichier) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(16 * 1024);
+            socket.connect(new java.net.InetSocketAddress("localhost", port));
+            
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + nomFichier + " 0\n").getBytes());
+            out.flush();
+            
+            InputStream in = socket.getInputStream();
+            int lignes = 0;
+            while (lignes < 2) { // checksum puis taille
+                int c = in.read();
+                if (c == -1) return -1;
+                if (c == '\n') lignes++;
+            }
+            
+            byte[] buffer = new byte[32 * 1024];
+            long total = 0;
+            int lu;
+            while ((lu = in.read(buffer)) != -1) {
+                total += lu;
+                Thread.sleep(4);
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+    
     private static void afficherFichiersInitiaux() {
         System.out.println("\n📂 Fichiers initiaux de chaque peer :");
         afficherFichiers(safy);
@@ -535,6 +2049,18 @@ public class MainAllTest {
         return String.format("%.1f GB", octets / (1024.0 * 1024 * 1024));
     }
     
+    private static void afficherRessources() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoire = ManagementFactory.getMemoryMXBean();
+        
+        System.out.println("\n📈 Ressources (mode " + System.getProperty("p2p.modeExecution", "PLATEFORME") + ") :");
+        System.out.println("  Threads plateforme actifs : " + threads.getThreadCount());
+        System.out.println("  Pic de threads plateforme : " + threads.getPeakThreadCount());
+        System.out.println("  Threads démarrés au total : " + threads.getTotalStartedThreadCount());
+        System.out.println("  Heap utilisé : " + formatTaille(memoire.getHeapMemoryUsage().getUsed()));
+        System.out.println("  Hors heap utilisé : " + formatTaille(memoire.getNonHeapMemoryUsage().getUsed()));
+    }
+    
     private static void resultatTest(boolean condition, String message) {
         String emoji = condition ? "✅" : "❌";
         String status = condition ? "SUCCÈS" : "ÉCHEC";
@@ -0,0 +1,420 @@
+import entities.FileManager;
+import entities.Peer;
+import entities.PeerInfo;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mesures de débit des chemins critiques du peer.
+ *
+ * Usage: java MainBenchmark [taille en Mo] [répétitions] [taille max hachée en Mo]
+ */
+public class MainBenchmark {
+
+    private static final int PORT_SERVEUR = 8020;
+    private static final int PORT_CLIENT = 8021;
+    private static final int PORT_PROXY = 8022;
+    private static final String DOSSIER = "./uploads/Benchmark";
+    private static final String DOSSIER_CLIENT = "./uploads/BenchmarkClient";
+
+    public static void main(String[] args) {
+        int tailleMo = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long hachageMaxMo = args.length > 2 ? Long.parseLong(args[2]) : 4096;
+
+        System.out.println("🚀 Benchmark P2P (" + tailleMo + " Mo, " + repetitions + " répétitions)\n");
+
+        try {
+            // --- 1. Envoi de fichier: zéro copie vs copie bufferisée ---
+            benchmarkEnvoiFichier(tailleMo, repetitions);
+
+            // --- 2. Réception de fichier: transferFrom vs copie bufferisée ---
+            benchmarkReceptionFichier(tailleMo, repetitions);
+
+            // --- 3. Flux parallèles vers un même peer sur un lien lent ---
+            benchmarkFluxParalleles(Math.min(tailleMo, 32), Math.min(repetitions, 3));
+
+            // --- 4. Hachage: lecture bufferisée vs mappage mémoire ---
+            benchmarkHachage(hachageMaxMo * 1024 * 1024, repetitions);
+
+        } catch (Exception e) {
+            System.err.println("❌ Erreur lors du benchmark : " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void benchmarkEnvoiFichier(int tailleMo, int repetitions) throws Exception {
+        System.out.println("=== 1. Envoi de fichier (GET) ===");
+
+        Peer serveur = new Peer("Benchmark", PORT_SERVEUR, DOSSIER);
+        File fichier = creerFichier(new File(serveur.getDossierPartage(), "benchmark.dat"), tailleMo);
+
+        try {
+            serveur.demarrer().get(5, TimeUnit.SECONDS);
+
+            // Préchauffage: JIT, cache de pages et cache des checksums
+            telecharger(fichier.getName(), fichier.length());
+
+            for (boolean zeroCopie : new boolean[] { false, true }) {
+                serveur.setTransfertZeroCopie(zeroCopie);
+                long meilleur = Long.MAX_VALUE;
+                long total = 0;
+
+                for (int i = 0; i < repetitions; i++) {
+                    long duree = telecharger(fichier.getName(), fichier.length());
+                    meilleur = Math.min(meilleur, duree);
+                    total += duree;
+                }
+
+                String libelle = zeroCopie ? "transferTo (zéro copie)" : "copie bufferisée 8 Ko";
+                System.out.printf("%-26s moyenne %8.1f Mo/s   meilleur %8.1f Mo/s%n", libelle,
+                        debit(fichier.length(), total / repetitions), debit(fichier.length(), meilleur));
+            }
+        } finally {
+            serveur.arreter();
+            fichier.delete();
+        }
+
+        System.out.println();
+    }
+
+    /**
+     * Téléchargement complet par le client (réception + vérification du
+     * checksum). Le temps CPU du thread appelant est rapporté au Go reçu,
+     * puis diminué du coût mesuré à part du checksum pour isoler la réception.
+     */
+    private static void benchmarkReceptionFichier(int tailleMo, int repetitions) throws Exception {
+        System.out.println("=== 2. Réception de fichier (téléchargement) ===");
+
+        Peer serveur = new Peer("Benchmark", PORT_SERVEUR, DOSSIER);
+        Peer client = new Peer("BenchmarkClient", PORT_CLIENT, DOSSIER_CLIENT);
+        File fichier = creerFichier(new File(serveur.getDossierPartage(), "benchmark.dat"), tailleMo);
+        PeerInfo source = new PeerInfo("localhost", PORT_SERVEUR, "Benchmark");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        try {
+            serveur.demarrer().get(5, TimeUnit.SECONDS);
+            client.demarrer().get(5, TimeUnit.SECONDS);
+            telecharger(fichier.getName(), fichier.length()); // préchauffage côté serveur
+
+            long debutHash = threads.getCurrentThreadCpuTime();
+            long debutHashUtilisateur = threads.getCurrentThreadUserTime();
+            new FileManager(DOSSIER).calculerChecksum(fichier);
+            long cpuHash = threads.getCurrentThreadCpuTime() - debutHash;
+            long utilisateurHash = threads.getCurrentThreadUserTime() - debutHashUtilisateur;
+
+            for (boolean zeroCopie : new boolean[] { false, true }) {
+                client.setTransfertZeroCopie(zeroCopie);
+                long total = 0;
+                long cpu = 0;
+                long utilisateur = 0;
+
+                for (int i = 0; i < repetitions; i++) {
+                    File recu = new File(client.getDossierPartage(), fichier.getName());
+                    recu.delete();
+
+                    long debutCpu = threads.getCurrentThreadCpuTime();
+                    long debutUtilisateur = threads.getCurrentThreadUserTime();
+                    long debut = System.nanoTime();
+                    if (!client.telechargerDepuisPeer(source, fichier.getName())) {
+                        throw new IOException("Téléchargement échoué");
+                    }
+                    total += System.nanoTime() - debut;
+                    cpu += threads.getCurrentThreadCpuTime() - debutCpu - cpuHash;
+                    utilisateur += threads.getCurrentThreadUserTime() - debutUtilisateur - utilisateurHash;
+                    recu.delete();
+                }
+
+                String libelle = zeroCopie ? "transferFrom (tranches)" : "copie bufferisée 8 Ko";
+                double go = fichier.length() * (double) repetitions / (1024.0 * 1024.0 * 1024.0);
+                System.out.printf("%-26s moyenne %8.1f Mo/s   CPU réception %6.0f ms/Go (dont utilisateur %6.0f)%n",
+                        libelle, debit(fichier.length(), total / repetitions), cpu / 1_000_000.0 / go,
+                        utilisateur / 1_000_000.0 / go);
+            }
+        } finally {
+            client.arreter();
+            serveur.arreter();
+            fichier.delete();
+        }
+
+        System.out.println();
+    }
+
+    /**
+     * Téléchargement au travers d'un relais qui ajoute 20 ms de latence et
+     * borne chaque connexion à 128 Ko en vol: un seul flux plafonne à
+     * fenêtre / délai, les flux parallèles s'additionnent. Le nombre de flux
+     * croît jusqu'au plafond N tant que le débit progresse.
+     */
+    @SuppressWarnings("try")
+    private static void benchmarkFluxParalleles(int tailleMo, int repetitions) throws Exception {
+        System.out.println("=== 3. Flux parallèles vers un même peer (latence 20 ms, fenêtre 128 Ko) ===");
+
+        Peer serveur = new Peer("Benchmark", PORT_SERVEUR, DOSSIER);
+        Peer client = new Peer("BenchmarkClient", PORT_CLIENT, DOSSIER_CLIENT);
+        File fichier = creerFichier(new File(serveur.getDossierPartage(), "benchmark.dat"), tailleMo);
+        PeerInfo source = new PeerInfo("localhost", PORT_PROXY, "Benchmark");
+
+        try (ProxyLatence proxy = new ProxyLatence(PORT_PROXY, PORT_SERVEUR, 20, 128 * 1024)) {
+            serveur.demarrer().get(5, TimeUnit.SECONDS);
+            client.demarrer().get(5, TimeUnit.SECONDS);
+
+            for (int flux : new int[] { 1, 2, 4, 8 }) {
+                client.setFluxParPeer(flux);
+                long total = 0;
+
+                for (int i = 0; i < repetitions; i++) {
+                    File recu = new File(client.getDossierPartage(), fichier.getName());
+                    recu.delete();
+
+                    long debut = System.nanoTime();
+                    if (!client.telechargerDepuisPeer(source, fichier.getName())) {
+                        throw new IOException("Téléchargement échoué");
+                    }
+                    total += System.nanoTime() - debut;
+                    recu.delete();
+                }
+
+                System.out.printf("%-26s moyenne %8.1f Mo/s%n", "flux parallèles <= " + flux,
+                        debit(fichier.length(), total / repetitions));
+            }
+        } finally {
+            client.arreter();
+            serveur.arreter();
+            fichier.delete();
+        }
+
+        System.out.println();
+    }
+
+    /**
+     * SHA-256 et arbre de Merkle d'un fichier déjà dans le cache de pages,
+     * de 4 Ko à tailleMax, par lecture bufferisée 8 Ko puis par mappage
+     * mémoire, pour situer le seuil de FileManager.setSeuilHachageMappe.
+     * Les petits fichiers sont hachés plusieurs fois par mesure.
+     */
+    private static void benchmarkHachage(long tailleMax, int repetitions) throws Exception {
+        System.out.println("=== 4. Hachage d'un fichier (bufferisé 8 Ko vs mappé) ===");
+
+        File dossier = new File(DOSSIER);
+        dossier.mkdirs();
+        FileManager fileManager = new FileManager(DOSSIER);
+        File fichier = new File(dossier, "hachage.dat");
+        long seuilInitial = fileManager.getSeuilHachageMappe();
+
+        try {
+            for (long taille = 4 * 1024; taille <= tailleMax; taille *= 4) {
+                if (taille * 2 > dossier.getUsableSpace()) {
+                    System.out.printf("%-12s ignoré (espace disque insuffisant)%n", formatTaille(taille));
+                    continue;
+                }
+                creerFichier(fichier, taille);
+                int hachagesParMesure = (int) Math.max(1, Math.min(4096, (64L * 1024 * 1024) / taille));
+                int mesures = taille >= 1024L * 1024 * 1024 ? Math.min(repetitions, 2) : repetitions;
+
+                double[] debits = new double[2];
+                for (int mode = 0; mode < 2; mode++) {
+                    fileManager.setSeuilHachageMappe(mode == 0 ? Long.MAX_VALUE : 0);
+                    hacher(fileManager, fichier, hachagesParMesure); // préchauffage
+                    long meilleur = Long.MAX_VALUE;
+                    for (int i = 0; i < mesures; i++) {
+                        meilleur = Math.min(meilleur, hacher(fileManager, fichier, hachagesParMesure));
+                    }
+                    debits[mode] = debit(taille * hachagesParMesure, meilleur);
+                }
+                System.out.printf("%-12s bufferisé %8.1f Mo/s   mappé %8.1f Mo/s   %s%n", formatTaille(taille),
+                        debits[0], debits[1], debits[1] > debits[0] ? "mappé" : "bufferisé");
+            }
+        } finally {
+            fileManager.setSeuilHachageMappe(seuilInitial);
+            fileManager.nettoyerCache();
+            fileManager.arreterIndexation();
+            fichier.delete();
+        }
+
+        System.out.println();
+    }
+
+    /**
+     * @return durée en nanosecondes de n hachages complets du fichier
+     */
+    private static long hacher(FileManager fileManager, File fichier, int n) throws Exception {
+        long debut = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            fileManager.calculerChecksumSansCache(fichier);
+        }
+        return System.nanoTime() - debut;
+    }
+
+    private static String formatTaille(long octets) {
+        if (octets >= 1024L * 1024 * 1024)
+            return (octets / (1024L * 1024 * 1024)) + " Go";
+        if (octets >= 1024 * 1024)
+            return (octets / (1024 * 1024)) + " Mo";
+        return (octets / 1024) + " Ko";
+    }
+
+    /**
+     * Relais TCP local qui retarde chaque segment de delaiMs dans les deux
+     * sens et borne les octets en vol par sens et par connexion à fenetre,
+     * comme un flux TCP dont la fenêtre ne couvre pas le produit débit-délai
+     */
+    private static class ProxyLatence implements Closeable {
+        private final ServerSocket serveur;
+        private final ExecutorService threads = Executors.newCachedThreadPool();
+        private final long delaiNanos;
+        private final int fenetre;
+
+        ProxyLatence(int port, int portCible, long delaiMs, int fenetre) throws IOException {
+            this.serveur = new ServerSocket(port);
+            this.delaiNanos = TimeUnit.MILLISECONDS.toNanos(delaiMs);
+            this.fenetre = fenetre;
+            threads.execute(() -> {
+                while (!serveur.isClosed()) {
+                    try {
+                        Socket client = serveur.accept();
+                        Socket cible = new Socket("localhost", portCible);
+                        relayer(client, cible);
+                        relayer(cible, client);
+                    } catch (IOException e) {
+                        // Relais fermé
+                    }
+                }
+            });
+        }
+
+        private void relayer(Socket de, Socket vers) {
+            BlockingQueue<byte[]> segments = new LinkedBlockingQueue<>();
+            BlockingQueue<Long> echeances = new LinkedBlockingQueue<>();
+            Semaphore enVol = new Semaphore(fenetre);
+
+            threads.execute(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = de.getInputStream()) {
+                    int lu;
+                    while ((lu = in.read(buffer)) != -1) {
+                        enVol.acquire(lu);
+                        echeances.put(System.nanoTime() + delaiNanos);
+                        segments.put(java.util.Arrays.copyOf(buffer, lu));
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Connexion fermée
+                }
+                echeances.add(System.nanoTime() + delaiNanos);
+                segments.add(new byte[0]);
+            });
+
+            threads.execute(() -> {
+                try (OutputStream out = vers.getOutputStream()) {
+                    while (true) {
+                        long attente = echeances.take() - System.nanoTime();
+                        if (attente > 0) {
+                            LockSupport.parkNanos(attente);
+                        }
+                        byte[] segment = segments.take();
+                        if (segment.length == 0) {
+                            vers.shutdownOutput();
+                            break;
+                        }
+                        out.write(segment);
+                        enVol.release(segment.length);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Connexion fermée
+                }
+                fermer(de);
+                fermer(vers);
+            });
+        }
+
+        private static void fermer(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serveur.close();
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * GET texte v1 dont le contenu est lu puis jeté, pour ne mesurer que le
+     * chemin d'envoi du serveur
+     *
+     * @return durée en nanosecondes
+     */
+    private static long telecharger(String nomFichier, long taille) throws IOException {
+        long debut = System.nanoTime();
+
+        try (Socket socket = new Socket("localhost", PORT_SERVEUR)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + nomFichier + " 0\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            lireLigne(in); // checksum
+            long annoncee = Long.parseLong(lireLigne(in));
+            if (annoncee != taille) {
+                throw new IOException("Taille annoncée inattendue: " + annoncee);
+            }
+
+            byte[] buffer = new byte[256 * 1024];
+            long recu = 0;
+            int lu;
+            while (recu < taille && (lu = in.read(buffer)) != -1) {
+                recu += lu;
+            }
+            if (recu != taille) {
+                throw new IOException("Transfert incomplet: " + recu + "/" + taille);
+            }
+        }
+
+        return System.nanoTime() - debut;
+    }
+
+    private static String lireLigne(InputStream in) throws IOException {
+        ByteArrayOutputStream ligne = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            ligne.write(c);
+        }
+        return ligne.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    private static File creerFichier(File fichier, int tailleMo) throws IOException {
+        return creerFichier(fichier, tailleMo * 1024L * 1024);
+    }
+
+    private static File creerFichier(File fichier, long taille) throws IOException {
+        byte[] bloc = new byte[1024 * 1024];
+        new Random(42).nextBytes(bloc);
+
+        try (FileOutputStream fos = new FileOutputStream(fichier)) {
+            for (long reste = taille; reste > 0; reste -= bloc.length) {
+                fos.write(bloc, 0, (int) Math.min(bloc.length, reste));
+            }
+        }
+        return fichier;
+    }
+
+    private static double debit(long octets, long nanos) {
+        return (octets / (1024.0 * 1024.0)) / (nanos / 1_000_000_000.0);
+    }
+}
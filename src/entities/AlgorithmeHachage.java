@@ -0,0 +1,109 @@
+package entities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Algorithmes de hachage connus des peers, identifiés sur le réseau par
+ * leur id.
+ *
+ * SHA-256 authentifie les contenus: checksums, arbres de Merkle et
+ * vérification finale des téléchargements. Les algorithmes rapides, non
+ * cryptographiques, ne servent qu'à écarter vite les fichiers qui
+ * diffèrent (candidats à la déduplication, filtrés avant tout SHA-256):
+ * deux contenus de même hash rapide sont toujours confirmés par SHA-256.
+ */
+public enum AlgorithmeHachage {
+    SHA256(1, "sha256", true),
+    // Instruction dédiée sur x86 et ARM: plusieurs Go/s, bien plus vite que SHA-256
+    CRC32C(2, "crc32c", false);
+
+    private final int id;
+    private final String nom;
+    private final boolean cryptographique;
+
+    AlgorithmeHachage(int id, String nom, boolean cryptographique) {
+        this.id = id;
+        this.nom = nom;
+        this.cryptographique = cryptographique;
+    }
+
+    /**
+     * Calcul incrémental d'un hash
+     */
+    public interface Calcul {
+        void mettreAJour(byte[] octets, int debut, int longueur);
+
+        /**
+         * Hache les octets restants du tampon, direct ou non
+         */
+        void mettreAJour(ByteBuffer octets);
+
+        /**
+         * Valeur en hexadécimal; le calcul ne doit plus être mis à jour
+         */
+        String valeur();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getNom() {
+        return nom;
+    }
+
+    public boolean estCryptographique() {
+        return cryptographique;
+    }
+
+    public Calcul nouveauCalcul() {
+        if (this == SHA256) {
+            MessageDigest sha256 = ArbreMerkle.sha256();
+            return new Calcul() {
+                @Override
+                public void mettreAJour(byte[] octets, int debut, int longueur) {
+                    sha256.update(octets, debut, longueur);
+                }
+
+                @Override
+                public void mettreAJour(ByteBuffer octets) {
+                    sha256.update(octets);
+                }
+
+                @Override
+                public String valeur() {
+                    return ArbreMerkle.hex(sha256.digest());
+                }
+            };
+        }
+        java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+        return new Calcul() {
+            @Override
+            public void mettreAJour(byte[] octets, int debut, int longueur) {
+                crc.update(octets, debut, longueur);
+            }
+
+            @Override
+            public void mettreAJour(ByteBuffer octets) {
+                crc.update(octets);
+            }
+
+            @Override
+            public String valeur() {
+                return String.format("%08x", crc.getValue());
+            }
+        };
+    }
+
+    /**
+     * @return null pour un id inconnu, d'un peer plus récent
+     */
+    public static AlgorithmeHachage parId(int id) {
+        for (AlgorithmeHachage algorithme : values()) {
+            if (algorithme.id == id)
+                return algorithme;
+        }
+        return null;
+    }
+}
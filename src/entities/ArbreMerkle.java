@@ -0,0 +1,182 @@
+package entities;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arbre de Merkle d'un fichier découpé en blocs de TAILLE_BLOC octets.
+ *
+ * Les feuilles sont les SHA-256 des blocs. L'arbre les reprend préfixées
+ * de 0x00, et chaque nœud est le SHA-256 de 0x01 suivi de ses deux enfants,
+ * un nœud sans frère remontant tel quel: un nœud interne ne peut pas passer
+ * pour une feuille, ni l'inverse. La
+ * racine, annoncée dans les métadonnées, authentifie les hashes des blocs
+ * obtenus par CHUNK_HASHES auprès de n'importe quel peer: chaque bloc
+ * reçu se vérifie alors dès son arrivée, et seul un bloc corrompu est
+ * redemandé.
+ */
+class ArbreMerkle {
+    static final int TAILLE_BLOC = 1024 * 1024;
+    private static final int TAILLE_HASH = 32;
+    // Feuille sérialisée: [LONGUEUR(4)][SHA-256(32)]
+    private static final int TAILLE_FEUILLE = 4 + TAILLE_HASH;
+    // Séparation des domaines des feuilles et des nœuds internes
+    private static final byte PREFIXE_FEUILLE = 0x00;
+    private static final byte PREFIXE_NOEUD = 0x01;
+
+    private final int tailleBloc;
+    private final long tailleFichier;
+    private final byte[][] feuilles;
+    private final byte[] racine;
+
+    ArbreMerkle(int tailleBloc, long tailleFichier, byte[][] feuilles) {
+        if (tailleBloc <= 0 || feuilles.length != nombreBlocs(tailleFichier, tailleBloc)) {
+            throw new IllegalArgumentException("Arbre incohérent: " + feuilles.length + " blocs de " + tailleBloc
+                    + " octets pour " + tailleFichier + " octets");
+        }
+        this.tailleBloc = tailleBloc;
+        this.tailleFichier = tailleFichier;
+        this.feuilles = feuilles;
+        this.racine = calculerRacine(feuilles);
+    }
+
+    static int nombreBlocs(long tailleFichier, int tailleBloc) {
+        return (int) ((tailleFichier + tailleBloc - 1) / tailleBloc);
+    }
+
+    int getTailleBloc() {
+        return tailleBloc;
+    }
+
+    long getTailleFichier() {
+        return tailleFichier;
+    }
+
+    int getNombreBlocs() {
+        return feuilles.length;
+    }
+
+    byte[] getFeuille(int index) {
+        return feuilles[index];
+    }
+
+    /**
+     * Racine en hexadécimal, telle qu'annoncée dans les métadonnées
+     */
+    String getRacine() {
+        return hex(racine);
+    }
+
+    long debutBloc(int index) {
+        return (long) index * tailleBloc;
+    }
+
+    int longueurBloc(int index) {
+        return (int) Math.min(tailleBloc, tailleFichier - debutBloc(index));
+    }
+
+    /**
+     * Relit le bloc index dans fichier et le compare à sa feuille
+     */
+    boolean verifierBloc(FileChannel fichier, int index) throws IOException {
+        ByteBuffer tampon = ByteBuffer.allocate(longueurBloc(index));
+        long position = debutBloc(index);
+        while (tampon.hasRemaining()) {
+            if (fichier.read(tampon, position + tampon.position()) < 0) {
+                throw new EOFException("Bloc " + index + " incomplet");
+            }
+        }
+        MessageDigest sha256 = sha256();
+        sha256.update(tampon.array());
+        return MessageDigest.isEqual(sha256.digest(), feuilles[index]);
+    }
+
+    /**
+     * Blocs dont le contenu dans fichier diffère des feuilles de l'arbre
+     */
+    List<Integer> blocsCorrompus(FileChannel fichier) throws IOException {
+        List<Integer> corrompus = new ArrayList<>();
+        for (int i = 0; i < feuilles.length; i++) {
+            if (!verifierBloc(fichier, i)) {
+                corrompus.add(i);
+            }
+        }
+        return corrompus;
+    }
+
+    void ecrire(Trame.Ecriture ecriture) {
+        ecriture.entier(tailleBloc).longue(tailleFichier).entier(feuilles.length);
+        for (byte[] feuille : feuilles) {
+            ecriture.octets(feuille);
+        }
+    }
+
+    static ArbreMerkle lire(Trame.Lecture lecture) throws IOException {
+        int tailleBloc = lecture.entier();
+        long tailleFichier = lecture.longue();
+        int nombre = lecture.entier();
+        // Le nombre vient du pair: borné par le payload reçu avant d'allouer
+        if (tailleBloc <= 0 || tailleFichier < 0 || nombre < 0 || nombre > lecture.restant() / TAILLE_FEUILLE
+                || nombre != (tailleFichier + tailleBloc - 1) / tailleBloc) {
+            throw new IOException("Hashes de blocs invalides");
+        }
+        byte[][] feuilles = new byte[nombre][];
+        for (int i = 0; i < nombre; i++) {
+            feuilles[i] = lecture.octets();
+            if (feuilles[i].length != TAILLE_HASH) {
+                throw new IOException("Hash de bloc invalide: " + feuilles[i].length + " octets");
+            }
+        }
+        return new ArbreMerkle(tailleBloc, tailleFichier, feuilles);
+    }
+
+    private static byte[] calculerRacine(byte[][] feuilles) {
+        if (feuilles.length == 0)
+            return sha256().digest();
+
+        MessageDigest sha256 = sha256();
+        byte[][] niveau = new byte[feuilles.length][];
+        for (int i = 0; i < feuilles.length; i++) {
+            sha256.update(PREFIXE_FEUILLE);
+            sha256.update(feuilles[i]);
+            niveau[i] = sha256.digest();
+        }
+        while (niveau.length > 1) {
+            byte[][] parents = new byte[(niveau.length + 1) / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                if (2 * i + 1 < niveau.length) {
+                    sha256.update(PREFIXE_NOEUD);
+                    sha256.update(niveau[2 * i]);
+                    sha256.update(niveau[2 * i + 1]);
+                    parents[i] = sha256.digest();
+                } else {
+                    parents[i] = niveau[2 * i];
+                }
+            }
+            niveau = parents;
+        }
+        return niveau[0];
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+
+    static String hex(byte[] octets) {
+        StringBuilder hex = new StringBuilder(octets.length * 2);
+        for (byte b : octets) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package entities;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Résultat d'un transfert de plusieurs fichiers (session d'upload, GET_MANY),
+ * fichier par fichier: nom local sous lequel chaque fichier reçu a été
+ * enregistré, message d'erreur pour chaque fichier écarté.
+ */
+public class BilanTransferts {
+    private final Map<String, String> reussites = new LinkedHashMap<>();
+    private final Map<String, String> echecs = new LinkedHashMap<>();
+
+    BilanTransferts() {
+    }
+
+    /**
+     * Fichiers reçus, avec le nom sous lequel ils ont été enregistrés
+     */
+    public Map<String, String> getReussites() {
+        return Collections.unmodifiableMap(reussites);
+    }
+
+    /**
+     * Fichiers écartés, avec la raison de l'échec
+     */
+    public Map<String, String> getEchecs() {
+        return Collections.unmodifiableMap(echecs);
+    }
+
+    public boolean estComplet() {
+        return echecs.isEmpty();
+    }
+
+    void reussite(String nom, String nomLocal) {
+        reussites.put(nom, nomLocal);
+    }
+
+    void echec(String nom, String message) {
+        echecs.put(nom, message);
+    }
+
+    boolean contient(String nom) {
+        return reussites.containsKey(nom) || echecs.containsKey(nom);
+    }
+
+    @Override
+    public String toString() {
+        return reussites.size() + " fichier(s) reçu(s), " + echecs.size() + " échec(s)";
+    }
+}
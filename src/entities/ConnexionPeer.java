@@ -0,0 +1,122 @@
+package entities;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connexion TCP persistante vers un peer distant, réutilisable pour
+ * plusieurs échanges successifs en protocole v2
+ *
+ * Les flux ne sont pas bufferisés: une trame est écrite en un seul appel et
+ * lue sans rien consommer au-delà, si bien qu'un flux brut (contenu de
+ * fichier) peut suivre directement sur le même socket.
+ *
+ * Le socket est adossé à un SocketChannel bloquant pour permettre la
+ * réception zéro copie (FileChannel.transferFrom).
+ */
+class ConnexionPeer implements Closeable {
+    private final PeerInfo peer;
+    private final SocketChannel canal;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private int prochainRequestId = 1;
+    private volatile long derniereUtilisation;
+
+    ConnexionPeer(PeerInfo peer, int timeoutConnexionMs) throws IOException {
+        this.peer = peer;
+        this.canal = SocketChannel.open();
+        this.socket = canal.socket();
+        try {
+            socket.connect(new InetSocketAddress(peer.getAdresse(), peer.getPort()), timeoutConnexionMs);
+            socket.setTcpNoDelay(true);
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.derniereUtilisation = System.currentTimeMillis();
+    }
+
+    /**
+     * Envoie une requête et attend la réponse portant le même request id
+     *
+     * @return la réponse (OK ou ERREUR)
+     */
+    Trame echanger(byte opcode, byte[] payload) throws IOException {
+        return lireReponse(envoyer(opcode, payload));
+    }
+
+    /**
+     * Envoie une requête sans attendre sa réponse (UPLOAD: le contenu suit la
+     * première réponse, une seconde réponse confirme la réception)
+     */
+    Trame envoyer(byte opcode, byte[] payload) throws IOException {
+        Trame requete = new Trame(opcode, prochainRequestId++, payload);
+        requete.ecrire(out);
+        return requete;
+    }
+
+    /**
+     * Lit la réponse suivante à une requête déjà envoyée
+     */
+    Trame lireReponse(Trame requete) throws IOException {
+        Trame reponse = Trame.lire(in, false);
+        if (reponse == null) {
+            throw new EOFException("Connexion fermée par " + peer);
+        }
+        if (reponse.getRequestId() != requete.getRequestId()) {
+            throw new IOException("Réponse " + reponse.getRequestId() + " inattendue pour la requête "
+                    + requete.getRequestId());
+        }
+        return reponse;
+    }
+
+    void setTimeout(int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+    }
+
+    void marquerUtilisee() {
+        derniereUtilisation = System.currentTimeMillis();
+    }
+
+    long getDerniereUtilisation() {
+        return derniereUtilisation;
+    }
+
+    boolean estOuverte() {
+        return !socket.isClosed() && socket.isConnected() && !socket.isInputShutdown()
+                && !socket.isOutputShutdown();
+    }
+
+    PeerInfo getPeer() {
+        return peer;
+    }
+
+    SocketChannel getCanal() {
+        return canal;
+    }
+
+    Socket getSocket() {
+        return socket;
+    }
+
+    InputStream getIn() {
+        return in;
+    }
+
+    OutputStream getOut() {
+        return out;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package entities;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contrôle d'admission des requêtes entrantes.
+ *
+ * Trois plafonds indépendants: connexions ouvertes, transferts en cours
+ * (GET, UPLOAD) et requêtes du plan de contrôle en cours (LIST, PEERS,
+ * ANNOUNCE). Une requête refusée reçoit BUSY avec un délai de nouvel essai
+ * au lieu d'attendre: c'est au client de réessayer ou de changer de source.
+ * Les plafonds se modifient à chaud.
+ */
+class ControleAdmission {
+    private static final int DELAI_REESSAI_TRANSFERT_MS = 1000;
+    private static final int DELAI_REESSAI_CONTROLE_MS = 200;
+
+    private final Compteur connexions;
+    private final Compteur transferts;
+    private final Compteur requetesControle;
+
+    /**
+     * Nombre de places occupées et plafond modifiable
+     */
+    private static class Compteur {
+        private final AtomicInteger occupees = new AtomicInteger();
+        private volatile int maximum;
+
+        Compteur(int maximum) {
+            this.maximum = maximum;
+        }
+
+        boolean prendre() {
+            int courant;
+            do {
+                courant = occupees.get();
+                if (courant >= maximum)
+                    return false;
+            } while (!occupees.compareAndSet(courant, courant + 1));
+            return true;
+        }
+
+        void rendre() {
+            occupees.decrementAndGet();
+        }
+    }
+
+    ControleAdmission(int maxConnexions, int maxTransferts, int maxRequetesControle) {
+        this.connexions = new Compteur(maxConnexions);
+        this.transferts = new Compteur(maxTransferts);
+        this.requetesControle = new Compteur(maxRequetesControle);
+    }
+
+    boolean admettreConnexion() {
+        return connexions.prendre();
+    }
+
+    void libererConnexion() {
+        connexions.rendre();
+    }
+
+    /**
+     * Réserve une place de transfert ou de requête de contrôle
+     *
+     * @return false si le plafond correspondant est atteint
+     */
+    boolean admettre(boolean transfert) {
+        return (transfert ? transferts : requetesControle).prendre();
+    }
+
+    void liberer(boolean transfert) {
+        (transfert ? transferts : requetesControle).rendre();
+    }
+
+    /**
+     * Délai conseillé au client avant un nouvel essai
+     */
+    int delaiReessai(boolean transfert) {
+        return transfert ? DELAI_REESSAI_TRANSFERT_MS : DELAI_REESSAI_CONTROLE_MS;
+    }
+
+    void setMaxConnexions(int maximum) {
+        connexions.maximum = maximum;
+    }
+
+    void setMaxTransferts(int maximum) {
+        transferts.maximum = maximum;
+    }
+
+    void setMaxRequetesControle(int maximum) {
+        requetesControle.maximum = maximum;
+    }
+
+    int getMaxTransferts() {
+        return transferts.maximum;
+    }
+
+    int getMaxRequetesControle() {
+        return requetesControle.maximum;
+    }
+
+    int getMaxConnexions() {
+        return connexions.maximum;
+    }
+
+    int getTransfertsEnCours() {
+        return transferts.occupees.get();
+    }
+
+    int getConnexionsOuvertes() {
+        return connexions.occupees.get();
+    }
+}
@@ -0,0 +1,180 @@
+package entities;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Découverte des peers par datagrammes UDP sur un groupe multicast.
+ *
+ * Chaque peer rejoint le groupe, émet une balise ANNONCE périodique et une
+ * REQUETE au démarrage; tout peer qui reçoit une REQUETE répond sur le groupe.
+ * Les trois messages portent le pseudo, le port d'écoute TCP et la version du
+ * catalogue de l'émetteur, dans une trame au format v2. Le request id de la
+ * trame identifie l'instance émettrice pour ignorer ses propres échos.
+ *
+ * Le TTL est de 1: la découverte reste limitée au segment local. Groupe, port
+ * et interface se règlent avec -Dp2p.groupeDecouverte, -Dp2p.portDecouverte
+ * et -Dp2p.interfaceDecouverte (par exemple "lo" pour des tests en boucle
+ * locale).
+ */
+class DecouverteReseau {
+    static final String GROUPE_DEFAUT = "239.255.42.42";
+    static final int PORT_DEFAUT = 4446;
+    private static final int TAILLE_DATAGRAMME_MAX = 1024;
+
+    // Opcodes des datagrammes, payload [PSEUDO][PORT(4)][VERSION_CATALOGUE(8)]
+    static final byte ANNONCE = 0x01;
+    static final byte REQUETE = 0x02;
+    static final byte REPONSE = 0x03;
+
+    /**
+     * Reçoit les peers entendus sur le groupe
+     */
+    interface Ecouteur {
+        void peerEntendu(InetAddress source, String pseudo, int port, long versionCatalogue);
+    }
+
+    private final InetSocketAddress groupe;
+    private final NetworkInterface interfaceReseau;
+    private final String pseudo;
+    private final int portEcoute;
+    private final LongSupplier versionCatalogue;
+    private final Ecouteur ecouteur;
+    private final int identifiant = ThreadLocalRandom.current().nextInt();
+
+    private MulticastSocket socket;
+    private volatile boolean actif = false;
+
+    DecouverteReseau(String pseudo, int portEcoute, LongSupplier versionCatalogue, Ecouteur ecouteur)
+            throws IOException {
+        this(new InetSocketAddress(InetAddress.getByName(System.getProperty("p2p.groupeDecouverte", GROUPE_DEFAUT)),
+                Integer.getInteger("p2p.portDecouverte", PORT_DEFAUT)),
+                interfaceParDefaut(), pseudo, portEcoute, versionCatalogue, ecouteur);
+    }
+
+    DecouverteReseau(InetSocketAddress groupe, NetworkInterface interfaceReseau, String pseudo, int portEcoute,
+            LongSupplier versionCatalogue, Ecouteur ecouteur) {
+        this.groupe = groupe;
+        this.interfaceReseau = interfaceReseau;
+        this.pseudo = pseudo;
+        this.portEcoute = portEcoute;
+        this.versionCatalogue = versionCatalogue;
+        this.ecouteur = ecouteur;
+    }
+
+    /**
+     * Interface de -Dp2p.interfaceDecouverte, ou null pour celle du système
+     */
+    private static NetworkInterface interfaceParDefaut() throws SocketException {
+        String nom = System.getProperty("p2p.interfaceDecouverte");
+        if (nom == null || nom.isEmpty())
+            return null;
+        NetworkInterface ni = NetworkInterface.getByName(nom);
+        if (ni == null) {
+            throw new SocketException("Interface de découverte inconnue: " + nom);
+        }
+        return ni;
+    }
+
+    /**
+     * Rejoint le groupe et lance la réception sur l'executor
+     */
+    void demarrer(Executor executor) throws IOException {
+        socket = new MulticastSocket(groupe.getPort());
+        try {
+            socket.setTimeToLive(1);
+            socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            if (interfaceReseau != null) {
+                socket.setNetworkInterface(interfaceReseau);
+            }
+            socket.joinGroup(groupe, interfaceReseau);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        actif = true;
+        executor.execute(this::recevoir);
+    }
+
+    void arreter() {
+        actif = false;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Balise périodique: signale ce peer et la version de son catalogue
+     */
+    void annoncer() {
+        envoyer(ANNONCE);
+    }
+
+    /**
+     * Demande aux peers du groupe de se signaler
+     */
+    void interroger() {
+        envoyer(REQUETE);
+    }
+
+    private void envoyer(byte opcode) {
+        if (!actif)
+            return;
+
+        byte[] donnees = new Trame(opcode, identifiant, new Trame.Ecriture()
+                .chaine(pseudo)
+                .entier(portEcoute)
+                .longue(versionCatalogue.getAsLong())
+                .toBytes()).encoder();
+        try {
+            socket.send(new DatagramPacket(donnees, donnees.length, groupe));
+        } catch (IOException e) {
+            if (actif) {
+                System.err.println("[ERROR] Envoi de découverte impossible: " + e.getMessage());
+            }
+        }
+    }
+
+    private void recevoir() {
+        byte[] tampon = new byte[TAILLE_DATAGRAMME_MAX];
+        while (actif) {
+            DatagramPacket paquet = new DatagramPacket(tampon, tampon.length);
+            try {
+                socket.receive(paquet);
+            } catch (IOException e) {
+                if (actif) {
+                    System.err.println("[ERROR] Réception de découverte: " + e.getMessage());
+                }
+                continue;
+            }
+
+            try {
+                Trame trame = Trame.extraire(ByteBuffer.wrap(paquet.getData(), 0, paquet.getLength()));
+                if (trame == null || trame.getRequestId() == identifiant)
+                    continue;
+
+                Trame.Lecture lecture = trame.lecture();
+                String pseudoDistant = lecture.chaine();
+                int port = lecture.entier();
+                long version = lecture.longue();
+
+                if (trame.getOpcode() == REQUETE) {
+                    envoyer(REPONSE);
+                }
+                ecouteur.peerEntendu(paquet.getAddress(), pseudoDistant, port, version);
+            } catch (IOException | RuntimeException e) {
+                // Datagramme étranger ou tronqué: ignoré
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package entities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transfert différentiel à la manière de rsync.
+ *
+ * Le détenteur d'une ancienne version découpe son fichier en blocs de taille
+ * fixe et en envoie les signatures: une somme faible roulante (Adler-32
+ * simplifiée, 4 octets) et une empreinte forte (MD5). L'émetteur de la
+ * nouvelle version fait glisser une fenêtre d'un bloc sur son fichier, octet
+ * par octet: quand la somme faible puis l'empreinte forte de la fenêtre
+ * correspondent à un bloc connu, il émet une copie de ce bloc; sinon l'octet
+ * sortant de la fenêtre part en littéral. Le destinataire reconstruit la
+ * nouvelle version à partir de ses propres blocs et des littéraux; le
+ * checksum complet du fichier reste vérifié à la fin.
+ *
+ * Flux d'instructions: [COPIE][INDEX(4)], [LITTERAL][LONGUEUR(4)][OCTETS],
+ * [FIN].
+ */
+class DeltaFichier {
+    static final byte FIN = 0x00;
+    static final byte COPIE = 0x01;
+    static final byte LITTERAL = 0x02;
+
+    static final int TAILLE_BLOC_MIN = 2048;
+    static final int TAILLE_BLOC_MAX = 64 * 1024;
+    // Signature sérialisée d'un bloc: [FAIBLE(4)][LONGUEUR(4)][MD5(16)]
+    private static final int TAILLE_SIGNATURE = 4 + 4 + 16;
+    private static final int LITTERAL_MAX = 64 * 1024;
+
+    /**
+     * Signatures des blocs d'une version locale
+     */
+    static class Signatures {
+        final int tailleBloc;
+        final long tailleFichier;
+        final int[] faibles;
+        final byte[][] fortes;
+
+        Signatures(int tailleBloc, long tailleFichier, int[] faibles, byte[][] fortes) {
+            this.tailleBloc = tailleBloc;
+            this.tailleFichier = tailleFichier;
+            this.faibles = faibles;
+            this.fortes = fortes;
+        }
+
+        int nombreBlocs() {
+            return faibles.length;
+        }
+
+        /**
+         * Longueur du bloc index, le dernier pouvant être plus court
+         */
+        int longueurBloc(int index) {
+            return (int) Math.min(tailleBloc, tailleFichier - (long) index * tailleBloc);
+        }
+
+        void ecrire(Trame.Ecriture ecriture) {
+            ecriture.entier(tailleBloc).longue(tailleFichier).entier(faibles.length);
+            for (int i = 0; i < faibles.length; i++) {
+                ecriture.entier(faibles[i]).octets(fortes[i]);
+            }
+        }
+
+        static Signatures lire(Trame.Lecture lecture) throws IOException {
+            int tailleBloc = lecture.entier();
+            long tailleFichier = lecture.longue();
+            int nombre = lecture.entier();
+            // Le nombre vient du pair: borné par le payload reçu avant d'allouer
+            if (tailleBloc < TAILLE_BLOC_MIN || tailleBloc > TAILLE_BLOC_MAX || tailleFichier < 0
+                    || nombre < 0 || nombre > lecture.restant() / TAILLE_SIGNATURE
+                    || nombre != (tailleFichier + tailleBloc - 1) / tailleBloc) {
+                throw new IOException("Signatures invalides");
+            }
+            int[] faibles = new int[nombre];
+            byte[][] fortes = new byte[nombre][];
+            for (int i = 0; i < nombre; i++) {
+                faibles[i] = lecture.entier();
+                fortes[i] = lecture.octets();
+            }
+            return new Signatures(tailleBloc, tailleFichier, faibles, fortes);
+        }
+    }
+
+    private DeltaFichier() {
+    }
+
+    /**
+     * Taille de bloc adaptée à un fichier: racine carrée de sa taille, bornée
+     */
+    static int tailleBloc(long tailleFichier) {
+        long racine = (long) Math.sqrt((double) tailleFichier);
+        return (int) Math.max(TAILLE_BLOC_MIN, Math.min(TAILLE_BLOC_MAX, racine));
+    }
+
+    /**
+     * Signatures des blocs d'un fichier local
+     */
+    static Signatures signer(File fichier, int tailleBloc) throws IOException {
+        long taille = fichier.length();
+        int nombre = (int) ((taille + tailleBloc - 1) / tailleBloc);
+        int[] faibles = new int[nombre];
+        byte[][] fortes = new byte[nombre][];
+        MessageDigest md5 = md5();
+        byte[] bloc = new byte[tailleBloc];
+
+        try (InputStream in = new FileInputStream(fichier)) {
+            for (int i = 0; i < nombre; i++) {
+                int longueur = (int) Math.min(tailleBloc, taille - (long) i * tailleBloc);
+                lireComplet(in, bloc, longueur);
+                faibles[i] = sommeFaible(bloc, 0, longueur);
+                md5.update(bloc, 0, longueur);
+                fortes[i] = md5.digest();
+            }
+        }
+        return new Signatures(tailleBloc, taille, faibles, fortes);
+    }
+
+    /**
+     * Émet les instructions qui transforment la version signée en fichier
+     *
+     * @return nombre d'octets envoyés en littéral
+     */
+    static long encoder(File fichier, Signatures signatures, DataOutputStream out, LimiteurDebit.Flux flux)
+            throws IOException {
+        Map<Integer, List<Integer>> blocsParSomme = new HashMap<>();
+        for (int i = 0; i < signatures.nombreBlocs(); i++) {
+            blocsParSomme.computeIfAbsent(signatures.faibles[i], k -> new ArrayList<>()).add(i);
+        }
+
+        int tailleBloc = signatures.tailleBloc;
+        byte[] fenetre = new byte[tailleBloc]; // tampon circulaire
+        ByteArrayOutputStream litteral = new ByteArrayOutputStream();
+        MessageDigest md5 = md5();
+        long octetsLitteraux = 0;
+
+        try (InputStream in = new java.io.BufferedInputStream(new FileInputStream(fichier), LITTERAL_MAX)) {
+            int longueur = lireAuPlus(in, fenetre, tailleBloc);
+            int debut = 0;
+            int a = 0;
+            int b = 0;
+            for (int i = 0; i < longueur; i++) {
+                a += fenetre[i] & 0xFF;
+                b += (longueur - i) * (fenetre[i] & 0xFF);
+            }
+            boolean finFichier = longueur < tailleBloc;
+
+            while (longueur > 0) {
+                int bloc = chercherBloc(blocsParSomme, signatures, sommeFaible(a, b), fenetre, debut, longueur, md5);
+                if (bloc >= 0) {
+                    octetsLitteraux += viderLitteral(litteral, out, flux);
+                    out.writeByte(COPIE);
+                    out.writeInt(bloc);
+                    flux.consommer(5);
+
+                    // Fenêtre suivante, entièrement nouvelle
+                    longueur = finFichier ? 0 : lireAuPlus(in, fenetre, tailleBloc);
+                    finFichier |= longueur < tailleBloc;
+                    debut = 0;
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < longueur; i++) {
+                        a += fenetre[i] & 0xFF;
+                        b += (longueur - i) * (fenetre[i] & 0xFF);
+                    }
+                    continue;
+                }
+
+                // L'octet le plus ancien sort de la fenêtre en littéral
+                int sortant = fenetre[debut] & 0xFF;
+                litteral.write(sortant);
+                if (litteral.size() >= LITTERAL_MAX) {
+                    octetsLitteraux += viderLitteral(litteral, out, flux);
+                }
+
+                int entrant = finFichier ? -1 : in.read();
+                if (entrant >= 0) {
+                    fenetre[debut] = (byte) entrant;
+                    debut = (debut + 1) % tailleBloc;
+                    a += entrant - sortant;
+                    b += a - longueur * sortant;
+                } else {
+                    // Fin du fichier: la fenêtre rétrécit par l'avant
+                    finFichier = true;
+                    b -= longueur * sortant;
+                    a -= sortant;
+                    debut = (debut + 1) % tailleBloc;
+                    longueur--;
+                }
+            }
+        }
+
+        octetsLitteraux += viderLitteral(litteral, out, flux);
+        out.writeByte(FIN);
+        out.flush();
+        return octetsLitteraux;
+    }
+
+    /**
+     * Reconstruit la nouvelle version dans destination à partir des blocs
+     * de la version locale et des instructions reçues
+     *
+     * @return nombre d'octets reçus en littéral
+     */
+    static long reconstruire(DataInputStream in, RandomAccessFile versionLocale, int tailleBloc,
+            OutputStream destination, LimiteurDebit.Flux flux, Transfert suivi) throws IOException {
+        byte[] tampon = new byte[Math.max(tailleBloc, LITTERAL_MAX)];
+        long tailleLocale = versionLocale.length();
+        long octetsLitteraux = 0;
+
+        while (true) {
+            byte instruction = in.readByte();
+            if (instruction == FIN)
+                return octetsLitteraux;
+
+            if (instruction == COPIE) {
+                long position = (long) in.readInt() * tailleBloc;
+                flux.consommer(5);
+                if (position < 0 || position >= tailleLocale) {
+                    throw new IOException("Bloc hors de la version locale: " + position);
+                }
+                int longueur = (int) Math.min(tailleBloc, tailleLocale - position);
+                versionLocale.seek(position);
+                versionLocale.readFully(tampon, 0, longueur);
+                destination.write(tampon, 0, longueur);
+                suivi.avancer(longueur);
+            } else if (instruction == LITTERAL) {
+                int longueur = in.readInt();
+                if (longueur < 0 || longueur > LITTERAL_MAX) {
+                    throw new IOException("Littéral invalide: " + longueur);
+                }
+                in.readFully(tampon, 0, longueur);
+                flux.consommer(5 + longueur);
+                destination.write(tampon, 0, longueur);
+                suivi.avancer(longueur);
+                octetsLitteraux += longueur;
+            } else {
+                throw new IOException("Instruction de delta inconnue: " + instruction);
+            }
+        }
+    }
+
+    private static int chercherBloc(Map<Integer, List<Integer>> blocsParSomme, Signatures signatures, int somme,
+            byte[] fenetre, int debut, int longueur, MessageDigest md5) {
+        List<Integer> candidats = blocsParSomme.get(somme);
+        if (candidats == null)
+            return -1;
+
+        byte[] forte = null;
+        for (int candidat : candidats) {
+            if (signatures.longueurBloc(candidat) != longueur)
+                continue;
+            if (forte == null) {
+                int premierePartie = Math.min(longueur, fenetre.length - debut);
+                md5.update(fenetre, debut, premierePartie);
+                md5.update(fenetre, 0, longueur - premierePartie);
+                forte = md5.digest();
+            }
+            if (MessageDigest.isEqual(forte, signatures.fortes[candidat]))
+                return candidat;
+        }
+        return -1;
+    }
+
+    private static long viderLitteral(ByteArrayOutputStream litteral, DataOutputStream out, LimiteurDebit.Flux flux)
+            throws IOException {
+        int longueur = litteral.size();
+        if (longueur == 0)
+            return 0;
+        out.writeByte(LITTERAL);
+        out.writeInt(longueur);
+        litteral.writeTo(out);
+        litteral.reset();
+        flux.consommer(5 + longueur);
+        return longueur;
+    }
+
+    static int sommeFaible(byte[] donnees, int debut, int longueur) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < longueur; i++) {
+            int x = donnees[debut + i] & 0xFF;
+            a += x;
+            b += (longueur - i) * x;
+        }
+        return sommeFaible(a, b);
+    }
+
+    private static int sommeFaible(int a, int b) {
+        return (b & 0xFFFF) << 16 | (a & 0xFFFF);
+    }
+
+    private static int lireAuPlus(InputStream in, byte[] tampon, int longueur) throws IOException {
+        int total = 0;
+        int lu;
+        while (total < longueur && (lu = in.read(tampon, total, longueur - total)) != -1) {
+            total += lu;
+        }
+        return total;
+    }
+
+    private static void lireComplet(InputStream in, byte[] tampon, int longueur) throws IOException {
+        if (lireAuPlus(in, tampon, longueur) < longueur) {
+            throw new EOFException("Fichier raccourci pendant la signature");
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 indisponible", e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package entities;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SHA-256 d'un contenu et de chacun de ses blocs (feuilles de son arbre de
+ * Merkle), calculés au fil des octets dans l'ordre du fichier, avec le hash
+ * rapide du contenu qui ne coûte presque rien de plus.
+ *
+ * Sert au hachage d'un fichier sur disque comme à la réception: le contenu
+ * est haché pendant qu'il arrive, et le fichier reçu n'a pas besoin d'être
+ * relu pour être vérifié.
+ */
+class Empreinte {
+    private static final int TAILLE_TAMPON = 64 * 1024;
+
+    private final MessageDigest sha256 = ArbreMerkle.sha256();
+    private final MessageDigest sha256Bloc = ArbreMerkle.sha256();
+    private final AlgorithmeHachage.Calcul rapide = FileManager.ALGORITHME_RAPIDE.nouveauCalcul();
+    private final int tailleBloc;
+    private final List<byte[]> feuilles = new ArrayList<>();
+    private long taille;
+    private int dansBloc;
+    private String checksum;
+    private ArbreMerkle arbre;
+    private Hachage hachageRapide;
+
+    Empreinte() {
+        this(ArbreMerkle.TAILLE_BLOC);
+    }
+
+    Empreinte(int tailleBloc) {
+        this.tailleBloc = tailleBloc;
+    }
+
+    void mettreAJour(byte[] octets, int debut, int longueur) {
+        sha256.update(octets, debut, longueur);
+        rapide.mettreAJour(octets, debut, longueur);
+        taille += longueur;
+        for (int i = debut, fin = debut + longueur; i < fin;) {
+            int n = Math.min(fin - i, tailleBloc - dansBloc);
+            sha256Bloc.update(octets, i, n);
+            i += n;
+            dansBloc += n;
+            if (dansBloc == tailleBloc) {
+                feuilles.add(sha256Bloc.digest());
+                dansBloc = 0;
+            }
+        }
+    }
+
+    /**
+     * Hache les octets restants de octets. Un tampon direct ou mappé est
+     * passé tel quel aux MessageDigest, qui le parcourent par petits
+     * morceaux, au lieu d'être d'abord copié dans un tableau.
+     */
+    void mettreAJour(ByteBuffer octets) {
+        if (octets.hasArray()) {
+            mettreAJour(octets.array(), octets.arrayOffset() + octets.position(), octets.remaining());
+            octets.position(octets.limit());
+            return;
+        }
+        taille += octets.remaining();
+        sha256.update(octets.duplicate());
+        rapide.mettreAJour(octets.duplicate());
+        while (octets.hasRemaining()) {
+            int n = Math.min(octets.remaining(), tailleBloc - dansBloc);
+            ByteBuffer bloc = octets.slice();
+            bloc.limit(n);
+            sha256Bloc.update(bloc);
+            octets.position(octets.position() + n);
+            dansBloc += n;
+            if (dansBloc == tailleBloc) {
+                feuilles.add(sha256Bloc.digest());
+                dansBloc = 0;
+            }
+        }
+    }
+
+    /**
+     * Hache les octets [position, position + longueur) de fichier, par
+     * exemple ceux que transferFrom vient d'y écrire et encore en cache
+     */
+    void lire(FileChannel fichier, long position, long longueur) throws IOException {
+        ByteBuffer tampon = ByteBuffer.allocate((int) Math.min(Math.max(longueur, 1), TAILLE_TAMPON));
+        for (long fin = position + longueur; position < fin;) {
+            tampon.clear().limit((int) Math.min(tampon.capacity(), fin - position));
+            int lu = fichier.read(tampon, position);
+            if (lu < 0) {
+                throw new EOFException("Fin de fichier à l'octet " + position);
+            }
+            position += lu;
+            tampon.flip();
+            mettreAJour(tampon);
+        }
+    }
+
+    /**
+     * Flux qui hache tout ce qui y est écrit avant de le transmettre à sortie
+     */
+    OutputStream sur(OutputStream sortie) {
+        return new FilterOutputStream(sortie) {
+            @Override
+            public void write(int octet) throws IOException {
+                mettreAJour(new byte[] { (byte) octet }, 0, 1);
+                out.write(octet);
+            }
+
+            @Override
+            public void write(byte[] octets, int debut, int longueur) throws IOException {
+                mettreAJour(octets, debut, longueur);
+                out.write(octets, debut, longueur);
+            }
+        };
+    }
+
+    long getTaille() {
+        return taille;
+    }
+
+    /**
+     * Blocs complets hachés jusqu'ici
+     */
+    int getNombreFeuilles() {
+        return feuilles.size();
+    }
+
+    byte[] getFeuille(int index) {
+        return feuilles.get(index);
+    }
+
+    /**
+     * Clôt le calcul: le dernier bloc, même incomplet, devient une feuille
+     */
+    void terminer() {
+        if (checksum != null)
+            return;
+        if (dansBloc > 0) {
+            feuilles.add(sha256Bloc.digest());
+            dansBloc = 0;
+        }
+        checksum = ArbreMerkle.hex(sha256.digest());
+        hachageRapide = new Hachage(FileManager.ALGORITHME_RAPIDE, rapide.valeur());
+        arbre = new ArbreMerkle(tailleBloc, taille, feuilles.toArray(new byte[0][]));
+    }
+
+    String getChecksum() {
+        terminer();
+        return checksum;
+    }
+
+    ArbreMerkle getArbre() {
+        terminer();
+        return arbre;
+    }
+
+    Hachage getHachageRapide() {
+        terminer();
+        return hachageRapide;
+    }
+}
@@ -1,26 +1,101 @@
 package entities;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * Version améliorée du FileManager avec meilleure gestion des checksums
  */
 public class FileManager {
+    // Hash rapide des fichiers, pour écarter vite ceux qui diffèrent; SHA-256 reste la référence
+    public static final AlgorithmeHachage ALGORITHME_RAPIDE = AlgorithmeHachage.CRC32C;
+    
     private final String dossierPartage;
     private final Map<String, String> cacheChecksums = new ConcurrentHashMap<>();
     private final Map<String, Long> cacheTimestamps = new ConcurrentHashMap<>();
+    // Arbres de Merkle, calculés dans la même lecture que les checksums
+    private final Map<String, ArbreMerkle> cacheArbres = new ConcurrentHashMap<>();
+    // Index inverse du cache: checksum -> chemins des fichiers partagés qui l'ont
+    private final Map<String, Set<String>> indexChecksums = new ConcurrentHashMap<>();
+    // Hash rapide de chaque fichier à sa date de modification, même pas encore haché en SHA-256
+    private final Map<String, EmpreinteRapide> cacheRapides = new ConcurrentHashMap<>();
+    // Fichiers relus entièrement pour calculer leur checksum
+    private final AtomicLong lecturesHachage = new AtomicLong();
+    // Fichiers relus pour leur seul hash rapide
+    private final AtomicLong lecturesHachageRapide = new AtomicLong();
+    // Checksums conservés d'un démarrage à l'autre
+    private final IndexEmpreintes indexPersistant;
+    
+    // Hachage du dossier en arrière-plan, réglable avec -Dp2p.threadsHachage
+    private static final int THREADS_HACHAGE = Integer.getInteger("p2p.threadsHachage",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private final ForkJoinPool poolHachage = new ForkJoinPool(Math.max(1, THREADS_HACHAGE));
+    // Fichiers en attente d'indexation -> octets déjà hachés
+    private final Map<String, AtomicLong> progressionHachage = new ConcurrentHashMap<>();
+    // Verrou de lecture pris avant de hacher un fichier, null s'il est en cours d'écriture
+    private volatile Function<File, AutoCloseable> gardeIndexation = fichier -> () -> {
+    };
+    private volatile Runnable apresIndexation = () -> {
+    };
+    
+    // Taille à partir de laquelle un fichier est haché par mappage mémoire,
+    // réglable avec -Dp2p.seuilHachageMappe (en octets). Désactivé par
+    // défaut: à cache de pages chaud, MainBenchmark le mesure à ±10% de la
+    // lecture bufferisée de 64 Ko à 1 Go, et plus lent à 4 Go
+    private static final long SEUIL_HACHAGE_MAPPE = Long.getLong("p2p.seuilHachageMappe", Long.MAX_VALUE);
+    // Région mappée à la fois: l'espace d'adressage reste borné pour les très gros fichiers
+    private static final long REGION_MAPPEE = 256L * 1024 * 1024;
+    private volatile long seuilHachageMappe = SEUIL_HACHAGE_MAPPE;
+    
+    private static class EmpreinteRapide {
+        final Hachage hachage;
+        final long derniereModif;
+
+        EmpreinteRapide(Hachage hachage, long derniereModif) {
+            this.hachage = hachage;
+            this.derniereModif = derniereModif;
+        }
+    }
     
     public FileManager(String dossierPartage) {
         this.dossierPartage = dossierPartage;
+        this.indexPersistant = new IndexEmpreintes(new File(dossierPartage));
+        chargerIndexPersistant();
+    }
+
+    /**
+     * Reprend les checksums des fichiers inchangés depuis le dernier
+     * démarrage, sans les relire
+     */
+    private void chargerIndexPersistant() {
+        for (IndexEmpreintes.Entree entree : indexPersistant.charger().values()) {
+            String cheminAbsolu = new File(dossierPartage, entree.nom).getAbsolutePath();
+            cacheChecksums.put(cheminAbsolu, entree.checksum);
+            cacheArbres.put(cheminAbsolu, entree.arbre);
+            cacheTimestamps.put(cheminAbsolu, entree.derniereModif);
+            if (entree.rapide != null) {
+                cacheRapides.put(cheminAbsolu, new EmpreinteRapide(entree.rapide, entree.derniereModif));
+            }
+            indexChecksums.computeIfAbsent(entree.checksum, c -> ConcurrentHashMap.newKeySet()).add(cheminAbsolu);
+        }
     }
 
+    /**
+     * Fichiers partagés, sans les fichiers partiels des téléchargements en cours
+     */
     public List<File> listerFichiers() {
         File dossier = new File(dossierPartage);
-        File[] fichiers = dossier.listFiles();
+        File[] fichiers = dossier.listFiles(f -> !JournalTelechargement.estFichierInterne(f.getName()));
         return fichiers != null ? Arrays.asList(fichiers) : new ArrayList<>();
     }
 
@@ -40,21 +115,311 @@ public class FileManager {
             }
         }
         
-        // Calculer le checksum
-        String checksum = calculerChecksumDirect(fichier);
+        // Calculer le checksum et l'arbre de Merkle en une lecture
+        Empreinte empreinte = calculerEmpreinteDirecte(fichier);
+        mettreEnCache(fichier, empreinte, derniereModif);
+        return empreinte.getChecksum();
+    }
+
+    /**
+     * SHA-256 d'un fichier relu à chaque appel, sans passer par les caches
+     * ni l'index persistant: seul le coût du hachage est mesuré
+     */
+    public String calculerChecksumSansCache(File fichier) throws Exception {
+        return calculerEmpreinteDirecte(fichier).getChecksum();
+    }
+
+    /**
+     * Hash rapide d'un fichier, relu seulement si sa date a changé depuis le
+     * dernier calcul
+     */
+    public Hachage calculerHachageRapide(File fichier) throws IOException {
+        String cheminAbsolu = fichier.getAbsolutePath();
+        long derniereModif = fichier.lastModified();
+        EmpreinteRapide cache = cacheRapides.get(cheminAbsolu);
+        if (cache != null && cache.derniereModif == derniereModif) {
+            return cache.hachage;
+        }
+        
+        lecturesHachageRapide.incrementAndGet();
+        Hachage hachage = new Hachage(ALGORITHME_RAPIDE, hacher(fichier, ALGORITHME_RAPIDE));
+        cacheRapides.put(cheminAbsolu, new EmpreinteRapide(hachage, derniereModif));
+        return hachage;
+    }
+
+    /**
+     * Hash rapide déjà connu et à jour, sans lire le fichier
+     *
+     * @return null s'il n'a pas encore été calculé
+     */
+    public Hachage getHachageRapide(File fichier) {
+        EmpreinteRapide cache = cacheRapides.get(fichier.getAbsolutePath());
+        return cache != null && cache.derniereModif == fichier.lastModified() ? cache.hachage : null;
+    }
+
+    /**
+     * Un seul algorithme, sans arbre de Merkle: lecture bufferisée simple
+     */
+    private static String hacher(File fichier, AlgorithmeHachage algorithme) throws IOException {
+        AlgorithmeHachage.Calcul calcul = algorithme.nouveauCalcul();
+        try (FileInputStream fis = new FileInputStream(fichier)) {
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                calcul.mettreAJour(buffer, 0, bytesRead);
+            }
+        }
+        return calcul.valeur();
+    }
+
+    /**
+     * Enregistre dans le cache l'empreinte d'un fichier calculée pendant sa
+     * réception, pour qu'il ne soit pas relu au prochain LIST. Le fichier ne
+     * doit pas avoir changé depuis: seule sa date de modification est prise
+     * ici.
+     */
+    void enregistrerEmpreinte(File fichier, Empreinte empreinte) {
+        if (empreinte.getTaille() != fichier.length()
+                || empreinte.getArbre().getTailleBloc() != ArbreMerkle.TAILLE_BLOC)
+            return;
+        mettreEnCache(fichier, empreinte, fichier.lastModified());
+    }
+
+    private void mettreEnCache(File fichier, Empreinte empreinte, long derniereModif) {
+        String cheminAbsolu = fichier.getAbsolutePath();
+        String checksum = empreinte.getChecksum();
+        
+        Hachage rapide = empreinte.getHachageRapide();
         
-        // Mettre à jour le cache
-        cacheChecksums.put(cheminAbsolu, checksum);
+        String ancien = cacheChecksums.put(cheminAbsolu, checksum);
+        cacheArbres.put(cheminAbsolu, empreinte.getArbre());
         cacheTimestamps.put(cheminAbsolu, derniereModif);
+        cacheRapides.put(cheminAbsolu, new EmpreinteRapide(rapide, derniereModif));
+        if (ancien != null && !ancien.equals(checksum)) {
+            Set<String> chemins = indexChecksums.get(ancien);
+            if (chemins != null) {
+                chemins.remove(cheminAbsolu);
+            }
+        }
+        if (!JournalTelechargement.estFichierInterne(fichier.getName())) {
+            indexChecksums.computeIfAbsent(checksum, c -> ConcurrentHashMap.newKeySet()).add(cheminAbsolu);
+            if (estDansDossierPartage(fichier)) {
+                try {
+                    indexPersistant.enregistrer(fichier, derniereModif, checksum, empreinte.getArbre(), rapide);
+                } catch (IOException | InvalidPathException e) {
+                    // Index persistant indisponible: le cache mémoire suffit
+                }
+            }
+        }
+    }
+
+    private boolean estDansDossierPartage(File fichier) {
+        return new File(dossierPartage, fichier.getName()).getAbsolutePath().equals(fichier.getAbsolutePath());
+    }
+
+    /**
+     * Le checksum du fichier est en cache et à jour: le demander ne relit pas
+     * le fichier
+     */
+    public boolean estHache(File fichier) {
+        String cheminAbsolu = fichier.getAbsolutePath();
+        Long timestampCache = cacheTimestamps.get(cheminAbsolu);
+        return timestampCache != null && timestampCache == fichier.lastModified()
+                && cacheChecksums.containsKey(cheminAbsolu);
+    }
+
+    /**
+     * Lance en arrière-plan le hachage des fichiers partagés nouveaux ou
+     * modifiés. Les fichiers sont répartis sur le ForkJoinPool de hachage;
+     * un fichier déjà en attente n'est pas ajouté deux fois. Le hash rapide
+     * de chaque fichier est calculé dans la même lecture que son SHA-256.
+     */
+    public void lancerIndexation() {
+        List<File> aHacher = new ArrayList<>();
+        for (File fichier : listerFichiers()) {
+            if (fichier.isFile() && !estHache(fichier)
+                    && progressionHachage.putIfAbsent(fichier.getAbsolutePath(), new AtomicLong()) == null) {
+                aHacher.add(fichier);
+            }
+        }
+        if (aHacher.isEmpty() || poolHachage.isShutdown())
+            return;
+        poolHachage.execute(new Indexation(aHacher, 0, aHacher.size()));
+    }
+
+    /**
+     * Part d'un fichier déjà hachée, entre 0 et 1
+     */
+    public double getProgressionHachage(File fichier) {
+        if (estHache(fichier))
+            return 1.0;
+        AtomicLong octets = progressionHachage.get(fichier.getAbsolutePath());
+        long taille = fichier.length();
+        return octets == null || taille == 0 ? 0.0 : Math.min(1.0, octets.get() / (double) taille);
+    }
+
+    /**
+     * Nombre de fichiers en attente de hachage en arrière-plan
+     */
+    public int getNombreFichiersEnAttente() {
+        return progressionHachage.size();
+    }
+
+    /**
+     * Verrou de lecture pris avant chaque hachage en arrière-plan; la garde
+     * rend null pour un fichier en cours d'écriture, laissé en attente
+     */
+    void setGardeIndexation(Function<File, AutoCloseable> garde) {
+        this.gardeIndexation = garde;
+    }
+
+    /**
+     * Action exécutée quand une indexation a haché tous ses fichiers
+     */
+    void setApresIndexation(Runnable action) {
+        this.apresIndexation = action;
+    }
+
+    public void arreterIndexation() {
+        poolHachage.shutdownNow();
+    }
+
+    /**
+     * Hachage d'une tranche de la liste, coupée en deux tant qu'elle a
+     * plusieurs fichiers pour que les threads inoccupés prennent la suite
+     */
+    private class Indexation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<File> fichiers;
+        private final int debut;
+        private final int fin;
+
+        Indexation(List<File> fichiers, int debut, int fin) {
+            this.fichiers = fichiers;
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected void compute() {
+            if (fin - debut > 1) {
+                int milieu = (debut + fin) >>> 1;
+                invokeAll(new Indexation(fichiers, debut, milieu), new Indexation(fichiers, milieu, fin));
+            } else if (fin > debut) {
+                indexer(fichiers.get(debut));
+            }
+            if (debut == 0 && fin == fichiers.size()) {
+                apresIndexation.run();
+            }
+        }
+    }
+
+    private void indexer(File fichier) {
+        try (AutoCloseable verrou = gardeIndexation.apply(fichier)) {
+            if (verrou != null && fichier.isFile()) {
+                calculerChecksum(fichier);
+            }
+        } catch (Exception e) {
+            // Fichier illisible ou disparu: il reste sans checksum
+        } finally {
+            progressionHachage.remove(fichier.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Fichier partagé dont le contenu a ce checksum, d'après l'index. Une
+     * recherche qui échoue lance l'indexation des fichiers pas encore hachés
+     * en arrière-plan, sans l'attendre.
+     *
+     * @return null si aucun fichier haché n'a ce contenu
+     */
+    public File trouverParChecksum(String checksum) {
+        File trouve = chercherDansIndex(checksum);
+        if (trouve == null) {
+            lancerIndexation();
+        }
+        return trouve;
+    }
+
+    /**
+     * Comme trouverParChecksum(String), mais les fichiers pas encore hachés
+     * de cette taille et de ce hash rapide (s'il est donné) sont hachés tout
+     * de suite en SHA-256 pour confirmer; les autres sont laissés à
+     * l'indexation périodique
+     */
+    public File trouverParChecksum(String checksum, long taille, Hachage rapide) {
+        File trouve = chercherDansIndex(checksum);
+        if (trouve != null)
+            return trouve;
+
+        for (File fichier : listerFichiers()) {
+            if (!fichier.isFile() || estHache(fichier) || fichier.length() != taille)
+                continue;
+            try {
+                if (rapide != null && rapide.getAlgorithme() == ALGORITHME_RAPIDE
+                        && !rapide.equals(calculerHachageRapide(fichier)))
+                    continue;
+                calculerChecksum(fichier);
+            } catch (Exception e) {
+                // Fichier illisible: absent de l'index
+            }
+        }
+        return chercherDansIndex(checksum);
+    }
+
+    /**
+     * Entrée de l'index encore valable: fichier présent et inchangé depuis
+     * son hachage. Les entrées obsolètes sont retirées au passage.
+     */
+    private File chercherDansIndex(String checksum) {
+        Set<String> chemins = indexChecksums.get(checksum);
+        if (chemins == null)
+            return null;
+
+        for (String chemin : chemins) {
+            File fichier = new File(chemin);
+            Long timestamp = cacheTimestamps.get(chemin);
+            if (fichier.isFile() && timestamp != null && timestamp == fichier.lastModified()
+                    && checksum.equals(cacheChecksums.get(chemin))) {
+                return fichier;
+            }
+            chemins.remove(chemin);
+        }
+        return null;
+    }
+
+    /**
+     * Arbre de Merkle des blocs d'un fichier, avec le même cache que son
+     * checksum
+     */
+    public ArbreMerkle calculerArbreMerkle(File fichier) throws Exception {
+        String cheminAbsolu = fichier.getAbsolutePath();
+        Long timestampCache = cacheTimestamps.get(cheminAbsolu);
+        ArbreMerkle arbre = cacheArbres.get(cheminAbsolu);
+        if (arbre != null && timestampCache != null && timestampCache == fichier.lastModified()) {
+            return arbre;
+        }
         
-        return checksum;
+        // Recalcul du checksum, qui remplit aussi le cache des arbres
+        cacheTimestamps.remove(cheminAbsolu);
+        calculerChecksum(fichier);
+        return cacheArbres.get(cheminAbsolu);
     }
 
     /**
-     * Calcul direct du checksum sans cache
+     * Calcul direct sans cache: SHA-256 du fichier entier et de chacun de
+     * ses blocs dans la même lecture
      */
-    private String calculerChecksumDirect(File fichier) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    private Empreinte calculerEmpreinteDirecte(File fichier) throws Exception {
+        Empreinte empreinte = new Empreinte();
+        lecturesHachage.incrementAndGet();
+        AtomicLong progression = progressionHachage.get(fichier.getAbsolutePath());
+        
+        if (fichier.length() >= seuilHachageMappe) {
+            hacherParMappage(fichier, empreinte, progression);
+            empreinte.terminer();
+            return empreinte;
+        }
         
         // Lecture par chunks pour économiser la mémoire
         try (FileInputStream fis = new FileInputStream(fichier);
@@ -64,20 +429,60 @@ public class FileManager {
             int bytesRead;
             
             while ((bytesRead = bis.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
+                empreinte.mettreAJour(buffer, 0, bytesRead);
+                if (progression != null) {
+                    progression.addAndGet(bytesRead);
+                }
             }
         }
         
-        byte[] hash = digest.digest();
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
+        empreinte.terminer();
+        return empreinte;
+    }
+
+    /**
+     * Hachage d'un gros fichier: les régions mappées en mémoire sont passées
+     * directement aux MessageDigest, sans les copies de FileInputStream et
+     * du BufferedInputStream. Un fichier tronqué par un autre processus
+     * pendant la lecture fait échouer le hachage par une IOException, pas par
+     * l'InternalError (SIGBUS) de l'accès à la page disparue.
+     */
+    private void hacherParMappage(File fichier, Empreinte empreinte, AtomicLong progression) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(fichier, "r");
+             FileChannel canal = raf.getChannel()) {
+            long taille = canal.size();
+            for (long position = 0; position < taille; position += REGION_MAPPEE) {
+                MappedByteBuffer region = canal.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_MAPPEE, taille - position));
+                // Par blocs, pour suivre la progression
+                while (region.hasRemaining()) {
+                    int n = Math.min(region.remaining(), ArbreMerkle.TAILLE_BLOC);
+                    ByteBuffer bloc = region.slice();
+                    bloc.limit(n);
+                    try {
+                        empreinte.mettreAJour(bloc);
+                    } catch (InternalError e) {
+                        throw new IOException(fichier.getName() + " tronqué pendant son hachage", e);
+                    }
+                    region.position(region.position() + n);
+                    if (progression != null) {
+                        progression.addAndGet(n);
+                    }
+                }
             }
-            hexString.append(hex);
         }
-        return hexString.toString();
+    }
+
+    /**
+     * Taille à partir de laquelle les fichiers sont hachés par mappage
+     * mémoire plutôt que par lecture bufferisée; Long.MAX_VALUE le désactive
+     */
+    public void setSeuilHachageMappe(long seuil) {
+        this.seuilHachageMappe = Math.max(0, seuil);
+    }
+
+    public long getSeuilHachageMappe() {
+        return seuilHachageMappe;
     }
 
     /**
@@ -152,6 +557,8 @@ public class FileManager {
         String cheminAbsolu = cheminFinal.toAbsolutePath().toString();
         cacheChecksums.remove(cheminAbsolu);
         cacheTimestamps.remove(cheminAbsolu);
+        cacheArbres.remove(cheminAbsolu);
+        cacheRapides.remove(cheminAbsolu);
     }
 
     /**
@@ -172,12 +579,28 @@ public class FileManager {
         return hexString.toString();
     }
 
+    /**
+     * Oublie le checksum d'un fichier réécrit sans que sa date de
+     * modification ait forcément changé
+     */
+    public void invaliderCache(File fichier) {
+        String cheminAbsolu = fichier.getAbsolutePath();
+        cacheTimestamps.remove(cheminAbsolu);
+        cacheChecksums.remove(cheminAbsolu);
+        cacheArbres.remove(cheminAbsolu);
+        cacheRapides.remove(cheminAbsolu);
+    }
+
     /**
      * Nettoyage du cache des checksums
      */
     public void nettoyerCache() {
         cacheChecksums.clear();
         cacheTimestamps.clear();
+        cacheArbres.clear();
+        cacheRapides.clear();
+        indexChecksums.clear();
+        indexPersistant.vider();
     }
 
     /**
@@ -187,6 +610,11 @@ public class FileManager {
         Map<String, Object> stats = new HashMap<>();
         stats.put("taille_cache_checksums", cacheChecksums.size());
         stats.put("taille_cache_timestamps", cacheTimestamps.size());
+        stats.put("taille_index_checksums", indexChecksums.size());
+        stats.put("lectures_hachage", lecturesHachage.get());
+        stats.put("lectures_hachage_rapide", lecturesHachageRapide.get());
+        stats.put("taille_index_persistant", indexPersistant.getNombreEntrees());
+        stats.put("fichiers_en_attente_hachage", progressionHachage.size());
         return stats;
     }
 
@@ -0,0 +1,43 @@
+package entities;
+
+import java.util.Objects;
+
+/**
+ * Valeur d'un hash avec l'algorithme qui l'a produite: deux hashes ne se
+ * comparent que s'ils viennent du même algorithme.
+ */
+public final class Hachage {
+    private final AlgorithmeHachage algorithme;
+    private final String valeur;
+
+    public Hachage(AlgorithmeHachage algorithme, String valeur) {
+        this.algorithme = Objects.requireNonNull(algorithme);
+        this.valeur = Objects.requireNonNull(valeur);
+    }
+
+    public AlgorithmeHachage getAlgorithme() {
+        return algorithme;
+    }
+
+    public String getValeur() {
+        return valeur;
+    }
+
+    @Override
+    public boolean equals(Object autre) {
+        if (!(autre instanceof Hachage))
+            return false;
+        Hachage hachage = (Hachage) autre;
+        return algorithme == hachage.algorithme && valeur.equals(hachage.valeur);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * algorithme.hashCode() + valeur.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return algorithme.getNom() + ":" + valeur;
+    }
+}
@@ -0,0 +1,275 @@
+package entities;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Index persistant des checksums d'un dossier partagé, dans le fichier
+ * FICHIER_INDEX de ce dossier.
+ *
+ * Chaque fichier haché y ajoute un enregistrement: nom, taille, date de
+ * modification et clé du fichier (inode), checksum et arbre de Merkle, puis
+ * son hash rapide quand il est connu (absent des anciens enregistrements). Le
+ * dernier enregistrement d'un nom l'emporte, et il n'est repris au
+ * démarrage que si le fichier a toujours la même taille, la même date et la
+ * même clé. Chaque enregistrement porte sa longueur et son CRC32: après un
+ * arrêt brutal, la lecture s'arrête au premier enregistrement incomplet, qui
+ * est tronqué. Quand les enregistrements obsolètes dépassent les entrées
+ * valables, l'index est réécrit dans un fichier temporaire puis renommé.
+ */
+class IndexEmpreintes {
+    static final String FICHIER_INDEX = ".checksums.index";
+    private static final String EXTENSION_TEMPORAIRE = ".tmp";
+    private static final int MAGIQUE = 0x50325049; // "P2PI"
+    private static final int VERSION = 1;
+    private static final int TAILLE_ENTETE = 8;
+    // Sous ce nombre d'enregistrements, l'index n'est jamais compacté
+    private static final int COMPACTION_MIN = 64;
+    private static final int TAILLE_ENREGISTREMENT_MAX = 64 * 1024 * 1024;
+
+    private final File dossier;
+    private final File fichier;
+    // Dernier enregistrement de chaque nom, pour la compaction
+    private final Map<String, byte[]> entrees = new LinkedHashMap<>();
+    private int enregistrements;
+
+    /**
+     * Entrée de l'index encore valable pour son fichier
+     */
+    static class Entree {
+        final String nom;
+        final long derniereModif;
+        final String checksum;
+        final ArbreMerkle arbre;
+        final Hachage rapide; // null si inconnu
+
+        private Entree(String nom, long derniereModif, String checksum, ArbreMerkle arbre, Hachage rapide) {
+            this.nom = nom;
+            this.derniereModif = derniereModif;
+            this.checksum = checksum;
+            this.arbre = arbre;
+            this.rapide = rapide;
+        }
+    }
+
+    IndexEmpreintes(File dossier) {
+        this.dossier = dossier;
+        this.fichier = new File(dossier, FICHIER_INDEX);
+    }
+
+    static boolean estFichierIndex(String nom) {
+        return nom.equals(FICHIER_INDEX) || nom.equals(FICHIER_INDEX + EXTENSION_TEMPORAIRE);
+    }
+
+    /**
+     * Lit l'index et ne garde que les entrées des fichiers inchangés. Un
+     * index illisible est recommencé à vide.
+     */
+    synchronized Map<String, Entree> charger() {
+        entrees.clear();
+        enregistrements = 0;
+        Map<String, Entree> valables = new LinkedHashMap<>();
+        if (!fichier.isFile())
+            return valables;
+
+        long finValide = TAILLE_ENTETE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fichier)))) {
+            if (in.readInt() != MAGIQUE || in.readInt() != VERSION) {
+                throw new IOException("En-tête invalide");
+            }
+            while (true) {
+                byte[] enregistrement = lireEnregistrement(in);
+                if (enregistrement == null)
+                    break;
+                finValide += 4 + enregistrement.length + 8;
+                enregistrements++;
+                entrees.put(new Trame.Lecture(enregistrement).chaine(), enregistrement);
+            }
+        } catch (IOException e) {
+            vider();
+            return valables;
+        }
+
+        for (Map.Entry<String, byte[]> e : entrees.entrySet()) {
+            Entree entree = lireEntree(e.getValue());
+            if (entree != null) {
+                valables.put(entree.nom, entree);
+            }
+        }
+        entrees.keySet().retainAll(valables.keySet());
+
+        try {
+            if (finValide < fichier.length()) {
+                // Enregistrement incomplet d'un arrêt brutal: retiré avant d'ajouter à la suite
+                try (FileChannel canal = FileChannel.open(fichier.toPath(), StandardOpenOption.WRITE)) {
+                    canal.truncate(finValide);
+                }
+            }
+            compacterSiNecessaire();
+        } catch (IOException e) {
+            vider();
+        }
+        return valables;
+    }
+
+    /**
+     * Ajoute l'empreinte d'un fichier du dossier à la fin de l'index
+     */
+    synchronized void enregistrer(File fichierPartage, long derniereModif, String checksum, ArbreMerkle arbre,
+            Hachage rapide) throws IOException {
+        BasicFileAttributes attributs = Files.readAttributes(fichierPartage.toPath(), BasicFileAttributes.class);
+        Trame.Ecriture ecriture = new Trame.Ecriture()
+                .chaine(fichierPartage.getName())
+                .longue(attributs.size())
+                .longue(derniereModif)
+                .chaine(cleFichier(attributs))
+                .chaine(checksum);
+        arbre.ecrire(ecriture);
+        if (rapide != null) {
+            ecriture.entier(rapide.getAlgorithme().getId()).chaine(rapide.getValeur());
+        }
+        byte[] enregistrement = ecriture.toBytes();
+
+        boolean nouveau = !fichier.isFile();
+        try (FileChannel canal = FileChannel.open(fichier.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (nouveau || canal.size() < TAILLE_ENTETE) {
+                canal.truncate(0);
+                ecrireTout(canal, ByteBuffer.allocate(TAILLE_ENTETE).putInt(MAGIQUE).putInt(VERSION).flip());
+                entrees.clear();
+                enregistrements = 0;
+            }
+            ecrireTout(canal, encadrer(enregistrement));
+        }
+        entrees.put(fichierPartage.getName(), enregistrement);
+        enregistrements++;
+        compacterSiNecessaire();
+    }
+
+    /**
+     * Supprime l'index du disque
+     */
+    synchronized void vider() {
+        entrees.clear();
+        enregistrements = 0;
+        fichier.delete();
+    }
+
+    synchronized int getNombreEntrees() {
+        return entrees.size();
+    }
+
+    private void compacterSiNecessaire() throws IOException {
+        if (enregistrements <= COMPACTION_MIN || enregistrements <= 2 * entrees.size())
+            return;
+
+        File temporaire = new File(dossier, FICHIER_INDEX + EXTENSION_TEMPORAIRE);
+        try (FileChannel canal = FileChannel.open(temporaire.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ecrireTout(canal, ByteBuffer.allocate(TAILLE_ENTETE).putInt(MAGIQUE).putInt(VERSION).flip());
+            for (byte[] enregistrement : entrees.values()) {
+                ecrireTout(canal, encadrer(enregistrement));
+            }
+            canal.force(true);
+        }
+        try {
+            Files.move(temporaire.toPath(), fichier.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaire.toPath(), fichier.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        enregistrements = entrees.size();
+    }
+
+    /**
+     * Entrée d'un enregistrement si son fichier n'a pas changé depuis
+     */
+    private Entree lireEntree(byte[] enregistrement) {
+        try {
+            Trame.Lecture lecture = new Trame.Lecture(enregistrement);
+            String nom = lecture.chaine();
+            long taille = lecture.longue();
+            long derniereModif = lecture.longue();
+            String cle = lecture.chaine();
+            String checksum = lecture.chaine();
+            ArbreMerkle arbre = ArbreMerkle.lire(lecture);
+            Hachage rapide = null;
+            if (lecture.aEncore()) {
+                AlgorithmeHachage algorithme = AlgorithmeHachage.parId(lecture.entier());
+                String valeur = lecture.chaine();
+                rapide = algorithme != null ? new Hachage(algorithme, valeur) : null;
+            }
+
+            File fichierPartage = new File(dossier, nom);
+            if (!fichierPartage.isFile() || arbre.getTailleFichier() != taille)
+                return null;
+            BasicFileAttributes attributs = Files.readAttributes(fichierPartage.toPath(), BasicFileAttributes.class);
+            if (attributs.size() != taille || fichierPartage.lastModified() != derniereModif
+                    || !cleFichier(attributs).equals(cle))
+                return null;
+            return new Entree(nom, derniereModif, checksum, arbre, rapide);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return null à la fin de l'index ou sur un enregistrement incomplet
+     */
+    private static byte[] lireEnregistrement(DataInputStream in) throws IOException {
+        try {
+            int longueur = in.readInt();
+            if (longueur < 0 || longueur > TAILLE_ENREGISTREMENT_MAX)
+                return null;
+            byte[] enregistrement = new byte[longueur];
+            in.readFully(enregistrement);
+            long crc = in.readLong();
+            return crc == crc32(enregistrement) ? enregistrement : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer encadrer(byte[] enregistrement) {
+        return ByteBuffer.allocate(4 + enregistrement.length + 8)
+                .putInt(enregistrement.length)
+                .put(enregistrement)
+                .putLong(crc32(enregistrement))
+                .flip();
+    }
+
+    private static long crc32(byte[] octets) {
+        CRC32 crc = new CRC32();
+        crc.update(octets);
+        return crc.getValue();
+    }
+
+    private static void ecrireTout(FileChannel canal, ByteBuffer tampon) throws IOException {
+        while (tampon.hasRemaining()) {
+            canal.write(tampon);
+        }
+    }
+
+    /**
+     * Identité du fichier sur le disque (inode), vide si le système de
+     * fichiers n'en fournit pas
+     */
+    private static String cleFichier(BasicFileAttributes attributs) {
+        Object cle = attributs.fileKey();
+        return cle != null ? cle.toString() : "";
+    }
+}
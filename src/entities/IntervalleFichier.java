@@ -0,0 +1,55 @@
+package entities;
+
+/**
+ * Intervalle d'un fichier distant lu par GET_RANGE, avec le checksum et la
+ * taille du fichier entier au moment de la lecture: deux intervalles dont
+ * les checksums diffèrent ne proviennent pas de la même version du fichier.
+ */
+public class IntervalleFichier {
+    private final String checksumFichier;
+    private final long tailleFichier;
+    private final long offset;
+    private final byte[] donnees;
+
+    IntervalleFichier(String checksumFichier, long tailleFichier, long offset, byte[] donnees) {
+        this.checksumFichier = checksumFichier;
+        this.tailleFichier = tailleFichier;
+        this.offset = offset;
+        this.donnees = donnees;
+    }
+
+    public String getChecksumFichier() {
+        return checksumFichier;
+    }
+
+    public long getTailleFichier() {
+        return tailleFichier;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Octets [offset, offset + longueur), longueur tronquée à la fin du fichier
+     */
+    public byte[] getDonnees() {
+        return donnees;
+    }
+
+    public long getLongueur() {
+        return donnees.length;
+    }
+
+    /**
+     * Vrai si l'intervalle s'arrête à la fin du fichier
+     */
+    public boolean atteintFin() {
+        return offset + donnees.length == tailleFichier;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + ", " + (offset + donnees.length) + ") / " + tailleFichier;
+    }
+}
@@ -0,0 +1,186 @@
+package entities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Journal d'un téléchargement interrompu, à côté de son fichier partiel.
+ *
+ * Le contenu reçu s'écrit dans "nom.part"; le journal "nom.part.journal"
+ * retient le checksum et la taille annoncés par la source, le nombre
+ * d'octets confirmés sur disque et les peers qui ont servi le fichier. Une
+ * nouvelle tentative reprend à l'offset confirmé, y compris après un
+ * redémarrage du processus. Le journal est réécrit par renommage d'un
+ * fichier temporaire: il n'est jamais lu à moitié écrit.
+ */
+class JournalTelechargement {
+    static final String EXTENSION_PARTIEL = ".part";
+    static final String EXTENSION_JOURNAL = ".part.journal";
+    // Octets reçus entre deux points de reprise pendant la réception
+    static final long INTERVALLE_CONFIRMATION = 16 * 1024 * 1024;
+
+    private final File fichierPartiel;
+    private final File fichierJournal;
+    private final String checksum;
+    private final long taille;
+    private final Set<String> sources = new LinkedHashSet<>();
+    private long octetsConfirmes;
+
+    private JournalTelechargement(File dossier, String nomFichier, String checksum, long taille) {
+        this.fichierPartiel = new File(dossier, nomFichier + EXTENSION_PARTIEL);
+        this.fichierJournal = new File(dossier, nomFichier + EXTENSION_JOURNAL);
+        this.checksum = checksum;
+        this.taille = taille;
+    }
+
+    /**
+     * Nouveau journal, enregistré immédiatement
+     */
+    static JournalTelechargement creer(File dossier, String nomFichier, String checksum, long taille)
+            throws IOException {
+        JournalTelechargement journal = new JournalTelechargement(dossier, nomFichier, checksum, taille);
+        journal.enregistrer();
+        return journal;
+    }
+
+    /**
+     * Journal d'un téléchargement interrompu de nomFichier
+     *
+     * @return null s'il n'y en a pas ou s'il est illisible
+     */
+    static JournalTelechargement charger(File dossier, String nomFichier) {
+        File fichierJournal = new File(dossier, nomFichier + EXTENSION_JOURNAL);
+        if (!fichierJournal.isFile())
+            return null;
+
+        Properties proprietes = new Properties();
+        try (InputStream in = new FileInputStream(fichierJournal)) {
+            proprietes.load(in);
+            JournalTelechargement journal = new JournalTelechargement(dossier, nomFichier,
+                    proprietes.getProperty("checksum", ""), Long.parseLong(proprietes.getProperty("taille")));
+            // Seuls les octets présents dans le fichier partiel comptent
+            journal.octetsConfirmes = Math.min(Long.parseLong(proprietes.getProperty("confirmes", "0")),
+                    journal.fichierPartiel.length());
+            for (String source : proprietes.getProperty("sources", "").split(",")) {
+                if (!source.isEmpty()) {
+                    journal.sources.add(source);
+                }
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Noms des fichiers dont un téléchargement interrompu peut être repris
+     */
+    static List<String> lister(File dossier) {
+        List<String> noms = new ArrayList<>();
+        File[] journaux = dossier.listFiles((d, nom) -> nom.endsWith(EXTENSION_JOURNAL));
+        if (journaux != null) {
+            for (File journal : journaux) {
+                String nom = journal.getName();
+                noms.add(nom.substring(0, nom.length() - EXTENSION_JOURNAL.length()));
+            }
+        }
+        return noms;
+    }
+
+    /**
+     * Fichiers de travail des téléchargements et index des checksums, exclus
+     * du partage
+     */
+    static boolean estFichierInterne(String nom) {
+        return nom.endsWith(EXTENSION_PARTIEL) || nom.endsWith(EXTENSION_JOURNAL)
+                || nom.endsWith(EXTENSION_JOURNAL + ".tmp") || IndexEmpreintes.estFichierIndex(nom);
+    }
+
+    /**
+     * Le fichier annoncé par la source est-il celui du téléchargement interrompu?
+     */
+    boolean correspond(String checksumSource, long tailleSource) {
+        return checksum.equals(checksumSource) && taille == tailleSource;
+    }
+
+    File getFichierPartiel() {
+        return fichierPartiel;
+    }
+
+    long getTaille() {
+        return taille;
+    }
+
+    synchronized long getOctetsConfirmes() {
+        return octetsConfirmes;
+    }
+
+    synchronized List<PeerInfo> getSources() {
+        List<PeerInfo> peers = new ArrayList<>();
+        for (String source : sources) {
+            int separateur = source.lastIndexOf(':');
+            try {
+                peers.add(new PeerInfo(source.substring(0, separateur),
+                        Integer.parseInt(source.substring(separateur + 1)), ""));
+            } catch (RuntimeException e) {
+                // Source illisible: ignorée
+            }
+        }
+        return peers;
+    }
+
+    synchronized void ajouterSource(PeerInfo peer) throws IOException {
+        if (sources.add(peer.getAdresse() + ":" + peer.getPort())) {
+            enregistrer();
+        }
+    }
+
+    /**
+     * Enregistre un point de reprise: les octets jusqu'à position sont sur disque
+     */
+    synchronized void confirmer(long position) throws IOException {
+        octetsConfirmes = position;
+        enregistrer();
+    }
+
+    /**
+     * Supprime le fichier partiel et son journal
+     */
+    void supprimer() {
+        fichierPartiel.delete();
+        fichierJournal.delete();
+    }
+
+    /**
+     * Le téléchargement est terminé: seul le journal disparaît
+     */
+    void clore() {
+        fichierJournal.delete();
+    }
+
+    private void enregistrer() throws IOException {
+        Properties proprietes = new Properties();
+        proprietes.setProperty("checksum", checksum);
+        proprietes.setProperty("taille", String.valueOf(taille));
+        proprietes.setProperty("confirmes", String.valueOf(octetsConfirmes));
+        proprietes.setProperty("sources", String.join(",", sources));
+
+        File temporaire = new File(fichierJournal.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporaire)) {
+            proprietes.store(out, "Téléchargement interrompu de " + fichierPartiel.getName());
+        }
+        if (!temporaire.renameTo(fichierJournal)) {
+            temporaire.delete();
+            throw new IOException("Impossible d'écrire le journal " + fichierJournal.getName());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package entities;
+
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limitation de bande passante par sens de transfert, globale et par peer
+ * distant.
+ *
+ * Chaque tranche copiée prélève ses octets dans le seau global du sens puis
+ * dans celui du peer s'il en a un. Les peers sont identifiés par leur adresse
+ * IP: côté serveur, seul le socket distant est connu, pas le port d'écoute
+ * annoncé. Les débits se modifient à chaud.
+ */
+class LimiteurDebit {
+
+    enum Sens {
+        /** Octets envoyés (GET servis, UPLOAD émis) */
+        ENVOI,
+        /** Octets reçus (téléchargements, UPLOAD reçus) */
+        RECEPTION
+    }
+
+    private final Map<Sens, SeauJetons> globaux = new EnumMap<>(Sens.class);
+    private final Map<Sens, Map<String, SeauJetons>> parPeer = new EnumMap<>(Sens.class);
+
+    LimiteurDebit() {
+        for (Sens sens : Sens.values()) {
+            globaux.put(sens, new SeauJetons(0));
+            parPeer.put(sens, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Flux limité vers ou depuis un peer, à passer aux boucles de copie
+     */
+    class Flux {
+        private final Sens sens;
+        private final String adresse;
+
+        private Flux(Sens sens, String adresse) {
+            this.sens = sens;
+            this.adresse = adresse;
+        }
+
+        /**
+         * Attend que octets puissent passer, puis les décompte
+         */
+        void consommer(long octets) throws InterruptedIOException {
+            globaux.get(sens).consommer(octets);
+            SeauJetons seauPeer = parPeer.get(sens).get(adresse);
+            if (seauPeer != null) {
+                seauPeer.consommer(octets);
+            }
+        }
+
+        /**
+         * Indique si un débit s'applique: les copies se font alors par
+         * petites tranches
+         */
+        boolean estLimite() {
+            if (!globaux.get(sens).estIllimite())
+                return true;
+            SeauJetons seauPeer = parPeer.get(sens).get(adresse);
+            return seauPeer != null && !seauPeer.estIllimite();
+        }
+    }
+
+    Flux flux(Sens sens, String adresse) {
+        return new Flux(sens, normaliser(adresse));
+    }
+
+    Flux flux(Sens sens, InetAddress adresse) {
+        return new Flux(sens, adresse.getHostAddress());
+    }
+
+    void setDebitGlobal(Sens sens, long octetsParSeconde) {
+        globaux.get(sens).setDebit(octetsParSeconde);
+    }
+
+    long getDebitGlobal(Sens sens) {
+        return globaux.get(sens).getDebit();
+    }
+
+    /**
+     * Fixe le débit d'un peer; 0 retire sa limite
+     */
+    void setDebitPeer(Sens sens, String adresse, long octetsParSeconde) {
+        String cle = normaliser(adresse);
+        if (octetsParSeconde <= 0) {
+            parPeer.get(sens).remove(cle);
+        } else {
+            parPeer.get(sens).computeIfAbsent(cle, k -> new SeauJetons(0)).setDebit(octetsParSeconde);
+        }
+    }
+
+    long getDebitPeer(Sens sens, String adresse) {
+        SeauJetons seau = parPeer.get(sens).get(normaliser(adresse));
+        return seau != null ? seau.getDebit() : 0;
+    }
+
+    /**
+     * Adresse IP d'un hôte, pour que "localhost" et "127.0.0.1" partagent le
+     * même seau
+     */
+    private static String normaliser(String adresse) {
+        try {
+            return InetAddress.getByName(adresse).getHostAddress();
+        } catch (UnknownHostException e) {
+            return adresse;
+        }
+    }
+}
@@ -14,16 +14,28 @@ public class Metadata {
     private final long taille;
     private final String checksum;
     private final long timestamp; // Ajout pour détecter les modifications
+    private final String racineMerkle; // "" si inconnue (peer en version 1)
+    private final int tailleBloc;
+    private final Hachage hachageRapide; // null si inconnu (peer en version 1 ou 2)
     
     // Magic bytes pour vérifier l'intégrité de la sérialisation
     private static final int MAGIC_BYTES = 0x4D455441; // "META" en hex
-    private static final int VERSION = 1;
+    // Version 2: racine de Merkle et taille de bloc; version 3: hash rapide.
+    // Les versions 1 et 2 restent lues.
+    static final int VERSION = 3;
+    // Pour les peers qui ne négocient pas de hash rapide
+    static final int VERSION_SANS_HACHAGE_RAPIDE = 2;
+    // Seule version lue par les peers qui n'annoncent rien (LIST texte ou sans payload)
+    static final int VERSION_INITIALE = 1;
 
     public Metadata(String nom, long taille, String checksum) {
         this.nom = nom != null ? nom : "";
         this.taille = taille;
         this.checksum = checksum != null ? checksum : "";
         this.timestamp = System.currentTimeMillis();
+        this.racineMerkle = "";
+        this.tailleBloc = 0;
+        this.hachageRapide = null;
     }
 
     // Version avec timestamp custom
@@ -32,6 +44,32 @@ public class Metadata {
         this.taille = taille;
         this.checksum = checksum != null ? checksum : "";
         this.timestamp = timestamp;
+        this.racineMerkle = "";
+        this.tailleBloc = 0;
+        this.hachageRapide = null;
+    }
+
+    // Version avec la racine de Merkle des blocs du fichier
+    public Metadata(String nom, long taille, String checksum, long timestamp, String racineMerkle, int tailleBloc) {
+        this.nom = nom != null ? nom : "";
+        this.taille = taille;
+        this.checksum = checksum != null ? checksum : "";
+        this.timestamp = timestamp;
+        this.racineMerkle = racineMerkle != null ? racineMerkle : "";
+        this.tailleBloc = tailleBloc;
+        this.hachageRapide = null;
+    }
+
+    // Version avec le hash rapide du contenu, connu même d'un fichier en attente
+    public Metadata(String nom, long taille, String checksum, long timestamp, String racineMerkle, int tailleBloc,
+            Hachage hachageRapide) {
+        this.nom = nom != null ? nom : "";
+        this.taille = taille;
+        this.checksum = checksum != null ? checksum : "";
+        this.timestamp = timestamp;
+        this.racineMerkle = racineMerkle != null ? racineMerkle : "";
+        this.tailleBloc = tailleBloc;
+        this.hachageRapide = hachageRapide;
     }
 
     // Getters existants + nouveau
@@ -39,16 +77,46 @@ public class Metadata {
     public long getTaille() { return taille; }
     public String getChecksum() { return checksum; }
     public long getTimestamp() { return timestamp; }
+    public String getRacineMerkle() { return racineMerkle; }
+    public int getTailleBloc() { return tailleBloc; }
+    public Hachage getHachageRapide() { return hachageRapide; }
+
+    /**
+     * Fichier annoncé avant d'avoir été haché par son peer: ni checksum ni
+     * racine, le peer les calcule en arrière-plan
+     */
+    public boolean estEnAttente() {
+        return checksum.isEmpty();
+    }
+
+    /**
+     * Les blocs du fichier peuvent être vérifiés un par un
+     */
+    public boolean aRacineMerkle() {
+        return !racineMerkle.isEmpty() && tailleBloc > 0;
+    }
 
     /**
      * Sérialisation améliorée avec vérification d'intégrité
-     * Format: [MAGIC(4)][VERSION(4)][NOM_LEN(4)][NOM][TAILLE(8)][CHECKSUM_LEN(4)][CHECKSUM][TIMESTAMP(8)][CRC32(4)]
+     * Format: [MAGIC(4)][VERSION(4)][NOM_LEN(4)][NOM][TAILLE(8)][CHECKSUM_LEN(4)][CHECKSUM][TIMESTAMP(8)]
+     * [RACINE_LEN(4)][RACINE][TAILLE_BLOC(4)][ALGO(4)][VALEUR_LEN(4)][VALEUR][CRC32(4)], ALGO valant 0
+     * sans hash rapide; sans hash rapide en version 2, ni racine ni taille de bloc en version 1
      */
     public byte[] serialiser() throws IOException {
+        return serialiser(VERSION);
+    }
+
+    /**
+     * Sérialisation lisible par un peer qui ne connaît que version
+     */
+    public byte[] serialiser(int version) throws IOException {
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Version non supportée: " + version);
+        }
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
             // Magic bytes et version
             writeInt(bos, MAGIC_BYTES);
-            writeInt(bos, VERSION);
+            writeInt(bos, version);
             
             // Données
             byte[] nomBytes = nom.getBytes(StandardCharsets.UTF_8);
@@ -63,6 +131,21 @@ public class Metadata {
             
             writeLong(bos, timestamp);
             
+            if (version >= 2) {
+                byte[] racineBytes = racineMerkle.getBytes(StandardCharsets.UTF_8);
+                writeInt(bos, racineBytes.length);
+                bos.write(racineBytes);
+                writeInt(bos, tailleBloc);
+            }
+            
+            if (version >= 3) {
+                byte[] valeurBytes = hachageRapide != null
+                        ? hachageRapide.getValeur().getBytes(StandardCharsets.UTF_8) : new byte[0];
+                writeInt(bos, hachageRapide != null ? hachageRapide.getAlgorithme().getId() : 0);
+                writeInt(bos, valeurBytes.length);
+                bos.write(valeurBytes);
+            }
+            
             // Calculer CRC32 des données
             byte[] dataBytes = bos.toByteArray();
             CRC32 crc = new CRC32();
@@ -90,7 +173,7 @@ public class Metadata {
             
             // Vérifier version
             int version = readInt(bis);
-            if (version != VERSION) {
+            if (version < 1 || version > VERSION) {
                 throw new IOException("Version non supportée: " + version);
             }
             
@@ -132,8 +215,42 @@ public class Metadata {
             String checksum = new String(checksumBytes, StandardCharsets.UTF_8);
             
             long timestamp = readLong(bis);
+            if (version == 1) {
+                return new Metadata(nom, taille, checksum, timestamp);
+            }
+            
+            int racineLen = readInt(bis);
+            if (racineLen < 0 || racineLen > 1000) {
+                throw new IOException("Longueur de racine invalide: " + racineLen);
+            }
+            byte[] racineBytes = new byte[racineLen];
+            if (bis.read(racineBytes) != racineLen) {
+                throw new IOException("Impossible de lire la racine complète");
+            }
+            int tailleBloc = readInt(bis);
+            if (tailleBloc < 0) {
+                throw new IOException("Taille de bloc invalide: " + tailleBloc);
+            }
+            String racine = new String(racineBytes, StandardCharsets.UTF_8);
+            if (version == 2) {
+                return new Metadata(nom, taille, checksum, timestamp, racine, tailleBloc);
+            }
+            
+            int algorithmeId = readInt(bis);
+            int valeurLen = readInt(bis);
+            if (valeurLen < 0 || valeurLen > 1000) {
+                throw new IOException("Longueur de hash rapide invalide: " + valeurLen);
+            }
+            byte[] valeurBytes = new byte[valeurLen];
+            if (bis.read(valeurBytes) != valeurLen) {
+                throw new IOException("Impossible de lire le hash rapide complet");
+            }
+            // Algorithme inconnu (peer plus récent): le hash est ignoré
+            AlgorithmeHachage algorithme = AlgorithmeHachage.parId(algorithmeId);
+            Hachage hachageRapide = algorithme != null
+                    ? new Hachage(algorithme, new String(valeurBytes, StandardCharsets.UTF_8)) : null;
             
-            return new Metadata(nom, taille, checksum, timestamp);
+            return new Metadata(nom, taille, checksum, timestamp, racine, tailleBloc, hachageRapide);
         }
     }
 
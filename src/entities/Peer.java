@@ -3,10 +3,16 @@ package entities;
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -18,34 +24,152 @@ public class Peer {
     private final int portEcoute;
     private final File dossierPartage;
     private final FileManager fileManager;
-    private final Object fileLock = new Object();
+    private final VerrousFichiers verrousFichiers = new VerrousFichiers();
+    private final LimiteurDebit limiteurDebit = new LimiteurDebit();
+    private final ControleAdmission controleAdmission = new ControleAdmission(
+            Integer.getInteger("p2p.maxConnexions", 512),
+            Integer.getInteger("p2p.maxTransferts", 32),
+            Integer.getInteger("p2p.maxRequetesControle", 64));
     // Gestion des connexions réseau
     private final List<PeerInfo> peersConnus = new CopyOnWriteArrayList<>();
     private final Map<String, List<Metadata>> cacheFichiersPeers = new ConcurrentHashMap<>();
+    private final PoolConnexions poolConnexions = new PoolConnexions();
     private ServerSocket serverSocket;
+    private ServeurNio serveurNio;
+    private DecouverteReseau decouverte;
+    // Version du catalogue local, incrémentée quand le dossier partagé change
+    private final AtomicLong versionCatalogue = new AtomicLong(1);
+    private long signatureCatalogue;
+    private long dernierBalayageCatalogue;
+    private final ModeServeur modeServeur;
     private volatile boolean actif = false;
+    private volatile boolean transfertZeroCopie = Boolean.parseBoolean(
+            System.getProperty("p2p.zeroCopie", "true"));
+    private volatile int fluxParPeer = Math.max(1, Integer.getInteger("p2p.fluxParPeer", 1));
 
     // Pool de threads pour la gestion des tâches
-    private final ExecutorService executorPrincipal = Executors.newCachedThreadPool();
+    private final ModeExecution modeExecution;
+    private final ExecutorService executorPrincipal;
     private final ScheduledExecutorService schedulerMaintenance = Executors.newScheduledThreadPool(3);
+    // Réponses BUSY aux connexions au-delà du plafond
+    private final ExecutorService executorRefus = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_REFUS_EN_ATTENTE));
 
     // Configuration
     private static final long PEER_TIMEOUT_MS = 3000;
+    // Balise de découverte plus fréquente que PEER_TIMEOUT_MS: un peer qui
+    // émet reste actif chez les autres
+    private static final long INTERVALLE_BALISE_MS = 1000;
+    // Balayage du dossier partagé pour les changements faits hors du peer;
+    // ceux du peer incrémentent la version sans attendre
+    private static final long INTERVALLE_BALAYAGE_CATALOGUE_MS = 10_000;
     private static final int SOCKET_TIMEOUT_MS = 5000;
+    // Attente de la première requête d'une connexion refusée, et connexions
+    // refusées en attente de leur BUSY
+    private static final int DELAI_REFUS_MS = 1000;
+    private static final int MAX_REFUS_EN_ATTENTE = 64;
+    private static final int KEEPALIVE_TIMEOUT_MS = 60_000;
     private static final int BUFFER_SIZE = 8192;
+    private static final long TRANCHE_RECEPTION = 4 * 1024 * 1024;
+    // Tranche de copie quand un débit est imposé, pour un lissage fin
+    private static final long TRANCHE_LIMITEE = 64 * 1024;
+    // Tranche de réception quand la progression est écoutée
+    private static final long TRANCHE_SUIVIE = 256 * 1024;
+    private static final int NB_THREADS_IO = Math.max(2, Runtime.getRuntime().availableProcessors());
     // private static final int MAX_RETRY_ATTEMPTS = 3;
+    private static final int MAX_TENTATIVES_OCCUPE = 3;
+    // Relectures des catalogues où un fichier attend son checksum, avant de le télécharger
+    private static final int MAX_RELECTURES_EN_ATTENTE = 5;
+    private static final long DELAI_RELECTURE_EN_ATTENTE_MS = 200;
+    private static final long TAILLE_UPLOAD_MAX = 1_000_000_000L;
+    // Fichier de travail d'une synchronisation différentielle
+    private static final String EXTENSION_DELTA = ".delta" + JournalTelechargement.EXTENSION_PARTIEL;
+    // Fichier de travail d'une copie locale d'un contenu déjà présent
+    private static final String EXTENSION_COPIE = ".copie" + JournalTelechargement.EXTENSION_PARTIEL;
+    // Fichier de travail d'un fichier reçu par GET_MANY, distinct du partiel d'un téléchargement reprenable
+    private static final String EXTENSION_LOT = ".lot" + JournalTelechargement.EXTENSION_PARTIEL;
+    // Fichiers par session d'upload, pour rester sous la taille maximale d'une trame
+    private static final int MAX_FICHIERS_SESSION = 10_000;
+    // Plus grand intervalle lu en mémoire par lireIntervalle
+    private static final long MAX_INTERVALLE_MEMOIRE = 64 * 1024 * 1024;
+    // Taille des pièces du téléchargement en essaim
+    private static final int TAILLE_PIECE = Integer.getInteger("p2p.taillePiece",
+            TelechargementEssaim.TAILLE_PIECE_DEFAUT);
+    // Taille à partir de laquelle un fichier peut être reçu sur plusieurs flux d'un même peer
+    private static final long SEUIL_FLUX_PARALLELES = 4L * TAILLE_PIECE;
     private static final boolean DEBUG_MODE = false;
 
+    /**
+     * Moteur utilisé pour accepter les connexions entrantes
+     */
+    public enum ModeServeur {
+        /** Un thread par connexion acceptée (comportement historique) */
+        BLOQUANT,
+        /** Selector NIO avec un petit pool fixe de threads d'E/S */
+        NIO
+    }
+
+    /**
+     * Threads utilisés pour les requêtes entrantes et les tâches réseau
+     */
+    public enum ModeExecution {
+        /** Pool de threads plateforme (comportement historique) */
+        PLATEFORME,
+        /** Un thread virtuel par tâche (JDK 21+) */
+        VIRTUEL
+    }
+
     public Peer(String pseudo, int portEcoute, String dossierPartage) {
+        this(pseudo, portEcoute, dossierPartage, ModeServeur.BLOQUANT);
+    }
+
+    public Peer(String pseudo, int portEcoute, String dossierPartage, ModeServeur modeServeur) {
+        this(pseudo, portEcoute, dossierPartage, modeServeur, modeExecutionParDefaut());
+    }
+
+    public Peer(String pseudo, int portEcoute, String dossierPartage, ModeServeur modeServeur,
+            ModeExecution modeExecution) {
         this.pseudo = validateString(pseudo, "Pseudo");
         this.portEcoute = validatePort(portEcoute);
         this.dossierPartage = new File(dossierPartage);
+        this.modeServeur = modeServeur != null ? modeServeur : ModeServeur.BLOQUANT;
+        this.modeExecution = modeExecution != null ? modeExecution : ModeExecution.PLATEFORME;
+        this.executorPrincipal = creerExecutorPrincipal(this.modeExecution);
 
         if (!this.dossierPartage.exists()) {
             this.dossierPartage.mkdirs();
         }
 
         this.fileManager = new FileManager(this.dossierPartage.getPath());
+        // Un fichier en cours d'écriture n'est pas haché en arrière-plan
+        this.fileManager.setGardeIndexation(verrousFichiers::tenterLecture);
+        this.fileManager.setApresIndexation(this::catalogueModifie);
+    }
+
+    /**
+     * Mode d'exécution par défaut, surchargeable avec -Dp2p.modeExecution=VIRTUEL
+     */
+    private static ModeExecution modeExecutionParDefaut() {
+        try {
+            return ModeExecution.valueOf(System.getProperty("p2p.modeExecution", "PLATEFORME").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ModeExecution.PLATEFORME;
+        }
+    }
+
+    /**
+     * Crée l'executor principal. Les threads virtuels sont obtenus par
+     * réflexion pour que le projet reste compilable avec un JDK 17.
+     */
+    private ExecutorService creerExecutorPrincipal(ModeExecution mode) {
+        if (mode == ModeExecution.VIRTUEL) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logError("Threads virtuels indisponibles (JDK 21+ requis), repli sur le pool plateforme");
+            }
+        }
+        return Executors.newCachedThreadPool();
     }
 
     /**
@@ -54,19 +178,32 @@ public class Peer {
     public CompletableFuture<Void> demarrer() {
         return CompletableFuture.runAsync(() -> {
             try {
-                serverSocket = new ServerSocket(portEcoute);
-                actif = true;
-
-                // Démarrer le serveur d'écoute
-                executorPrincipal.submit(this::ecouterConnexions);
+                if (modeServeur == ModeServeur.NIO) {
+                    serveurNio = new ServeurNio(this, controleAdmission, portEcoute, NB_THREADS_IO);
+                    serveurNio.demarrer();
+                    actif = true;
+                } else {
+                    // Socket serveur adossé à un canal: les sockets acceptés
+                    // exposent getChannel() pour l'envoi zéro copie
+                    serverSocket = ServerSocketChannel.open().socket();
+                    serverSocket.bind(new InetSocketAddress(portEcoute));
+                    actif = true;
+
+                    // Démarrer le serveur d'écoute
+                    executorPrincipal.submit(this::ecouterConnexions);
+                }
 
                 // Programmer les tâches de maintenance
                 programmerTachesMaintenance();
+                fileManager.lancerIndexation();
 
-                logInfo("Peer '" + pseudo + "' démarré sur le port " + portEcoute);
+                logInfo("Peer '" + pseudo + "' démarré sur le port " + portEcoute
+                        + " (mode " + modeServeur + ", threads " + modeExecution + ")");
 
-                // Découverte initiale différée
-                schedulerMaintenance.schedule(this::decouvriePeers, 1, TimeUnit.SECONDS);
+                // Découverte multicast, balayage TCP des ports locaux à défaut
+                if (!demarrerDecouverte()) {
+                    schedulerMaintenance.schedule(this::decouvriePeers, 1, TimeUnit.SECONDS);
+                }
 
             } catch (IOException e) {
                 logError("Erreur lors du démarrage du peer", e);
@@ -84,10 +221,21 @@ public class Peer {
         actif = false;
 
         // Arrêter les services dans l'ordre
-        shutdownExecutor(schedulerMaintenance, "Scheduler de maintenance", 2);
+        if (decouverte != null) {
+            decouverte.arreter();
+        }
+        // Les tâches de l'executor principal programment encore des annonces
+        // et des mises à jour du cache: le scheduler s'arrête après lui
+        poolConnexions.fermerTout();
         shutdownExecutor(executorPrincipal, "Executor principal", 5);
+        shutdownExecutor(schedulerMaintenance, "Scheduler de maintenance", 2);
+        shutdownExecutor(executorRefus, "Executor des refus", 1);
+        fileManager.arreterIndexation();
 
         // Fermer le socket serveur
+        if (serveurNio != null) {
+            serveurNio.arreter();
+        }
         closeResource(serverSocket, "Socket serveur");
 
         logInfo("Peer '" + pseudo + "' arrêté");
@@ -108,6 +256,14 @@ public class Peer {
         // Mise à jour du cache des fichiers (toutes les 10 secondes)
         schedulerMaintenance.scheduleAtFixedRate(
                 this::mettreAJourCacheComplet, 10, 10, TimeUnit.SECONDS);
+
+        // Hachage des fichiers partagés nouveaux ou modifiés (toutes les 5 secondes)
+        schedulerMaintenance.scheduleAtFixedRate(
+                fileManager::lancerIndexation, 5, 5, TimeUnit.SECONDS);
+
+        // Éviction et vérification des connexions persistantes (toutes les 15 secondes)
+        schedulerMaintenance.scheduleAtFixedRate(
+                poolConnexions::entretenir, 15, 15, TimeUnit.SECONDS);
     }
 
     /**
@@ -119,7 +275,18 @@ public class Peer {
         while (actif && !serverSocket.isClosed()) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                executorPrincipal.submit(() -> traiterRequetePeer(clientSocket));
+                // Admission avant de confier la connexion à un thread: le
+                // plafond borne aussi le nombre de threads de service
+                if (!controleAdmission.admettreConnexion()) {
+                    refuserConnexion(clientSocket);
+                    continue;
+                }
+                try {
+                    executorPrincipal.submit(() -> traiterRequetePeer(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    controleAdmission.libererConnexion();
+                    closeResource(clientSocket, "Connexion refusée");
+                }
             } catch (IOException e) {
                 if (actif) {
                     logError("Erreur lors de l'acceptation d'une connexion", e);
@@ -129,307 +296,911 @@ public class Peer {
     }
 
     /**
-     * Traite une requête d'un peer distant
+     * Traite les requêtes d'un peer distant, sur une connexion déjà admise.
+     * Le premier octet reçu donne la version du protocole: Trame.MAGIC pour
+     * le protocole binaire v2, sinon une commande texte v1. La connexion
+     * reste ouverte pour les requêtes suivantes jusqu'à sa fermeture par le
+     * client, un transfert de fichier ou KEEPALIVE_TIMEOUT_MS d'inactivité.
      */
     private void traiterRequetePeer(Socket clientSocket) {
-        try {
-            clientSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
-
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                    PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-                    InputStream socketIn = clientSocket.getInputStream();
-                    OutputStream socketOut = clientSocket.getOutputStream()) {
-
-                String commande = in.readLine();
-                if (commande == null)
-                    return;
+        try (Socket socket = clientSocket) {
+            socket.setSoTimeout(KEEPALIVE_TIMEOUT_MS);
+            InputStream socketIn = socket.getInputStream();
 
-                logDebug("Requête reçue: " + commande);
-
-                String[] parts = commande.split(" ", 4);
-                String cmd = parts[0].toUpperCase();
+            int premierOctet = socketIn.read();
+            if (premierOctet == -1)
+                return;
 
-                switch (cmd) {
-                    case "PING":
-                        handlePing(out);
-                        break;
-                    case "LIST":
-                        handleListFiles(socketOut);
-                        break;
-                    case "GET":
-                        handleGetFile(parts, socketOut, out);
-                        break;
-                    case "PEERS":
-                        handleGetPeers(socketOut);
-                        break;
-                    case "ANNOUNCE":
-                        handleAnnounce(parts, clientSocket, out);
-                        break;
-                    case "UPLOAD": // NOUVEAU CAS
-                        handleUploadFile(parts, socketIn, out);
-                        break;
-                    default:
-                        out.println("ERREUR: commande inconnue");
-                }
+            if ((byte) premierOctet == Trame.MAGIC) {
+                servirV2(socket, socketIn);
+            } else {
+                servirV1(socket, new BufferedInputStream(new SequenceInputStream(
+                        new ByteArrayInputStream(new byte[] { (byte) premierOctet }), socketIn)));
+            }
+        } catch (SocketTimeoutException e) {
+            logDebug("Connexion inactive fermée");
+        } catch (IOException e) {
+            if (actif) {
+                logError("Erreur lors du traitement d'une requête", e);
+            } else {
+                // Socket fermé ou thread interrompu par arreter()
+                logDebug("Connexion fermée à l'arrêt du peer");
             }
-
         } catch (Exception e) {
             logError("Erreur lors du traitement d'une requête", e);
+        } finally {
+            controleAdmission.libererConnexion();
         }
     }
 
-    // Handlers pour les différentes commandes
-    private void handlePing(PrintWriter out) {
-        out.println("PONG " + pseudo + " " + portEcoute);
-    }
-
-    private void handleListFiles(OutputStream socketOut) {
-        synchronized (fileLock) {
-            try {
-                List<Metadata> metadatas = collecterMetadatasFichiers();
-                byte[] data = serialiserListeMetadata(metadatas);
-                envoyerDonneesBinaires(socketOut, data);
-            } catch (Exception e) {
-                logError("Erreur lors de l'envoi de la liste des fichiers", e);
-                envoyerDonneesBinaires(socketOut, new byte[0]);
-            }
+    /**
+     * Trop de connexions: BUSY répondu à la première requête puis fermeture,
+     * par un seul thread et une file bornée. Au-delà, la connexion est
+     * fermée sans réponse.
+     */
+    private void refuserConnexion(Socket clientSocket) {
+        try {
+            executorRefus.execute(() -> {
+                try (Socket socket = clientSocket) {
+                    socket.setSoTimeout(DELAI_REFUS_MS);
+                    InputStream socketIn = socket.getInputStream();
+                    int premierOctet = socketIn.read();
+                    if (premierOctet == -1)
+                        return;
+
+                    if ((byte) premierOctet == Trame.MAGIC) {
+                        Trame requete = Trame.lire(socketIn, true);
+                        if (requete != null) {
+                            requete.occupe(controleAdmission.delaiReessai(false)).ecrire(socket.getOutputStream());
+                        }
+                    } else {
+                        lireLigne(new BufferedInputStream(new SequenceInputStream(
+                                new ByteArrayInputStream(new byte[] { (byte) premierOctet }), socketIn)));
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                        out.println("BUSY " + controleAdmission.delaiReessai(false));
+                    }
+                } catch (IOException e) {
+                    logDebug("Connexion refusée fermée: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closeResource(clientSocket, "Connexion refusée");
         }
     }
 
-    private void handleGetFile(String[] parts, OutputStream socketOut, PrintWriter out) {
-        if (parts.length < 2) {
-            out.println("ERREUR: commande GET invalide");
-            return;
-        }
+    private void servirV1(Socket socket, InputStream socketIn) throws IOException {
+        OutputStream socketOut = socket.getOutputStream();
 
-        String nomFichier = parts[1];
-        long offset = parts.length >= 3 ? parseOffset(parts[2]) : 0;
+        while (actif) {
+            socket.setSoTimeout(KEEPALIVE_TIMEOUT_MS);
+            String commande = lireLigne(socketIn);
+            if (commande.isEmpty())
+                return;
 
-        envoyerFichier(nomFichier, socketOut, out, offset);
-    }
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            traiterCommande(commande, socket.getInetAddress(), socketIn, socketOut, socket.getChannel());
 
-    private void handleGetPeers(OutputStream socketOut) {
-        try {
-            List<PeerInfo> peersActifs = filtrerPeersActifs();
-            byte[] data = PeerInfo.serialiserListe(peersActifs);
-            envoyerDonneesBinaires(socketOut, data);
-        } catch (Exception e) {
-            logError("Erreur lors de l'envoi de la liste des peers", e);
-            envoyerDonneesBinaires(socketOut, new byte[0]);
+            if (estCommandeTransfert(commande))
+                return;
         }
     }
 
-    private void handleAnnounce(String[] parts, Socket clientSocket, PrintWriter out) {
-        if (parts.length < 3) {
-            out.println("ERREUR: commande ANNOUNCE invalide");
-            return;
-        }
+    /**
+     * Sert les trames v2 d'une connexion. Le flux n'est pas bufferisé pour que
+     * le contenu brut d'un UPLOAD reste lisible directement sur le socket.
+     */
+    private void servirV2(Socket socket, InputStream socketIn) throws IOException {
+        OutputStream socketOut = socket.getOutputStream();
+        boolean magicDejaLu = true;
+
+        while (actif) {
+            socket.setSoTimeout(KEEPALIVE_TIMEOUT_MS);
+            Trame requete = Trame.lire(socketIn, magicDejaLu);
+            magicDejaLu = false;
+            if (requete == null)
+                return;
 
-        try {
-            String pseudoAnnonce = parts[1];
-            int portAnnonce = Integer.parseInt(parts[2]);
-            String adresseAnnonce = clientSocket.getInetAddress().getHostAddress();
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            traiterTrame(requete, socket.getInetAddress(), socketIn, socketOut, socket.getChannel());
 
-            PeerInfo nouveauPeer = new PeerInfo(adresseAnnonce, portAnnonce, pseudoAnnonce);
-            if (ajouterPeerSilencieux(nouveauPeer)) {
-                out.println("OK PEER_ADDED");
-            } else {
-                out.println("OK PEER_UPDATED");
-            }
-        } catch (Exception e) {
-            logError("Erreur lors de l'annonce", e);
-            out.println("ERREUR: données invalides");
+            if (Trame.estTransfert(requete.getOpcode()))
+                return;
         }
     }
 
     /**
-     * Découverte automatique des peers sur le réseau local
+     * Aiguille une commande texte vers son handler. Utilisé par les deux
+     * moteurs (bloquant et NIO).
      */
-    private void decouvriePeers() {
-        logInfo("Démarrage de la découverte de peers...");
-
-        CompletableFuture.runAsync(() -> {
-            int peersInitiaux = peersConnus.size();
-            List<CompletableFuture<Void>> taches = new ArrayList<>();
-
-            // Scanner les ports de manière asynchrone
-            for (int port = 8000; port <= 8100; port++) {
-                if (port == portEcoute)
-                    continue;
+    private void traiterCommande(String commande, InetAddress adresseDistante,
+            InputStream socketIn, OutputStream socketOut, SocketChannel canal) {
+        PrintWriter out = new PrintWriter(socketOut, true);
 
-                final int finalPort = port;
-                CompletableFuture<Void> tache = CompletableFuture.runAsync(() -> {
-                    if (testerConnexionPeer("localhost", finalPort)) {
-                        ajouterPeerSilencieux(new PeerInfo("localhost", finalPort, ""));
-                    }
-                }, executorPrincipal);
+        logDebug("Requête reçue: " + commande);
 
-                taches.add(tache);
-            }
+        String[] parts = commande.split(" ", 4);
+        String cmd = parts[0].toUpperCase();
 
-            // Attendre toutes les tâches avec timeout
-            CompletableFuture<Void> toutesLesTaches = CompletableFuture.allOf(
-                    taches.toArray(new CompletableFuture[0]));
+        // PING échappe au contrôle d'admission pour rester un test de vie fiable
+        boolean soumise = !cmd.equals("PING");
+        boolean transfert = estCommandeTransfert(commande);
+        if (soumise && !controleAdmission.admettre(transfert)) {
+            out.println("BUSY " + controleAdmission.delaiReessai(transfert));
+            return;
+        }
 
-            try {
-                toutesLesTaches.get(10, TimeUnit.SECONDS);
-            } catch (Exception e) {
-                logError("Timeout lors de la découverte", e);
+        try {
+            traiterCommandeAdmise(cmd, parts, adresseDistante, socketIn, socketOut, canal, out);
+        } finally {
+            if (soumise) {
+                controleAdmission.liberer(transfert);
             }
+        }
+        out.flush();
+    }
 
-            int nouveauxPeers = peersConnus.size() - peersInitiaux;
-            if (nouveauxPeers > 0) {
-                logInfo("Découverte terminée: " + nouveauxPeers + " nouveau(x) peer(s)");
-            }
-        }, executorPrincipal);
+    private void traiterCommandeAdmise(String cmd, String[] parts, InetAddress adresseDistante,
+            InputStream socketIn, OutputStream socketOut, SocketChannel canal, PrintWriter out) {
+        switch (cmd) {
+            case "PING":
+                handlePing(out);
+                break;
+            case "LIST":
+                handleListFiles(socketOut);
+                break;
+            case "GET":
+                handleGetFile(parts, adresseDistante, socketOut, canal, out);
+                break;
+            case "PEERS":
+                handleGetPeers(socketOut);
+                break;
+            case "ANNOUNCE":
+                handleAnnounce(parts, adresseDistante, out);
+                break;
+            case "UPLOAD": // NOUVEAU CAS
+                handleUploadFile(parts, adresseDistante, socketIn, out);
+                break;
+            default:
+                out.println("ERREUR: commande inconnue");
+        }
     }
 
     /**
-     * Synchronisation silencieuse avec les peers connus
+     * Aiguille une trame v2 vers son handler. Utilisé par les deux moteurs
+     * (bloquant et NIO).
      */
-    private void synchroniserPeersSilencieux() {
-        if (!actif)
+    private void traiterTrame(Trame requete, InetAddress adresseDistante,
+            InputStream socketIn, OutputStream socketOut, SocketChannel canal) throws IOException {
+        logDebug("Trame reçue: opcode 0x" + Integer.toHexString(requete.getOpcode() & 0xFF));
+
+        boolean soumise = requete.getOpcode() != Trame.PING;
+        boolean transfert = Trame.estTransfert(requete.getOpcode());
+        if (soumise && !controleAdmission.admettre(transfert)) {
+            requete.occupe(controleAdmission.delaiReessai(transfert)).ecrire(socketOut);
             return;
+        }
 
-        Set<PeerInfo> nouveauxPeers = Collections.synchronizedSet(new HashSet<>());
-        List<CompletableFuture<Void>> tachesSynchronisation = new ArrayList<>();
+        try {
+            traiterTrameAdmise(requete, adresseDistante, socketIn, socketOut, canal);
+        } finally {
+            if (soumise) {
+                controleAdmission.liberer(transfert);
+            }
+        }
+    }
 
-        for (PeerInfo peer : new ArrayList<>(peersConnus)) {
-            CompletableFuture<Void> tache = CompletableFuture.runAsync(() -> {
-                try {
-                    annoncerAuPeer(peer);
-                    Set<PeerInfo> peersDuPeer = recupererPeersDuPeer(peer);
-                    nouveauxPeers.addAll(peersDuPeer);
-                } catch (Exception e) {
-                    logDebug("Erreur de sync avec " + peer + ": " + e.getMessage());
+    private void traiterTrameAdmise(Trame requete, InetAddress adresseDistante,
+            InputStream socketIn, OutputStream socketOut, SocketChannel canal) throws IOException {
+        Trame.Lecture lecture = requete.lecture();
+        try {
+            switch (requete.getOpcode()) {
+                case Trame.PING:
+                    requete.ok(new Trame.Ecriture().chaine(pseudo).entier(portEcoute).toBytes())
+                            .ecrire(socketOut);
+                    break;
+                case Trame.LIST:
+                    requete.ok(donneesListeFichiers(versionListeNegociee(lecture))).ecrire(socketOut);
+                    break;
+                case Trame.PEERS:
+                    requete.ok(donneesListePeers()).ecrire(socketOut);
+                    break;
+                case Trame.ANNOUNCE: {
+                    String statut = enregistrerAnnonce(lecture.chaine(), lecture.entier(), adresseDistante);
+                    requete.ok(new Trame.Ecriture().chaine(statut).toBytes()).ecrire(socketOut);
+                    break;
                 }
-            }, executorPrincipal);
-
-            tachesSynchronisation.add(tache);
-        }
+                case Trame.GET: {
+                    String nomFichier = lecture.chaine();
+                    long offset = lecture.longue();
+                    envoyerFichier(nomFichier, socketOut, canal,
+                            limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, adresseDistante),
+                            transfertServi(Transfert.Type.UPLOAD, nomFichier, adresseDistante),
+                            new ReponseV2(requete, socketOut), offset, -1);
+                    break;
+                }
+                case Trame.GET_RANGE: {
+                    String nomFichier = lecture.chaine();
+                    long offset = lecture.longue();
+                    long longueur = lecture.longue();
+                    if (!estNomFichierValide(nomFichier)) {
+                        requete.erreur("fichier introuvable").ecrire(socketOut);
+                        break;
+                    }
+                    if (longueur < 0) {
+                        requete.erreur("longueur invalide: " + longueur).ecrire(socketOut);
+                        break;
+                    }
+                    envoyerFichier(nomFichier, socketOut, canal,
+                            limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, adresseDistante),
+                            transfertServi(Transfert.Type.UPLOAD, nomFichier, adresseDistante),
+                            new ReponseIntervalle(requete, socketOut), offset, longueur);
+                    break;
+                }
+                case Trame.UPLOAD: {
+                    String nomFichier = lecture.chaine();
+                    long tailleFichier = lecture.longue();
+                    String checksumAttendu = lecture.chaine();
+                    recevoirUpload(nomFichier, tailleFichier, checksumAttendu, socketIn, canal,
+                            limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, adresseDistante),
+                            transfertServi(Transfert.Type.TELECHARGEMENT, nomFichier, adresseDistante),
+                            new ReponseV2(requete, socketOut));
+                    break;
+                }
+                case Trame.UPLOAD_SESSION:
+                    recevoirSessionUpload(requete, adresseDistante, socketIn, socketOut, canal);
+                    break;
+                case Trame.DELTA: {
+                    String nomFichier = lecture.chaine();
+                    String checksumLocal = lecture.chaine();
+                    envoyerDelta(requete, nomFichier, checksumLocal, DeltaFichier.Signatures.lire(lecture),
+                            socketOut, limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, adresseDistante));
+                    break;
+                }
+                case Trame.CHUNK_HASHES:
+                    envoyerHashesBlocs(requete, lecture.chaine(), socketOut);
+                    break;
+                case Trame.GET_MANY: {
+                    int nbFichiers = lecture.entier();
+                    if (nbFichiers < 0 || nbFichiers > MAX_FICHIERS_SESSION) {
+                        requete.erreur("nombre de fichiers invalide: " + nbFichiers).ecrire(socketOut);
+                        break;
+                    }
+                    List<String> noms = new ArrayList<>();
+                    for (int i = 0; i < nbFichiers; i++) {
+                        noms.add(lecture.chaine());
+                    }
 
-        // Attendre toutes les synchronisations avec timeout
-        CompletableFuture.allOf(tachesSynchronisation.toArray(new CompletableFuture[0]))
-                .orTimeout(15, TimeUnit.SECONDS)
-                .whenComplete((result, throwable) -> {
-                    // Ajouter les nouveaux peers découverts
-                    for (PeerInfo nouveauPeer : nouveauxPeers) {
-                        if (!estPeerLocal(nouveauPeer)) {
-                            ajouterPeerSilencieux(nouveauPeer);
-                        }
+                    // Une réponse par nom, contenus à la suite sur la même connexion
+                    requete.ok(new Trame.Ecriture().entier(nbFichiers).toBytes()).ecrire(socketOut);
+                    LimiteurDebit.Flux flux = limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, adresseDistante);
+                    ReponseV2 reponse = new ReponseV2(requete, socketOut);
+                    for (String nomFichier : noms) {
+                        if (!estNomFichierValide(nomFichier)) {
+                            reponse.erreur("nom de fichier invalide");
+                        } else if (!envoyerFichier(nomFichier, socketOut, canal, flux,
+                                transfertServi(Transfert.Type.UPLOAD, nomFichier, adresseDistante), reponse, 0, -1))
+                            break;
                     }
-                });
+                    break;
+                }
+                default:
+                    requete.erreur("opcode inconnu").ecrire(socketOut);
+            }
+        } catch (IOException e) {
+            logError("Erreur lors du traitement d'une trame", e);
+            requete.erreur("requête invalide: " + e.getMessage()).ecrire(socketOut);
+        }
     }
 
     /**
-     * Nettoyage des peers inactifs
+     * Réponses d'un transfert de fichier, indépendantes de la version du
+     * protocole
      */
-    private void nettoyerPeersInactifs() {
-        if (!actif)
-            return;
-
-        List<PeerInfo> peersASupprimer = peersConnus.stream()
-                .filter(peer -> !peer.estActif(PEER_TIMEOUT_MS))
-                .filter(peer -> !testerConnexionPeer(peer.getAdresse(), peer.getPort()))
-                .collect(Collectors.toList());
+    private interface ReponseTransfert {
+        /** GET: checksum et taille totale, suivis des longueur octets demandés */
+        void entete(String checksum, long taille, long longueur) throws IOException;
 
-        if (!peersASupprimer.isEmpty()) {
-            peersConnus.removeAll(peersASupprimer);
+        /** UPLOAD: prêt à recevoir le contenu */
+        void pret() throws IOException;
 
-            // Nettoyer le cache
-            peersASupprimer.forEach(peer -> {
-                String cle = peer.getAdresse() + ":" + peer.getPort();
-                cacheFichiersPeers.remove(cle);
-            });
+        /** UPLOAD: fichier reçu et vérifié */
+        void succes() throws IOException;
 
-            logDebug("Nettoyé " + peersASupprimer.size() + " peer(s) inactif(s)");
-        }
+        void erreur(String message) throws IOException;
     }
 
     /**
-     * Mise à jour complète du cache des fichiers
+     * Réponses texte du protocole v1
      */
-    public void mettreAJourCacheComplet() {
-        if (!actif)
-            return;
+    private static class ReponseV1 implements ReponseTransfert {
+        private final PrintWriter out;
 
-        List<CompletableFuture<Void>> tachesMiseAJour = peersConnus.stream()
-                .filter(peer -> peer.estActif(PEER_TIMEOUT_MS))
-                .map(peer -> CompletableFuture.runAsync(() -> mettreAJourCachePeer(peer), executorPrincipal))
-                .collect(Collectors.toList());
+        ReponseV1(PrintWriter out) {
+            this.out = out;
+        }
 
-        // Exécuter toutes les mises à jour en parallèle avec timeout
-        CompletableFuture.allOf(tachesMiseAJour.toArray(new CompletableFuture[0]))
-                .orTimeout(20, TimeUnit.SECONDS)
-                .whenComplete((result, throwable) -> {
-                    if (throwable != null) {
-                        logDebug("Timeout lors de la mise à jour du cache");
-                    }
-                });
-    }
+        public void entete(String checksum, long taille, long longueur) {
+            out.println(checksum);
+            out.println(taille);
+            out.flush();
+        }
 
-    /**
-     * Test de connexion à un peer
-     */
-    private boolean testerConnexionPeer(String adresse, int port) {
-        try (Socket socket = new Socket()) {
-            socket.connect(new InetSocketAddress(adresse, port), 2000);
-            socket.setSoTimeout(2000);
+        public void pret() {
+            out.println("READY");
+            out.flush();
+        }
 
-            try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        public void succes() {
+            out.println("SUCCESS");
+        }
 
-                out.println("PING");
-                String reponse = in.readLine();
-                return reponse != null && reponse.startsWith("PONG");
-            }
-        } catch (IOException e) {
-            return false;
+        public void erreur(String message) {
+            out.println("ERREUR: " + message);
         }
     }
 
     /**
-     * Annonce ce peer à un peer distant
+     * Réponses en trames v2, portant le request id de la requête
      */
-    private void annoncerAuPeer(PeerInfo peer) throws IOException {
-        try (Socket socket = new Socket(peer.getAdresse(), peer.getPort())) {
-            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+    private static class ReponseV2 implements ReponseTransfert {
+        private final Trame requete;
+        private final OutputStream out;
 
-            try (PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        ReponseV2(Trame requete, OutputStream out) {
+            this.requete = requete;
+            this.out = out;
+        }
 
-                out.println("ANNOUNCE " + pseudo + " " + portEcoute);
-                String reponse = in.readLine();
+        public void entete(String checksum, long taille, long longueur) throws IOException {
+            requete.ok(new Trame.Ecriture().chaine(checksum).longue(taille).toBytes()).ecrire(out);
+        }
 
-                if (reponse != null && reponse.startsWith("OK")) {
-                    peer.updatePing();
-                }
-            }
+        public void pret() throws IOException {
+            requete.ok(new byte[0]).ecrire(out);
+        }
+
+        public void succes() throws IOException {
+            requete.ok(new byte[0]).ecrire(out);
+        }
+
+        public void erreur(String message) throws IOException {
+            requete.erreur(message).ecrire(out);
         }
     }
 
+    /**
+     * Réponses à GET_RANGE: l'en-tête annonce en plus la longueur servie
+     */
+    private static class ReponseIntervalle extends ReponseV2 {
+        private final Trame requete;
+        private final OutputStream out;
+
+        ReponseIntervalle(Trame requete, OutputStream out) {
+            super(requete, out);
+            this.requete = requete;
+            this.out = out;
+        }
+
+        @Override
+        public void entete(String checksum, long taille, long longueur) throws IOException {
+            requete.ok(new Trame.Ecriture().chaine(checksum).longue(taille).longue(longueur).toBytes()).ecrire(out);
+        }
+    }
+
+    /**
+     * Suivi d'un transfert servi à un peer distant (non exposé)
+     */
+    private Transfert transfertServi(Transfert.Type type, String nomFichier, InetAddress adresseDistante) {
+        return new Transfert(type, nomFichier, new PeerInfo(adresseDistante.getHostAddress(), 0, ""));
+    }
+
+    /**
+     * Signale une erreur de transfert; le socket peut déjà être fermé
+     */
+    private void repondreErreur(ReponseTransfert reponse, String message) {
+        try {
+            reponse.erreur(message);
+        } catch (IOException e) {
+            logDebug("Erreur non transmise: " + message);
+        }
+    }
+
+    /**
+     * Indique si une commande occupe la connexion pour un transfert de fichier
+     * (et doit donc quitter le sélecteur NIO pour un thread dédié)
+     */
+    static boolean estCommandeTransfert(String commande) {
+        String cmd = commande.split(" ", 2)[0].toUpperCase();
+        return cmd.equals("GET") || cmd.equals("UPLOAD");
+    }
+
+    /**
+     * Exécute une commande du plan de contrôle pour le moteur NIO et renvoie
+     * la réponse complète à écrire sur le canal
+     */
+    byte[] repondreCommande(String commande, InetAddress adresseDistante) {
+        ByteArrayOutputStream reponse = new ByteArrayOutputStream();
+        try {
+            traiterCommande(commande, adresseDistante, InputStream.nullInputStream(), reponse, null);
+        } catch (Exception e) {
+            logError("Erreur lors du traitement d'une requête", e);
+        }
+        return reponse.toByteArray();
+    }
+
+    /**
+     * Équivalent v2 de repondreCommande pour le moteur NIO
+     */
+    byte[] repondreTrame(Trame requete, InetAddress adresseDistante) {
+        ByteArrayOutputStream reponse = new ByteArrayOutputStream();
+        try {
+            traiterTrame(requete, adresseDistante, InputStream.nullInputStream(), reponse, null);
+        } catch (Exception e) {
+            logError("Erreur lors du traitement d'une trame", e);
+        }
+        return reponse.toByteArray();
+    }
+
+    /**
+     * Reprend en mode bloquant une connexion NIO qui porte un transfert. La
+     * place de la connexion dans le contrôle d'admission est rendue à la fin
+     * du transfert.
+     *
+     * @param dejaLu octets reçus par le sélecteur après la ligne de commande
+     */
+    void traiterTransfert(SocketChannel canal, String commande, byte[] dejaLu) {
+        executorPrincipal.submit(() -> {
+            try (Socket socket = canal.socket()) {
+                socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+                InputStream socketIn = socket.getInputStream();
+                if (dejaLu.length > 0) {
+                    socketIn = new SequenceInputStream(new ByteArrayInputStream(dejaLu), socketIn);
+                }
+                traiterCommande(commande, socket.getInetAddress(), socketIn, socket.getOutputStream(), canal);
+            } catch (Exception e) {
+                logError("Erreur lors du traitement d'un transfert", e);
+            } finally {
+                controleAdmission.libererConnexion();
+            }
+        });
+    }
+
+    /**
+     * Équivalent v2 de traiterTransfert pour une trame GET ou UPLOAD
+     */
+    void traiterTransfert(SocketChannel canal, Trame requete, byte[] dejaLu) {
+        executorPrincipal.submit(() -> {
+            try (Socket socket = canal.socket()) {
+                socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+                InputStream socketIn = socket.getInputStream();
+                if (dejaLu.length > 0) {
+                    socketIn = new SequenceInputStream(new ByteArrayInputStream(dejaLu), socketIn);
+                }
+                // Octets déjà lus par le sélecteur: le canal seul ne suffit plus
+                traiterTrame(requete, socket.getInetAddress(), socketIn, socket.getOutputStream(),
+                        dejaLu.length > 0 ? null : canal);
+            } catch (Exception e) {
+                logError("Erreur lors du traitement d'un transfert", e);
+            } finally {
+                controleAdmission.libererConnexion();
+            }
+        });
+    }
+
+    /**
+     * Version des métadonnées d'un LIST. Le demandeur envoie la plus récente
+     * qu'il lit et les algorithmes rapides qu'il accepte: [VERSION(4)][NB(4)]
+     * puis NB fois [ALGO(4)]. La version 3 n'est servie que si l'un d'eux est
+     * l'algorithme rapide de ce peer. Un payload vide vient d'un peer qui ne
+     * lit que la version 1.
+     */
+    private static int versionListeNegociee(Trame.Lecture lecture) throws IOException {
+        if (!lecture.aEncore())
+            return Metadata.VERSION_INITIALE;
+        int version = Math.max(Metadata.VERSION_INITIALE, Math.min(lecture.entier(), Metadata.VERSION));
+        if (version < Metadata.VERSION)
+            return version;
+        int nombre = lecture.entier();
+        if (nombre < 0 || nombre > 64) {
+            throw new IOException("Nombre d'algorithmes invalide: " + nombre);
+        }
+        for (int i = 0; i < nombre; i++) {
+            if (lecture.entier() == FileManager.ALGORITHME_RAPIDE.getId())
+                return Metadata.VERSION;
+        }
+        return Metadata.VERSION_SANS_HACHAGE_RAPIDE;
+    }
+
+    /**
+     * Payload d'un LIST: la version de métadonnées et l'algorithme rapide
+     * que ce peer sait lire
+     */
+    private static byte[] demandeListe() {
+        return new Trame.Ecriture()
+                .entier(Metadata.VERSION)
+                .entier(1)
+                .entier(FileManager.ALGORITHME_RAPIDE.getId())
+                .toBytes();
+    }
+
+    // Handlers pour les différentes commandes
+    private void handlePing(PrintWriter out) {
+        out.println("PONG " + pseudo + " " + portEcoute);
+    }
+
+    private void handleListFiles(OutputStream socketOut) {
+        envoyerDonneesBinaires(socketOut, donneesListeFichiers(Metadata.VERSION_INITIALE));
+    }
+
+    /**
+     * Catalogue en métadonnées de la version lue par le demandeur
+     */
+    private byte[] donneesListeFichiers(int versionMetadata) {
+        try {
+            List<Metadata> metadatas = collecterMetadatasFichiers();
+            return serialiserListeMetadata(metadatas, versionMetadata);
+        } catch (Exception e) {
+            logError("Erreur lors de l'envoi de la liste des fichiers", e);
+            return new byte[0];
+        }
+    }
+
+    private void handleGetFile(String[] parts, InetAddress adresseDistante, OutputStream socketOut,
+            SocketChannel canal, PrintWriter out) {
+        if (parts.length < 2) {
+            out.println("ERREUR: commande GET invalide");
+            return;
+        }
+
+        String nomFichier = parts[1];
+        long offset = parts.length >= 3 ? parseOffset(parts[2]) : 0;
+
+        envoyerFichier(nomFichier, socketOut, canal,
+                limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, adresseDistante),
+                transfertServi(Transfert.Type.UPLOAD, nomFichier, adresseDistante), new ReponseV1(out), offset, -1);
+    }
+
+    private void handleGetPeers(OutputStream socketOut) {
+        envoyerDonneesBinaires(socketOut, donneesListePeers());
+    }
+
+    private byte[] donneesListePeers() {
+        try {
+            List<PeerInfo> peersActifs = filtrerPeersActifs();
+            return PeerInfo.serialiserListe(peersActifs);
+        } catch (Exception e) {
+            logError("Erreur lors de l'envoi de la liste des peers", e);
+            return new byte[0];
+        }
+    }
+
+    private void handleAnnounce(String[] parts, InetAddress adresseDistante, PrintWriter out) {
+        if (parts.length < 3) {
+            out.println("ERREUR: commande ANNOUNCE invalide");
+            return;
+        }
+
+        try {
+            String pseudoAnnonce = parts[1];
+            int portAnnonce = Integer.parseInt(parts[2]);
+            out.println("OK " + enregistrerAnnonce(pseudoAnnonce, portAnnonce, adresseDistante));
+        } catch (Exception e) {
+            logError("Erreur lors de l'annonce", e);
+            out.println("ERREUR: données invalides");
+        }
+    }
+
+    private String enregistrerAnnonce(String pseudoAnnonce, int portAnnonce, InetAddress adresseDistante) {
+        String adresseAnnonce = adresseDistante.getHostAddress();
+
+        PeerInfo nouveauPeer = new PeerInfo(adresseAnnonce, portAnnonce, pseudoAnnonce);
+        return ajouterPeerSilencieux(nouveauPeer) ? "PEER_ADDED" : "PEER_UPDATED";
+    }
+
+    /**
+     * Rejoint le groupe de découverte et interroge les peers déjà présents
+     *
+     * @return false si le multicast est indisponible sur cette machine
+     */
+    private boolean demarrerDecouverte() {
+        synchronized (this) {
+            signatureCatalogue = calculerSignatureCatalogue();
+            dernierBalayageCatalogue = System.currentTimeMillis();
+        }
+        try {
+            decouverte = new DecouverteReseau(pseudo, portEcoute, this::versionCatalogueCourante, this::peerEntendu);
+            decouverte.demarrer(executorPrincipal);
+        } catch (IOException e) {
+            logError("Découverte multicast indisponible (" + e.getMessage() + "), balayage des ports locaux");
+            decouverte = null;
+            return false;
+        }
+
+        decouverte.interroger();
+        schedulerMaintenance.scheduleAtFixedRate(
+                this::annoncerCatalogue, INTERVALLE_BALISE_MS, INTERVALLE_BALISE_MS, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Balise de découverte périodique
+     */
+    private void annoncerCatalogue() {
+        if (actif && decouverte != null) {
+            decouverte.annoncer();
+        }
+    }
+
+    /**
+     * Catalogue local modifié par le peer (fichier reçu ou renommé, fichiers
+     * en attente hachés): nouvelle version annoncée tout de suite, pour que
+     * les peers rafraîchissent leur cache
+     */
+    private void catalogueModifie() {
+        versionCatalogue.incrementAndGet();
+        try {
+            schedulerMaintenance.execute(this::annoncerCatalogue);
+        } catch (RejectedExecutionException e) {
+            // Peer arrêté après un arrêt forcé: plus personne à prévenir
+        }
+    }
+
+    /**
+     * Version du catalogue local. Le dossier partagé n'est balayé qu'une fois
+     * par INTERVALLE_BALAYAGE_CATALOGUE_MS, pas à chaque message de découverte
+     */
+    private synchronized long versionCatalogueCourante() {
+        long maintenant = System.currentTimeMillis();
+        if (maintenant - dernierBalayageCatalogue >= INTERVALLE_BALAYAGE_CATALOGUE_MS) {
+            dernierBalayageCatalogue = maintenant;
+            long signature = calculerSignatureCatalogue();
+            if (signature != signatureCatalogue) {
+                signatureCatalogue = signature;
+                versionCatalogue.incrementAndGet();
+            }
+        }
+        return versionCatalogue.get();
+    }
+
+    /**
+     * Empreinte du dossier partagé: noms, tailles et dates de modification.
+     * Somme de hashes mélangés: indépendante de l'ordre du listing, sans que
+     * deux changements puissent s'annuler
+     */
+    private long calculerSignatureCatalogue() {
+        List<File> fichiers = fileManager.listerFichiers();
+        long signature = fichiers.size();
+        for (File f : fichiers) {
+            long h = f.getName().hashCode();
+            h = melanger(h ^ f.length());
+            h = melanger(h ^ f.lastModified());
+            signature += h;
+        }
+        return signature;
+    }
+
+    /**
+     * Finaliseur de SplitMix64: chaque bit d'entrée change la moitié des bits
+     * de sortie
+     */
+    private static long melanger(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Peer entendu sur le groupe de découverte: ajouté s'il est nouveau, son
+     * cache de fichiers rafraîchi si son catalogue a changé
+     */
+    private void peerEntendu(InetAddress source, String pseudoDistant, int port, long version) {
+        if (!actif)
+            return;
+
+        PeerInfo annonce = new PeerInfo(estAdresseLocale(source) ? "localhost" : source.getHostAddress(),
+                port, pseudoDistant);
+        if (estPeerLocal(annonce))
+            return;
+
+        Optional<PeerInfo> existant = peersConnus.stream().filter(annonce::equals).findFirst();
+        if (existant.isEmpty()) {
+            annonce.setVersionCatalogue(version);
+            if (ajouterPeerSilencieux(annonce)) {
+                logInfo("Peer découvert: " + annonce);
+            }
+            return;
+        }
+
+        PeerInfo connu = existant.get();
+        connu.updatePing();
+        if (!pseudoDistant.isEmpty()) {
+            connu.setPseudo(pseudoDistant);
+        }
+        if (connu.getVersionCatalogue() != version) {
+            connu.setVersionCatalogue(version);
+            schedulerMaintenance.execute(() -> mettreAJourCachePeer(connu));
+        }
+    }
+
+    /**
+     * Adresse de cette machine: les peers locaux sont enregistrés sous
+     * "localhost", comme ceux du balayage et des ajouts manuels
+     */
+    private static boolean estAdresseLocale(InetAddress adresse) {
+        if (adresse.isLoopbackAddress() || adresse.isAnyLocalAddress())
+            return true;
+        try {
+            return NetworkInterface.getByInetAddress(adresse) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Balayage TCP des ports locaux, utilisé quand le multicast est indisponible
+     */
+    private void decouvriePeers() {
+        logInfo("Démarrage de la découverte de peers...");
+
+        CompletableFuture.runAsync(() -> {
+            int peersInitiaux = peersConnus.size();
+            List<CompletableFuture<Void>> taches = new ArrayList<>();
+
+            // Scanner les ports de manière asynchrone
+            for (int port = 8000; port <= 8100; port++) {
+                if (port == portEcoute)
+                    continue;
+
+                final int finalPort = port;
+                CompletableFuture<Void> tache = CompletableFuture.runAsync(() -> {
+                    if (testerConnexionPeer("localhost", finalPort)) {
+                        ajouterPeerSilencieux(new PeerInfo("localhost", finalPort, ""));
+                    }
+                }, executorPrincipal);
+
+                taches.add(tache);
+            }
+
+            // Attendre toutes les tâches avec timeout
+            CompletableFuture<Void> toutesLesTaches = CompletableFuture.allOf(
+                    taches.toArray(new CompletableFuture[0]));
+
+            try {
+                toutesLesTaches.get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                logError("Timeout lors de la découverte", e);
+            }
+
+            int nouveauxPeers = peersConnus.size() - peersInitiaux;
+            if (nouveauxPeers > 0) {
+                logInfo("Découverte terminée: " + nouveauxPeers + " nouveau(x) peer(s)");
+            }
+        }, executorPrincipal);
+    }
+
+    /**
+     * Synchronisation silencieuse avec les peers connus
+     */
+    private void synchroniserPeersSilencieux() {
+        if (!actif)
+            return;
+
+        Set<PeerInfo> nouveauxPeers = Collections.synchronizedSet(new HashSet<>());
+        List<CompletableFuture<Void>> tachesSynchronisation = new ArrayList<>();
+
+        for (PeerInfo peer : new ArrayList<>(peersConnus)) {
+            CompletableFuture<Void> tache = CompletableFuture.runAsync(() -> {
+                try {
+                    annoncerAuPeer(peer);
+                    Set<PeerInfo> peersDuPeer = recupererPeersDuPeer(peer);
+                    nouveauxPeers.addAll(peersDuPeer);
+                } catch (Exception e) {
+                    logDebug("Erreur de sync avec " + peer + ": " + e.getMessage());
+                }
+            }, executorPrincipal);
+
+            tachesSynchronisation.add(tache);
+        }
+
+        // Attendre toutes les synchronisations avec timeout
+        CompletableFuture.allOf(tachesSynchronisation.toArray(new CompletableFuture[0]))
+                .orTimeout(15, TimeUnit.SECONDS)
+                .whenComplete((result, throwable) -> {
+                    // Ajouter les nouveaux peers découverts
+                    for (PeerInfo nouveauPeer : nouveauxPeers) {
+                        if (!estPeerLocal(nouveauPeer)) {
+                            ajouterPeerSilencieux(nouveauPeer);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Nettoyage des peers inactifs
+     */
+    private void nettoyerPeersInactifs() {
+        if (!actif)
+            return;
+
+        List<PeerInfo> peersASupprimer = peersConnus.stream()
+                .filter(peer -> !peer.estActif(PEER_TIMEOUT_MS))
+                .filter(peer -> !testerConnexionPeer(peer.getAdresse(), peer.getPort()))
+                .collect(Collectors.toList());
+
+        if (!peersASupprimer.isEmpty()) {
+            peersConnus.removeAll(peersASupprimer);
+
+            // Nettoyer le cache et les connexions persistantes
+            peersASupprimer.forEach(peer -> {
+                String cle = peer.getAdresse() + ":" + peer.getPort();
+                cacheFichiersPeers.remove(cle);
+                poolConnexions.fermer(peer);
+            });
+
+            logDebug("Nettoyé " + peersASupprimer.size() + " peer(s) inactif(s)");
+        }
+    }
+
+    /**
+     * Mise à jour complète du cache des fichiers
+     */
+    public void mettreAJourCacheComplet() {
+        if (!actif)
+            return;
+
+        List<CompletableFuture<Void>> tachesMiseAJour = peersConnus.stream()
+                .filter(peer -> peer.estActif(PEER_TIMEOUT_MS))
+                .map(peer -> CompletableFuture.runAsync(() -> mettreAJourCachePeer(peer), executorPrincipal))
+                .collect(Collectors.toList());
+
+        // Exécuter toutes les mises à jour en parallèle avec timeout
+        CompletableFuture.allOf(tachesMiseAJour.toArray(new CompletableFuture[0]))
+                .orTimeout(20, TimeUnit.SECONDS)
+                .whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        logDebug("Timeout lors de la mise à jour du cache");
+                    }
+                });
+    }
+
+    /**
+     * Test de connexion à un peer
+     */
+    private boolean testerConnexionPeer(String adresse, int port) {
+        try {
+            return poolConnexions.executer(new PeerInfo(adresse, port, ""), 2000, connexion -> {
+                connexion.echanger(Trame.PING, new byte[0]).verifierOk();
+                return true;
+            });
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Annonce ce peer à un peer distant
+     */
+    private void annoncerAuPeer(PeerInfo peer) throws IOException {
+        poolConnexions.executer(peer, SOCKET_TIMEOUT_MS, connexion -> connexion.echanger(Trame.ANNOUNCE,
+                new Trame.Ecriture().chaine(pseudo).entier(portEcoute).toBytes()).verifierOk());
+
+        peer.updatePing();
+    }
+
     /**
      * Récupère la liste des peers connus par un peer distant
      */
     private Set<PeerInfo> recupererPeersDuPeer(PeerInfo peer) {
         Set<PeerInfo> peersDistants = new HashSet<>();
 
-        try (Socket socket = new Socket(peer.getAdresse(), peer.getPort())) {
-            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
-
-            try (OutputStream out = socket.getOutputStream();
-                    InputStream in = socket.getInputStream()) {
-
-                // Envoyer commande PEERS
-                out.write("PEERS\n".getBytes(StandardCharsets.UTF_8));
-                out.flush();
+        try {
+            // Envoyer commande PEERS et lire la réponse binaire
+            byte[] data = poolConnexions.executer(peer, SOCKET_TIMEOUT_MS,
+                    connexion -> connexion.echanger(Trame.PEERS, new byte[0]).verifierOk().getPayload());
 
-                // Lire réponse binaire
-                byte[] data = lireDonneesBinaires(in);
-                if (data.length > 0) {
-                    List<PeerInfo> peers = PeerInfo.deserialiserListe(data);
-                    peersDistants.addAll(peers);
-                }
+            if (data.length > 0) {
+                List<PeerInfo> peers = PeerInfo.deserialiserListe(data);
+                peersDistants.addAll(peers);
             }
         } catch (Exception e) {
             logDebug("Erreur lors de la récupération des peers de " + peer + ": " + e.getMessage());
@@ -442,23 +1213,15 @@ public class Peer {
      * Met à jour le cache des fichiers d'un peer
      */
     private void mettreAJourCachePeer(PeerInfo peer) {
-        try (Socket socket = new Socket(peer.getAdresse(), peer.getPort())) {
-            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
-
-            try (OutputStream out = socket.getOutputStream();
-                    InputStream in = socket.getInputStream()) {
-
-                // Envoyer commande LIST
-                out.write("LIST\n".getBytes(StandardCharsets.UTF_8));
-                out.flush();
-
-                // Lire réponse binaire
-                byte[] data = lireDonneesBinaires(in);
-                if (data.length > 0) {
-                    List<Metadata> fichiers = deserialiserListeMetadata(data);
-                    cacheFichiersPeers.put(peer.getAdresse() + ":" + peer.getPort(), fichiers);
-                    peer.updatePing();
-                }
+        try {
+            // Envoyer commande LIST et lire la réponse binaire
+            byte[] data = poolConnexions.executer(peer, SOCKET_TIMEOUT_MS,
+                    connexion -> connexion.echanger(Trame.LIST, demandeListe()).verifierOk().getPayload());
+
+            if (data.length > 0) {
+                List<Metadata> fichiers = deserialiserListeMetadata(data);
+                cacheFichiersPeers.put(peer.getAdresse() + ":" + peer.getPort(), fichiers);
+                peer.updatePing();
             }
         } catch (Exception e) {
             logDebug("Erreur lors de la mise à jour du cache pour " + peer + ": " + e.getMessage());
@@ -468,55 +1231,361 @@ public class Peer {
     // ==================== MÉTHODES PUBLIQUES ====================
 
     /**
-     * Télécharge un fichier depuis un peer spécifique
+     * Télécharge un fichier depuis un peer spécifique. Si le peer répond BUSY,
+     * le téléchargement est retenté après le délai qu'il indique.
      */
     public boolean telechargerDepuisPeer(PeerInfo peer, String nomFichier) {
-        File fichierLocal = new File(dossierPartage, nomFichier);
-        if (fichierLocal.exists()) {
-            String nomLocal = genererNomUnique(fichierLocal);
-            logInfo("Fichier existant, sauvegarde sous: " + nomLocal);
-            fichierLocal = new File(dossierPartage, nomLocal);
+        return telechargerDepuisPeer(peer, nomFichier, new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, peer));
+    }
+
+    /**
+     * Télécharge un fichier en arrière-plan
+     *
+     * @return le suivi du transfert (résultat, annulation, progression)
+     */
+    public Transfert telechargerDepuisPeerAsync(PeerInfo peer, String nomFichier) {
+        Transfert transfert = new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, peer);
+        lancerTransfert(transfert, () -> telechargerDepuisPeer(peer, nomFichier, transfert));
+        return transfert;
+    }
+
+    /**
+     * Exécute un transfert sur l'executor principal et complète son résultat
+     */
+    private void lancerTransfert(Transfert transfert, Callable<Boolean> tache) {
+        try {
+            executorPrincipal.submit(() -> {
+                try {
+                    transfert.terminer(tache.call());
+                } catch (Exception e) {
+                    transfert.echouer(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            transfert.echouer(e);
         }
+    }
 
-        try (Socket socket = new Socket(peer.getAdresse(), peer.getPort())) {
-            socket.setSoTimeout(30000);
+    private boolean telechargerDepuisPeer(PeerInfo peer, String nomFichier, Transfert transfert) {
+        // Version locale existante: mise à jour par delta plutôt qu'une copie "(1)"
+        if (existeLocalement(nomFichier))
+            return synchroniser(peer, nomFichier, transfert);
 
-            try (InputStream socketIn = socket.getInputStream();
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+        Metadata connue = metadataChez(peer, nomFichier);
+        File dejaPresent = connue != null ? obtenirDepuisContenuLocal(nomFichier, connue) : null;
+        if (dejaPresent != null) {
+            transfert.demarrer(dejaPresent.length(), dejaPresent.length());
+            return true;
+        }
 
-                out.println("GET " + nomFichier + " 0");
+        if (fluxParPeer > 1 && telechargerSurPlusieursFlux(peer, nomFichier, transfert))
+            return true;
+        if (transfert.estAnnule())
+            return false;
 
-                String checksumServeur = lireLigne(socketIn);
-                if (checksumServeur == null || checksumServeur.startsWith("ERREUR")) {
-                    logError("Erreur lors de la demande du fichier: " + checksumServeur);
+        for (int tentative = 1;; tentative++) {
+            try {
+                return telechargerDepuisPeerUneFois(peer, nomFichier, transfert);
+            } catch (PeerOccupeException e) {
+                if (tentative >= MAX_TENTATIVES_OCCUPE) {
+                    logInfo(peer + " toujours occupé, abandon du téléchargement de " + nomFichier);
                     return false;
                 }
-
-                String tailleStr = lireLigne(socketIn);
-                if (tailleStr == null)
+                logInfo(peer + " occupé, nouvel essai dans " + e.getDelaiReessaiMs() + " ms");
+                if (transfert.estAnnule() || !attendre(e.getDelaiReessaiMs()))
                     return false;
+            }
+        }
+    }
+
+    /**
+     * Télécharge un gros fichier sur plusieurs flux GET_RANGE vers le même
+     * peer. Taille et checksum viennent d'un intervalle vide.
+     *
+     * @return false si le fichier est trop petit, le peer injoignable ou le
+     *         téléchargement incomplet: le téléchargement sur un seul flux
+     *         prend alors le relais, à partir du point de reprise
+     */
+    private boolean telechargerSurPlusieursFlux(PeerInfo peer, String nomFichier, Transfert transfert) {
+        IntervalleFichier entete;
+        try {
+            entete = lireIntervalle(peer, nomFichier, 0, 0);
+        } catch (IOException e) {
+            return false;
+        }
+        if (entete.getTailleFichier() < SEUIL_FLUX_PARALLELES)
+            return false;
+        return telechargerEnEssaim(nomFichier, Collections.singletonList(peer), entete.getChecksumFichier(),
+                entete.getTailleFichier(), transfert);
+    }
 
-                long tailleFichier = Long.parseLong(tailleStr);
+    /**
+     * Une tentative de téléchargement. Le contenu est reçu dans un fichier
+     * partiel journalisé: après une interruption, la tentative suivante
+     * reprend à l'offset confirmé si la source annonce le même fichier.
+     *
+     * @throws PeerOccupeException si le peer refuse le transfert (BUSY)
+     */
+    private boolean telechargerDepuisPeerUneFois(PeerInfo peer, String nomFichier, Transfert transfert)
+            throws PeerOccupeException {
+        Boolean telecharge = tenterTelechargement(peer, nomFichier, transfert);
+        if (telecharge == null) {
+            // Fichier partiel obsolète, supprimé: tout reprendre sur une nouvelle connexion
+            telecharge = tenterTelechargement(peer, nomFichier, transfert);
+        }
+        return Boolean.TRUE.equals(telecharge);
+    }
 
-                // Télécharger le fichier
-                try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(fichierLocal))) {
-                    copierAvecProgression(socketIn, bos, tailleFichier, nomFichier);
-                }
+    /**
+     * @return null si le fichier partiel ne correspond plus au fichier de la
+     *         source: il est supprimé et la tentative est à refaire
+     */
+    @SuppressWarnings("try")
+    private Boolean tenterTelechargement(PeerInfo peer, String nomFichier, Transfert transfert)
+            throws PeerOccupeException {
+        JournalTelechargement journal = JournalTelechargement.charger(dossierPartage, nomFichier);
+        File fichierPartiel = new File(dossierPartage, nomFichier + JournalTelechargement.EXTENSION_PARTIEL);
+        long offset = journal != null ? journal.getOctetsConfirmes() : 0;
+        Metadata annoncee = metadataChez(peer, nomFichier);
+        ArbreMerkle arbre = annoncee != null ? obtenirArbreMerkle(Collections.singletonList(peer), nomFichier,
+                annoncee.getChecksum(), annoncee.getTaille()) : null;
+
+        try (ConnexionPeer connexion = new ConnexionPeer(peer, SOCKET_TIMEOUT_MS);
+                VerrousFichiers.Verrou verrou = verrousFichiers.ecriture(fichierPartiel)) {
+            connexion.setTimeout(30000);
+            transfert.attacher(connexion);
+
+            Trame reponse = connexion.echanger(Trame.GET,
+                    new Trame.Ecriture().chaine(nomFichier).longue(offset).toBytes());
+            if (reponse.getOpcode() == Trame.BUSY) {
+                throw new PeerOccupeException(reponse.lecture().entier());
+            }
+            if (reponse.getOpcode() != Trame.OK) {
+                logError("Erreur lors de la demande du fichier: " + reponse.getMessageErreur());
+                return false;
+            }
 
-                // Vérifier l'intégrité
-                if (verifierIntegriteFichier(fichierLocal, checksumServeur)) {
-                    logInfo("Fichier téléchargé avec succès: " + fichierLocal.getName());
-                    return true;
-                } else {
+            Trame.Lecture entete = reponse.lecture();
+            String checksumServeur = entete.chaine();
+            long tailleFichier = entete.longue();
+            if (arbre != null && !checksumServeur.equals(annoncee.getChecksum())) {
+                // Fichier modifié depuis le dernier catalogue: hashes obsolètes
+                arbre = null;
+            }
+
+            if (journal != null && !journal.correspond(checksumServeur, tailleFichier)) {
+                // Le fichier a changé depuis l'interruption: tout reprendre
+                logInfo("Fichier partiel obsolète, nouveau téléchargement de " + nomFichier);
+                journal.supprimer();
+                journal = null;
+                if (offset > 0)
+                    return null;
+            }
+            if (journal == null) {
+                journal = JournalTelechargement.creer(dossierPartage, nomFichier, checksumServeur, tailleFichier);
+            } else if (offset > 0) {
+                logInfo("Reprise de " + nomFichier + " à " + offset + "/" + tailleFichier + " octets");
+            }
+            journal.ajouterSource(peer);
+
+            // Télécharger le fichier
+            transfert.demarrer(tailleFichier, offset);
+            Empreinte empreinte = recevoirFichier(connexion.getIn(), connexion.getCanal(),
+                    limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, peer.getAdresse()), transfert,
+                    fichierPartiel, offset, tailleFichier, nomFichier, 30000, journal, arbre);
+
+            // Vérifier l'intégrité, en ne redemandant que les blocs corrompus
+            if (!verifierIntegriteFichier(fichierPartiel, checksumServeur, empreinte)) {
+                // Fichier réparé: l'empreinte de la réception ne vaut plus
+                empreinte = null;
+                if (!reparerFichier(fichierPartiel, nomFichier, checksumServeur, tailleFichier, arbre,
+                        Collections.singletonList(peer))) {
                     logError("Erreur checksum pour " + nomFichier);
-                    fichierLocal.delete();
+                    journal.supprimer();
                     return false;
                 }
             }
+
+            File fichierLocal = new File(dossierPartage, nomFichier);
+            if (fichierLocal.exists()) {
+                String nomLocal = genererNomUnique(fichierLocal);
+                logInfo("Fichier existant, sauvegarde sous: " + nomLocal);
+                fichierLocal = new File(dossierPartage, nomLocal);
+            }
+            if (!fichierPartiel.renameTo(fichierLocal)) {
+                logError("Impossible de renommer " + fichierPartiel.getName() + " en " + fichierLocal.getName());
+                return false;
+            }
+            journal.clore();
+            if (empreinte != null) {
+                fileManager.enregistrerEmpreinte(fichierLocal, empreinte);
+            }
+
+            logInfo("Fichier téléchargé avec succès: " + fichierLocal.getName());
+            catalogueModifie();
+            return true;
+        } catch (PeerOccupeException e) {
+            throw e;
         } catch (Exception e) {
-            logError("Erreur lors du téléchargement depuis " + peer, e);
+            if (transfert.estAnnule()) {
+                logInfo("Téléchargement annulé: " + nomFichier);
+                if (journal != null) {
+                    journal.supprimer();
+                }
+            } else {
+                logError("Erreur lors du téléchargement depuis " + peer, e);
+                conserverPointDeReprise(journal);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Le contenu de checksum est déjà dans le dossier partagé, peut-être sous
+     * un autre nom: nomFichier devient un lien physique vers ce fichier, ou
+     * une copie locale si le système de fichiers n'en permet pas, sans rien
+     * transférer. Un nomFichier déjà présent est laissé à la synchronisation
+     * par delta. Seuls les fichiers locaux de même taille et de même hash
+     * rapide que meta sont hachés en SHA-256 pour le savoir.
+     *
+     * @return le fichier obtenu, null s'il faut le télécharger ou le synchroniser
+     */
+    @SuppressWarnings("try")
+    private File obtenirDepuisContenuLocal(String nomFichier, Metadata meta) {
+        String checksum = meta.getChecksum();
+        File destination = new File(dossierPartage, nomFichier);
+        if (!estNomFichierValide(nomFichier) || destination.exists())
+            return null;
+        File existant = fileManager.trouverParChecksum(checksum, meta.getTaille(), meta.getHachageRapide());
+        if (existant == null)
+            return null;
+
+        File copie = new File(dossierPartage, destination.getName() + EXTENSION_COPIE);
+        try {
+            Files.createLink(destination.toPath(), existant.toPath());
+        } catch (IOException | RuntimeException e) {
+            try (VerrousFichiers.Verrou verrou = verrousFichiers.lecture(existant);
+                    FileChannel source = new FileInputStream(existant).getChannel();
+                    FileChannel cible = new FileOutputStream(copie).getChannel()) {
+                long taille = source.size();
+                for (long position = 0; position < taille;) {
+                    position += source.transferTo(position, taille - position, cible);
+                }
+            } catch (IOException erreurCopie) {
+                logError("Copie locale de " + existant.getName() + " impossible", erreurCopie);
+                copie.delete();
+                return null;
+            }
+            if (!copie.renameTo(destination)) {
+                logError("Impossible de renommer " + copie.getName() + " en " + destination.getName());
+                copie.delete();
+                return null;
+            }
+        }
+
+        logInfo("Contenu déjà présent dans " + existant.getName() + ", " + destination.getName()
+                + " obtenu sans transfert");
+        catalogueModifie();
+        return destination;
+    }
+
+    /**
+     * Après une interruption, garde le dernier point de reprise confirmé par
+     * recevoirFichier: la tentative suivante reprend à cet offset, jamais
+     * au-delà d'un bloc corrompu ou d'octets pas encore sur disque
+     */
+    private void conserverPointDeReprise(JournalTelechargement journal) {
+        if (journal == null || !journal.getFichierPartiel().exists())
+            return;
+
+        logInfo("Téléchargement interrompu, reprise possible à " + journal.getOctetsConfirmes() + "/"
+                + journal.getTaille() + " octets");
+    }
+
+    /**
+     * Télécharge nomFichier par pièces depuis toutes les sources à la fois,
+     * qui annoncent toutes le même checksum. Le fichier partiel est préalloué
+     * et chaque pièce est écrite à sa place dès son arrivée; après une
+     * interruption, le journal garde les pièces consécutives depuis le début.
+     */
+    @SuppressWarnings("try")
+    private boolean telechargerEnEssaim(String nomFichier, List<PeerInfo> sources, String checksum, long taille,
+            Transfert transfert) {
+        JournalTelechargement journal = JournalTelechargement.charger(dossierPartage, nomFichier);
+        File fichierPartiel = new File(dossierPartage, nomFichier + JournalTelechargement.EXTENSION_PARTIEL);
+        TelechargementEssaim essaim = null;
+
+        // Avec les hashes des blocs, chaque pièce est un bloc vérifié à son arrivée
+        ArbreMerkle arbre = obtenirArbreMerkle(sources, nomFichier, checksum, taille);
+        int taillePiece = arbre != null ? arbre.getTailleBloc() : TAILLE_PIECE;
+
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.ecriture(fichierPartiel)) {
+            if (journal != null && !journal.correspond(checksum, taille)) {
+                logInfo("Fichier partiel obsolète, nouveau téléchargement de " + nomFichier);
+                journal.supprimer();
+                journal = null;
+            }
+            if (journal == null) {
+                journal = JournalTelechargement.creer(dossierPartage, nomFichier, checksum, taille);
+            } else if (journal.getOctetsConfirmes() > 0) {
+                logInfo("Reprise de " + nomFichier + " à " + journal.getOctetsConfirmes() + "/" + taille + " octets");
+            }
+            for (PeerInfo source : sources) {
+                journal.ajouterSource(source);
+            }
+
+            boolean complet;
+            try (RandomAccessFile raf = new RandomAccessFile(fichierPartiel, "rw")) {
+                raf.setLength(taille);
+                essaim = new TelechargementEssaim(this, nomFichier, checksum, taille, taillePiece,
+                        raf.getChannel(), journal, transfert, arbre);
+                transfert.attacher(essaim);
+                transfert.demarrer(taille, essaim.getOctetsPresents());
+                complet = essaim.executer(sources, fluxParPeer, executorPrincipal);
+            }
+            if (!complet) {
+                throw new IOException(transfert.estAnnule() ? "Transfert annulé"
+                        : "Aucune source n'a pu fournir toutes les pièces");
+            }
+
+            if (!verifierIntegriteFichier(fichierPartiel, checksum)
+                    && !reparerFichier(fichierPartiel, nomFichier, checksum, taille, arbre, sources)) {
+                logError("Erreur checksum pour " + nomFichier);
+                journal.supprimer();
+                return false;
+            }
+
+            File fichierLocal = new File(dossierPartage, nomFichier);
             if (fichierLocal.exists()) {
-                fichierLocal.delete();
+                String nomLocal = genererNomUnique(fichierLocal);
+                logInfo("Fichier existant, sauvegarde sous: " + nomLocal);
+                fichierLocal = new File(dossierPartage, nomLocal);
+            }
+            if (!fichierPartiel.renameTo(fichierLocal)) {
+                logError("Impossible de renommer " + fichierPartiel.getName() + " en " + fichierLocal.getName());
+                return false;
+            }
+            journal.clore();
+
+            logInfo("Fichier téléchargé avec succès depuis " + sources.size() + " sources: " + fichierLocal.getName());
+            catalogueModifie();
+            return true;
+        } catch (Exception e) {
+            if (transfert.estAnnule()) {
+                logInfo("Téléchargement annulé: " + nomFichier);
+                if (journal != null) {
+                    journal.supprimer();
+                }
+            } else {
+                logError("Téléchargement en essaim de " + nomFichier + " interrompu", e);
+                // Le fichier est préalloué: seul le préfixe de pièces terminées est sûr
+                if (journal != null && essaim != null) {
+                    try {
+                        journal.confirmer(essaim.getPrefixeTermine());
+                    } catch (IOException erreurJournal) {
+                        journal.supprimer();
+                    }
+                }
             }
             return false;
         }
@@ -544,6 +1613,11 @@ public class Peer {
     public void synchroniserMaintenant() {
         logInfo("Synchronisation manuelle déclenchée...");
 
+        // Les réponses portent la version courante de chaque catalogue
+        if (decouverte != null) {
+            decouverte.interroger();
+        }
+
         CompletableFuture.runAsync(() -> {
             synchroniserPeersSilencieux();
             logInfo("Synchronisation terminée. Total: " + peersConnus.size() + " peers");
@@ -620,105 +1694,543 @@ public class Peer {
                 .filter(p -> p.equals(peerInfo))
                 .findFirst();
 
-        if (existant.isPresent()) {
-            existant.get().updatePing();
-            if (peerInfo.getPseudo() != null && !peerInfo.getPseudo().isEmpty()) {
-                existant.get().setPseudo(peerInfo.getPseudo());
-            }
-            return false;
-        } else {
-            peersConnus.add(peerInfo);
-            schedulerMaintenance.execute(() -> mettreAJourCachePeer(peerInfo));
-            return true;
-        }
+        if (existant.isPresent()) {
+            existant.get().updatePing();
+            if (peerInfo.getPseudo() != null && !peerInfo.getPseudo().isEmpty()) {
+                existant.get().setPseudo(peerInfo.getPseudo());
+            }
+            return false;
+        } else {
+            peersConnus.add(peerInfo);
+            schedulerMaintenance.execute(() -> mettreAJourCachePeer(peerInfo));
+            return true;
+        }
+    }
+
+    private boolean estPeerLocal(PeerInfo peer) {
+        return (peer.getAdresse().equals("localhost") || peer.getAdresse().equals("127.0.0.1"))
+                && peer.getPort() == this.portEcoute;
+    }
+
+    private List<PeerInfo> filtrerPeersActifs() {
+        return peersConnus.stream()
+                .filter(peer -> peer.estActif(PEER_TIMEOUT_MS))
+                .filter(peer -> !estPeerLocal(peer))
+                .filter(peer -> peer.getPseudo() != null && !peer.getPseudo().trim().isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Métadonnées des fichiers partagés; s'il en reste en attente, une seule
+     * indexation est lancée pour tous à la fin
+     */
+    private List<Metadata> collecterMetadatasFichiers() {
+        List<Metadata> metadatas = fileManager.listerFichiers().stream()
+                .filter(File::isFile)
+                .map(this::creerMetadata)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (metadatas.stream().anyMatch(Metadata::estEnAttente)) {
+            fileManager.lancerIndexation();
+        }
+        return metadatas;
+    }
+
+    /**
+     * Métadonnées d'un fichier, ou null s'il est en cours d'écriture (un
+     * fichier partiel n'est pas annoncé). Un fichier pas encore haché est
+     * annoncé en attente, sans checksum, plutôt que haché ici: l'appelant
+     * lance son indexation.
+     */
+    private Metadata creerMetadata(File fichier) {
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.tenterLecture(fichier)) {
+            if (verrou == null) {
+                logDebug("Fichier en cours d'écriture ignoré: " + fichier.getName());
+                return null;
+            }
+            if (!fileManager.estHache(fichier)) {
+                return new Metadata(fichier.getName(), fichier.length(), "", System.currentTimeMillis(), "", 0,
+                        fileManager.getHachageRapide(fichier));
+            }
+            String checksum = fileManager.calculerChecksum(fichier);
+            ArbreMerkle arbre = fileManager.calculerArbreMerkle(fichier);
+            return new Metadata(fichier.getName(), fichier.length(), checksum, System.currentTimeMillis(),
+                    arbre.getRacine(), arbre.getTailleBloc(), fileManager.getHachageRapide(fichier));
+        } catch (Exception e) {
+            logError("Erreur lors de la création des métadonnées pour " + fichier.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Envoie longueur octets d'un fichier à partir de offset, ou jusqu'à la
+     * fin si longueur est négative; un intervalle qui dépasse la fin du
+     * fichier est tronqué. Avec un canal de socket, le noyau copie
+     * directement du cache de pages vers le socket (FileChannel.transferTo);
+     * sinon copie bufferisée classique.
+     *
+     * @return false si l'envoi a échoué après l'en-tête: la suite du flux
+     *         n'est plus synchronisée et la connexion doit être abandonnée
+     */
+    @SuppressWarnings("try")
+    private boolean envoyerFichier(String nomFichier, OutputStream socketOut, SocketChannel canal,
+            LimiteurDebit.Flux flux, Transfert suivi, ReponseTransfert reponse, long offset, long longueur) {
+        if (!estNomFichierValide(nomFichier)) {
+            repondreErreur(reponse, "fichier introuvable");
+            return true;
+        }
+
+        File fichier = new File(dossierPartage, nomFichier);
+        boolean enteteEnvoyee = false;
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.lecture(fichier)) {
+            try {
+                if (!fichier.isFile()) {
+                    reponse.erreur("fichier introuvable");
+                    return true;
+                }
+
+                String checksum = fileManager.calculerChecksum(fichier);
+                long taille = fichier.length();
+                if (offset < 0 || offset > taille) {
+                    reponse.erreur("offset invalide: " + offset);
+                    return true;
+                }
+                long fin = longueur < 0 ? taille : offset + Math.min(longueur, taille - offset);
+
+                enteteEnvoyee = true;
+                reponse.entete(checksum, taille, fin - offset);
+                suivi.demarrer(fin - offset);
+
+                try (RandomAccessFile raf = new RandomAccessFile(fichier, "r")) {
+                    long position = offset;
+                    if (transfertZeroCopie && canal != null && canal.isBlocking()) {
+                        position = transfererZeroCopie(raf.getChannel(), canal, flux, suivi, offset, fin);
+                    }
+
+                    if (position < fin) {
+                        raf.seek(position);
+                        copierFichier(raf, socketOut, fin - position, flux, suivi);
+                    }
+                }
+
+                logDebug("Fichier envoyé: " + nomFichier);
+                return true;
+
+            } catch (Exception e) {
+                logError("Erreur lors de l'envoi du fichier " + nomFichier, e);
+                repondreErreur(reponse, "échec de l'envoi du fichier");
+                return !enteteEnvoyee;
+            }
+        }
+    }
+
+    /**
+     * Envoie [position, fin) par transferTo. Un appel peut transférer moins
+     * que demandé (limite de 2 GB par appel sous Linux, socket plein): on
+     * boucle tant qu'il y a progression. Sous limitation de débit, les appels
+     * sont découpés en tranches de TRANCHE_LIMITEE.
+     *
+     * @return la position atteinte; inférieure à fin si le zéro copie n'a
+     *         pas pu aller au bout, le reste passant alors par copierFichier
+     */
+    private long transfererZeroCopie(FileChannel source, SocketChannel destination, LimiteurDebit.Flux flux,
+            Transfert suivi, long position, long fin) {
+        long depart = position;
+        try {
+            while (position < fin) {
+                long tranche = flux.estLimite() ? Math.min(TRANCHE_LIMITEE, fin - position) : fin - position;
+                long transfere = source.transferTo(position, tranche, destination);
+                if (transfere <= 0)
+                    break;
+                position += transfere;
+                flux.consommer(transfere);
+                suivi.avancer(transfere);
+            }
+        } catch (IOException e) {
+            // Repli seulement si rien n'est parti: l'état du socket est inconnu sinon
+            if (position != depart || !destination.isOpen())
+                throw new UncheckedIOException(e);
+            logDebug("Zéro copie indisponible, repli sur la copie bufferisée: " + e.getMessage());
+        }
+        return position;
+    }
+
+    /**
+     * Active ou désactive l'envoi zéro copie (activé par défaut,
+     * -Dp2p.zeroCopie=false pour le désactiver)
+     */
+    public void setTransfertZeroCopie(boolean transfertZeroCopie) {
+        this.transfertZeroCopie = transfertZeroCopie;
+    }
+
+    public boolean isTransfertZeroCopie() {
+        return transfertZeroCopie;
+    }
+
+    /**
+     * Nombre maximal de flux GET_RANGE parallèles vers un même peer pour un
+     * gros fichier (1 par défaut, -Dp2p.fluxParPeer). Au-delà de 1, les flux
+     * s'ajoutent un à un tant que le débit mesuré progresse.
+     */
+    public void setFluxParPeer(int maximum) {
+        if (maximum < 1) {
+            throw new IllegalArgumentException("Nombre de flux invalide: " + maximum);
+        }
+        this.fluxParPeer = maximum;
+    }
+
+    public int getFluxParPeer() {
+        return fluxParPeer;
+    }
+
+    // ==================== LIMITATION DE DÉBIT ====================
+    // Débits en octets par seconde, modifiables à chaud; 0 = illimité
+
+    /**
+     * Débit maximal de tous les envois (fichiers servis et uploads émis)
+     */
+    public void setDebitMaxEnvoi(long octetsParSeconde) {
+        limiteurDebit.setDebitGlobal(LimiteurDebit.Sens.ENVOI, octetsParSeconde);
+    }
+
+    /**
+     * Débit maximal de toutes les réceptions (téléchargements et uploads reçus)
+     */
+    public void setDebitMaxReception(long octetsParSeconde) {
+        limiteurDebit.setDebitGlobal(LimiteurDebit.Sens.RECEPTION, octetsParSeconde);
+    }
+
+    /**
+     * Débit maximal des envois vers un peer, en plus de la limite globale.
+     * Le peer est identifié par son adresse IP.
+     */
+    public void setDebitMaxEnvoi(PeerInfo peer, long octetsParSeconde) {
+        limiteurDebit.setDebitPeer(LimiteurDebit.Sens.ENVOI, peer.getAdresse(), octetsParSeconde);
+    }
+
+    /**
+     * Débit maximal des réceptions depuis un peer, en plus de la limite globale
+     */
+    public void setDebitMaxReception(PeerInfo peer, long octetsParSeconde) {
+        limiteurDebit.setDebitPeer(LimiteurDebit.Sens.RECEPTION, peer.getAdresse(), octetsParSeconde);
+    }
+
+    public long getDebitMaxEnvoi() {
+        return limiteurDebit.getDebitGlobal(LimiteurDebit.Sens.ENVOI);
+    }
+
+    public long getDebitMaxReception() {
+        return limiteurDebit.getDebitGlobal(LimiteurDebit.Sens.RECEPTION);
+    }
+
+    public long getDebitMaxEnvoi(PeerInfo peer) {
+        return limiteurDebit.getDebitPeer(LimiteurDebit.Sens.ENVOI, peer.getAdresse());
+    }
+
+    public long getDebitMaxReception(PeerInfo peer) {
+        return limiteurDebit.getDebitPeer(LimiteurDebit.Sens.RECEPTION, peer.getAdresse());
+    }
+
+    // ==================== CONTRÔLE D'ADMISSION ====================
+    // Au-delà de ces plafonds, les requêtes reçoivent BUSY <délai ms>
+
+    /**
+     * Nombre maximal de transferts (GET, UPLOAD) servis simultanément
+     * (32 par défaut, -Dp2p.maxTransferts)
+     */
+    public void setMaxTransfertsSimultanes(int maximum) {
+        controleAdmission.setMaxTransferts(maximum);
+    }
+
+    /**
+     * Nombre maximal de requêtes LIST, PEERS, ANNOUNCE traitées simultanément
+     * (64 par défaut, -Dp2p.maxRequetesControle)
+     */
+    public void setMaxRequetesControleSimultanees(int maximum) {
+        controleAdmission.setMaxRequetesControle(maximum);
+    }
+
+    /**
+     * Nombre maximal de connexions entrantes servies par le moteur bloquant
+     * (512 par défaut, -Dp2p.maxConnexions)
+     */
+    public void setMaxConnexionsSimultanees(int maximum) {
+        controleAdmission.setMaxConnexions(maximum);
     }
 
-    private boolean estPeerLocal(PeerInfo peer) {
-        return (peer.getAdresse().equals("localhost") || peer.getAdresse().equals("127.0.0.1"))
-                && peer.getPort() == this.portEcoute;
+    public int getMaxTransfertsSimultanes() {
+        return controleAdmission.getMaxTransferts();
     }
 
-    private List<PeerInfo> filtrerPeersActifs() {
-        return peersConnus.stream()
-                .filter(peer -> peer.estActif(PEER_TIMEOUT_MS))
-                .filter(peer -> !estPeerLocal(peer))
-                .filter(peer -> peer.getPseudo() != null && !peer.getPseudo().trim().isEmpty())
-                .collect(Collectors.toList());
+    public int getMaxRequetesControleSimultanees() {
+        return controleAdmission.getMaxRequetesControle();
     }
 
-    private List<Metadata> collecterMetadatasFichiers() {
-        return fileManager.listerFichiers().stream()
-                .filter(File::isFile)
-                .map(this::creerMetadata)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+    public int getMaxConnexionsSimultanees() {
+        return controleAdmission.getMaxConnexions();
     }
 
-    private Metadata creerMetadata(File fichier) {
-        try {
-            return new Metadata(fichier.getName(), fichier.length(),
-                    fileManager.calculerChecksum(fichier));
-        } catch (Exception e) {
-            logError("Erreur lors de la création des métadonnées pour " + fichier.getName(), e);
-            return null;
+    private void copierFichier(RandomAccessFile source, OutputStream destination, long taille,
+            LimiteurDebit.Flux flux, Transfert suivi) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long reste = taille;
+        int lu;
+
+        while (reste > 0 && (lu = source.read(buffer, 0, (int) Math.min(buffer.length, reste))) != -1) {
+            flux.consommer(lu);
+            destination.write(buffer, 0, lu);
+            reste -= lu;
+            suivi.avancer(lu);
         }
+        destination.flush();
     }
 
-    private void envoyerFichier(String nomFichier, OutputStream socketOut, PrintWriter out, long offset) {
-        synchronized (fileLock) {
-            try {
-                File fichier = new File(dossierPartage, nomFichier);
-                if (!fichier.exists() || !fichier.isFile()) {
-                    out.println("ERREUR: fichier introuvable");
-                    return;
+    /**
+     * Écrit dans destination les octets [debut, taille) reçus. Avec un canal
+     * de socket, FileChannel.transferFrom déplace les octets par tranches de
+     * TRANCHE_RECEPTION sans passer par un tableau Java; sinon copie
+     * bufferisée classique. Avec un journal, un point de reprise est
+     * enregistré tous les JournalTelechargement.INTERVALLE_CONFIRMATION octets.
+     *
+     * @param timeoutMs délai maximal sans progression (SO_TIMEOUT ne
+     *                  s'applique pas aux lectures du canal)
+     * @return l'empreinte de tout le contenu de destination, calculée pendant
+     *         la réception
+     */
+    private Empreinte recevoirFichier(InputStream source, SocketChannel canal, LimiteurDebit.Flux flux,
+            Transfert suivi, File destination, long debut, long taille, String nomFichier, int timeoutMs,
+            JournalTelechargement journal) throws IOException {
+        return recevoirFichier(source, canal, flux, suivi, destination, debut, taille, nomFichier, timeoutMs,
+                journal, null);
+    }
+
+    /**
+     * Réception avec, si arbre n'est pas null, vérification de chaque bloc
+     * dès qu'il est complet; le point de reprise ne dépasse jamais un bloc
+     * corrompu, qui sera redemandé.
+     *
+     * Le contenu est haché au fil de la réception: la copie bufferisée passe
+     * par l'empreinte, et chaque tranche reçue par transferFrom est hachée
+     * juste après son écriture, encore dans le cache du système. Seul le
+     * début déjà présent d'une reprise est relu.
+     */
+    private Empreinte recevoirFichier(InputStream source, SocketChannel canal, LimiteurDebit.Flux flux,
+            Transfert suivi, File destination, long debut, long taille, String nomFichier, int timeoutMs,
+            JournalTelechargement journal, ArbreMerkle arbre) throws IOException {
+        Empreinte empreinte = arbre != null ? new Empreinte(arbre.getTailleBloc()) : new Empreinte();
+        int blocSuivant = arbre != null ? (int) (debut / arbre.getTailleBloc()) : 0;
+        List<Integer> corrompus = new ArrayList<>();
+
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(destination, "rw")) {
+                // Un contenu au-delà du point de reprise n'est pas fiable
+                raf.setLength(debut);
+                if (debut > 0) {
+                    empreinte.lire(raf.getChannel(), 0, debut);
                 }
+            }
 
-                String checksum = fileManager.calculerChecksum(fichier);
-                long taille = fichier.length();
+            if (!transfertZeroCopie || canal == null || !canal.isBlocking()) {
+                try (FileOutputStream fos = new FileOutputStream(destination, true);
+                        OutputStream sortie = empreinte.sur(new BufferedOutputStream(fos))) {
+                    long position = debut;
+                    while (position < taille) {
+                        // Par intervalles de confirmation, avec un point de reprise entre deux
+                        long fin = journal != null
+                                ? Math.min(taille, position + JournalTelechargement.INTERVALLE_CONFIRMATION)
+                                : taille;
+                        copierAvecProgression(source, sortie, position, fin, taille, nomFichier, flux, suivi);
+                        position = fin;
+                        if (journal == null || position == taille)
+                            continue;
+
+                        sortie.flush();
+                        fos.getChannel().force(false);
+                        if (arbre != null) {
+                            blocSuivant = verifierBlocsRecus(arbre, empreinte, blocSuivant, corrompus, nomFichier);
+                        }
+                        long confirmable = corrompus.isEmpty() ? position : arbre.debutBloc(corrompus.get(0));
+                        if (confirmable > journal.getOctetsConfirmes()) {
+                            journal.confirmer(confirmable);
+                        }
+                    }
+                }
+                if (taille > 1024 * 1024) {
+                    System.out.println(); // Nouvelle ligne après progression
+                }
+                if (arbre != null) {
+                    empreinte.terminer();
+                    verifierBlocsRecus(arbre, empreinte, blocSuivant, corrompus, nomFichier);
+                }
+                return empreinte;
+            }
 
-                out.println(checksum);
-                out.println(taille);
-                out.flush();
+            try (FileChannel fichier = new RandomAccessFile(destination, "rw").getChannel()) {
+                long position = debut;
+                while (position < taille) {
+                    long tranche = flux.estLimite() ? TRANCHE_LIMITEE
+                            : suivi.estEcoute() ? TRANCHE_SUIVIE : TRANCHE_RECEPTION;
+                    long recu = recevoirTranche(canal, fichier, position, Math.min(tranche, taille - position), timeoutMs);
+                    empreinte.lire(fichier, position, recu);
+                    position += recu;
+                    flux.consommer(recu);
+                    suivi.avancer(recu);
+                    if (arbre != null) {
+                        blocSuivant = verifierBlocsRecus(arbre, empreinte, blocSuivant, corrompus, nomFichier);
+                    }
 
-                try (RandomAccessFile raf = new RandomAccessFile(fichier, "r")) {
-                    if (offset > 0) {
-                        raf.seek(offset);
+                    long confirmable = corrompus.isEmpty() ? position : arbre.debutBloc(corrompus.get(0));
+                    if (journal != null && confirmable > journal.getOctetsConfirmes()
+                            && position - journal.getOctetsConfirmes() >= JournalTelechargement.INTERVALLE_CONFIRMATION) {
+                        fichier.force(false);
+                        journal.confirmer(confirmable);
                     }
 
-                    copierFichier(raf, socketOut, taille - offset);
+                    // Progression comptée par tranche
+                    if (taille > TRANCHE_RECEPTION) {
+                        System.out.print("\rTéléchargement " + nomFichier + ": " + (position * 100 / taille) + "%");
+                    }
                 }
+            }
 
-                logDebug("Fichier envoyé: " + nomFichier);
+            if (taille > TRANCHE_RECEPTION) {
+                System.out.println(); // Nouvelle ligne après progression
+            }
+            if (arbre != null) {
+                // Le dernier bloc, s'il est incomplet, n'est haché qu'à la fin
+                empreinte.terminer();
+                verifierBlocsRecus(arbre, empreinte, blocSuivant, corrompus, nomFichier);
+            }
+            return empreinte;
+        } catch (IOException e) {
+            if (journal != null) {
+                confirmerAvantInterruption(destination, taille, journal, arbre, empreinte, blocSuivant, corrompus,
+                        nomFichier);
+            }
+            throw e;
+        }
+    }
 
-            } catch (Exception e) {
-                logError("Erreur lors de l'envoi du fichier " + nomFichier, e);
-                out.println("ERREUR lors de l'envoi du fichier");
+    /**
+     * Réception interrompue: force sur disque les octets reçus et hachés puis
+     * confirme ceux qui précèdent le premier bloc corrompu. Si le journal ne
+     * peut être écrit, le fichier partiel est abandonné.
+     */
+    private void confirmerAvantInterruption(File destination, long taille, JournalTelechargement journal,
+            ArbreMerkle arbre, Empreinte empreinte, int blocSuivant, List<Integer> corrompus, String nomFichier) {
+        if (!destination.exists())
+            return;
+
+        try (FileChannel fichier = new RandomAccessFile(destination, "r").getChannel()) {
+            fichier.force(false);
+            long confirmable = Math.min(Math.min(fichier.size(), empreinte.getTaille()), taille);
+            if (arbre != null) {
+                verifierBlocsRecus(arbre, empreinte, blocSuivant, corrompus, nomFichier);
+                if (!corrompus.isEmpty()) {
+                    confirmable = Math.min(confirmable, arbre.debutBloc(corrompus.get(0)));
+                }
+            }
+            if (confirmable > journal.getOctetsConfirmes()) {
+                journal.confirmer(confirmable);
             }
+        } catch (IOException e) {
+            logError("Journal de reprise illisible, le fichier partiel est abandonné");
+            journal.supprimer();
         }
     }
 
-    private void copierFichier(RandomAccessFile source, OutputStream destination, long taille) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        long reste = taille;
-        int lu;
+    /**
+     * Compare aux feuilles de l'arbre les blocs hachés depuis le bloc premier
+     *
+     * @return l'indice du premier bloc pas encore vérifié
+     */
+    private int verifierBlocsRecus(ArbreMerkle arbre, Empreinte empreinte, int premier, List<Integer> corrompus,
+            String nomFichier) {
+        int bloc = premier;
+        int fin = Math.min(arbre.getNombreBlocs(), empreinte.getNombreFeuilles());
+        while (bloc < fin) {
+            if (!MessageDigest.isEqual(empreinte.getFeuille(bloc), arbre.getFeuille(bloc))) {
+                logInfo("Bloc " + bloc + " de " + nomFichier + " corrompu à la réception");
+                corrompus.add(bloc);
+            }
+            bloc++;
+        }
+        return bloc;
+    }
 
-        while (reste > 0 && (lu = source.read(buffer, 0, (int) Math.min(buffer.length, reste))) != -1) {
-            destination.write(buffer, 0, lu);
-            reste -= lu;
+    /**
+     * Un appel à transferFrom sous la garde d'un délai: le canal est fermé
+     * s'il reste bloqué plus de timeoutMs
+     *
+     * @return le nombre d'octets reçus, toujours positif
+     */
+    private long recevoirTranche(SocketChannel canal, FileChannel fichier, long position, long longueur,
+            int timeoutMs) throws IOException {
+        ScheduledFuture<?> garde = schedulerMaintenance.schedule(
+                () -> closeResource(canal, "Canal bloqué"), timeoutMs, TimeUnit.MILLISECONDS);
+        long recu;
+        try {
+            recu = fichier.transferFrom(canal, position, longueur);
+        } finally {
+            garde.cancel(false);
+        }
+        if (recu <= 0) {
+            throw new EOFException("Fin de flux à l'octet " + position);
+        }
+        return recu;
+    }
+
+    /**
+     * Écrit les octets reçus à leur place [position, fin) dans fichier, sans
+     * toucher au reste: plusieurs intervalles d'un même fichier peuvent être
+     * reçus en parallèle
+     */
+    private void recevoirIntervalle(InputStream source, SocketChannel canal, FileChannel fichier,
+            long position, long fin, LimiteurDebit.Flux flux, LongConsumer recus, int timeoutMs) throws IOException {
+        if (transfertZeroCopie && canal != null && canal.isBlocking()) {
+            while (position < fin) {
+                long tranche = flux.estLimite() ? TRANCHE_LIMITEE : TRANCHE_SUIVIE;
+                long recu = recevoirTranche(canal, fichier, position, Math.min(tranche, fin - position), timeoutMs);
+                position += recu;
+                flux.consommer(recu);
+                recus.accept(recu);
+            }
+            return;
+        }
+
+        // Tampon plus grand que BUFFER_SIZE: moins d'écritures positionnelles
+        byte[] buffer = new byte[(int) TRANCHE_LIMITEE];
+        while (position < fin) {
+            int lu = source.read(buffer, 0, (int) Math.min(buffer.length, fin - position));
+            if (lu == -1) {
+                throw new EOFException("Fin de flux à l'octet " + position);
+            }
+            flux.consommer(lu);
+            recus.accept(lu);
+            ByteBuffer tampon = ByteBuffer.wrap(buffer, 0, lu);
+            while (tampon.hasRemaining()) {
+                position += fichier.write(tampon, position);
+            }
         }
-        destination.flush();
     }
 
-    private void copierAvecProgression(InputStream source, OutputStream destination,
-            long taille, String nomFichier) throws IOException {
+    /**
+     * Copie dans destination les octets [position, fin) d'un fichier de
+     * taille octets; une fin de flux avant fin est une erreur, comme avec
+     * transferFrom
+     */
+    private void copierAvecProgression(InputStream source, OutputStream destination, long position, long fin,
+            long taille, String nomFichier, LimiteurDebit.Flux flux, Transfert suivi) throws IOException {
         byte[] buffer = new byte[BUFFER_SIZE];
-        long totalLu = 0;
+        long totalLu = position;
         int lu;
 
-        while (totalLu < taille && (lu = source.read(buffer, 0,
-                (int) Math.min(buffer.length, taille - totalLu))) != -1) {
+        while (totalLu < fin && (lu = source.read(buffer, 0,
+                (int) Math.min(buffer.length, fin - totalLu))) != -1) {
+            flux.consommer(lu);
             destination.write(buffer, 0, lu);
             totalLu += lu;
+            suivi.avancer(lu);
 
             // Afficher progression pour gros fichiers
             if (taille > 1024 * 1024 && totalLu % (1024 * 1024) == 0) {
@@ -726,13 +2238,23 @@ public class Peer {
                 System.out.print("\rTéléchargement " + nomFichier + ": " + progression + "%");
             }
         }
-
-        if (taille > 1024 * 1024) {
-            System.out.println(); // Nouvelle ligne après progression
+        if (totalLu < fin) {
+            throw new EOFException("Fin de flux à l'octet " + totalLu);
         }
     }
 
     private boolean verifierIntegriteFichier(File fichier, String checksumAttendu) {
+        return verifierIntegriteFichier(fichier, checksumAttendu, null);
+    }
+
+    /**
+     * Vérification avec l'empreinte calculée à la réception, sans relire le
+     * fichier. Sans empreinte, le fichier est haché par le FileManager.
+     */
+    private boolean verifierIntegriteFichier(File fichier, String checksumAttendu, Empreinte empreinte) {
+        if (empreinte != null) {
+            return empreinte.getTaille() == fichier.length() && empreinte.getChecksum().equals(checksumAttendu);
+        }
         try {
             String checksumCalcule = fileManager.calculerChecksum(fichier);
             return checksumCalcule.equals(checksumAttendu);
@@ -760,13 +2282,13 @@ public class Peer {
 
     // ==================== SÉRIALISATION ====================
 
-    private byte[] serialiserListeMetadata(List<Metadata> metadatas) {
+    private byte[] serialiserListeMetadata(List<Metadata> metadatas, int version) {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
             writeInt(bos, metadatas.size());
 
             for (Metadata meta : metadatas) {
                 if (meta != null) {
-                    byte[] metaData = meta.serialiser();
+                    byte[] metaData = meta.serialiser(version);
                     writeInt(bos, metaData.length);
                     bos.write(metaData);
                 } else {
@@ -835,33 +2357,6 @@ public class Peer {
         }
     }
 
-    private byte[] lireDonneesBinaires(InputStream in) throws IOException {
-        byte[] lengthBytes = new byte[4];
-        if (in.read(lengthBytes) != 4) {
-            throw new IOException("Impossible de lire la longueur");
-        }
-
-        int length = ByteBuffer.wrap(lengthBytes).getInt();
-        if (length < 0 || length > 10_000_000) { // 10MB max
-            throw new IOException("Longueur de données invalide: " + length);
-        }
-
-        if (length == 0)
-            return new byte[0];
-
-        byte[] data = new byte[length];
-        int totalRead = 0;
-        while (totalRead < length) {
-            int read = in.read(data, totalRead, length - totalRead);
-            if (read == -1) {
-                throw new IOException("Fin de flux inattendue");
-            }
-            totalRead += read;
-        }
-
-        return data;
-    }
-
     private String lireLigne(InputStream in) throws IOException {
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         int b;
@@ -925,7 +2420,7 @@ public class Peer {
 
     // ==================== LOGGING ====================
 
-    private void logInfo(String message) {
+    void logInfo(String message) {
         System.out.println("[INFO] " + message);
     }
 
@@ -1005,11 +2500,17 @@ public class Peer {
         stats.put("pseudo", pseudo);
         stats.put("port", portEcoute);
         stats.put("actif", actif);
+        stats.put("mode_serveur", modeServeur);
+        stats.put("mode_execution", modeExecution);
         stats.put("peers_connus", peersConnus.size());
         stats.put("peers_actifs", peersConnus.stream()
                 .mapToInt(p -> p.estActif(PEER_TIMEOUT_MS) ? 1 : 0).sum());
         stats.put("fichiers_partages", fileManager.listerFichiers().size());
         stats.put("cache_fichiers_peers", cacheFichiersPeers.size());
+        stats.put("connexions_persistantes", poolConnexions.getNombreConnexions());
+        stats.put("fichiers_verrouilles", verrousFichiers.getNombreVerrous());
+        stats.put("connexions_entrantes", controleAdmission.getConnexionsOuvertes());
+        stats.put("transferts_en_cours", controleAdmission.getTransfertsEnCours());
         return stats;
     }
 
@@ -1058,17 +2559,450 @@ public class Peer {
     }
 
     /**
-     * Télécharge un fichier depuis un peer spécifique
-     * 
-     * @param filename Nom du fichier à télécharger
-     * @param ip       Adresse IP du peer distant
-     * @param port     Port du peer distant
-     * @return true si le téléchargement a réussi, false sinon
+     * Télécharge un fichier depuis un peer spécifique. Si le fichier existe
+     * déjà localement, il est mis à jour par synchroniserDepuisPeer.
+     * 
+     * @param filename Nom du fichier à télécharger
+     * @param ip       Adresse IP du peer distant
+     * @param port     Port du peer distant
+     * @return true si le téléchargement a réussi, false sinon
+     */
+    public boolean telechargerFichierDepuisPeer(String filename, String ip, int port) {
+        // Créer un PeerInfo temporaire pour utiliser la méthode existante
+        PeerInfo peer = new PeerInfo(ip, port, "");
+        return telechargerDepuisPeer(peer, filename);
+    }
+
+    /**
+     * Version asynchrone de telechargerFichierDepuisPeer
+     *
+     * @return le suivi du transfert (résultat, annulation, progression)
+     */
+    public Transfert telechargerFichierDepuisPeerAsync(String filename, String ip, int port) {
+        return telechargerDepuisPeerAsync(new PeerInfo(ip, port, ""), filename);
+    }
+
+    /**
+     * Lit les octets [offset, offset + longueur) d'un fichier distant, avec
+     * le checksum et la taille du fichier entier. L'intervalle est tronqué à
+     * la fin du fichier. Si le peer répond BUSY, la lecture est retentée
+     * après le délai qu'il indique.
+     *
+     * @throws IOException si le fichier est introuvable, l'offset au-delà de
+     *                     la fin ou le peer injoignable
+     */
+    public IntervalleFichier lireIntervalle(PeerInfo peer, String nomFichier, long offset, long longueur)
+            throws IOException {
+        if (offset < 0 || longueur < 0 || longueur > MAX_INTERVALLE_MEMOIRE) {
+            throw new IllegalArgumentException("Intervalle invalide: offset " + offset + ", longueur " + longueur);
+        }
+
+        for (int tentative = 1;; tentative++) {
+            try {
+                return lireIntervalleUneFois(peer, nomFichier, offset, longueur);
+            } catch (PeerOccupeException e) {
+                if (tentative >= MAX_TENTATIVES_OCCUPE || !attendre(e.getDelaiReessaiMs()))
+                    throw e;
+            }
+        }
+    }
+
+    private IntervalleFichier lireIntervalleUneFois(PeerInfo peer, String nomFichier, long offset, long longueur)
+            throws IOException {
+        try (ConnexionPeer connexion = new ConnexionPeer(peer, SOCKET_TIMEOUT_MS)) {
+            connexion.setTimeout(30000);
+            Trame.Lecture entete = connexion.echanger(Trame.GET_RANGE,
+                    new Trame.Ecriture().chaine(nomFichier).longue(offset).longue(longueur).toBytes())
+                    .verifierOk().lecture();
+            String checksum = entete.chaine();
+            long tailleFichier = entete.longue();
+            long longueurServie = entete.longue();
+            if (longueurServie < 0 || longueurServie > longueur) {
+                throw new IOException("Longueur d'intervalle inattendue: " + longueurServie);
+            }
+
+            byte[] donnees = new byte[(int) longueurServie];
+            LimiteurDebit.Flux flux = limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, peer.getAdresse());
+            DataInputStream in = new DataInputStream(connexion.getIn());
+            for (int lus = 0; lus < donnees.length;) {
+                int tranche = (int) Math.min(TRANCHE_LIMITEE, donnees.length - lus);
+                in.readFully(donnees, lus, tranche);
+                flux.consommer(tranche);
+                lus += tranche;
+            }
+            return new IntervalleFichier(checksum, tailleFichier, offset, donnees);
+        }
+    }
+
+    /**
+     * Reçoit la pièce [offset, offset + longueur) de nomFichier depuis
+     * source et l'écrit à sa place dans fichier. La connexion reste dans
+     * connexions le temps de la réception, pour pouvoir être fermée par
+     * l'essaim; recus compte les octets au fil de leur arrivée.
+     *
+     * @return false si la source sert une autre version du fichier
+     * @throws PeerOccupeException si la source refuse le transfert (BUSY)
+     */
+    boolean recevoirPiece(PeerInfo source, String nomFichier, String checksum, long offset, long longueur,
+            FileChannel fichier, Set<Closeable> connexions, LongConsumer recus) throws IOException {
+        try (ConnexionPeer connexion = new ConnexionPeer(source, SOCKET_TIMEOUT_MS)) {
+            connexions.add(connexion);
+            try {
+                connexion.setTimeout(30000);
+                Trame reponse = connexion.echanger(Trame.GET_RANGE,
+                        new Trame.Ecriture().chaine(nomFichier).longue(offset).longue(longueur).toBytes());
+                if (reponse.getOpcode() == Trame.BUSY) {
+                    throw new PeerOccupeException(reponse.lecture().entier());
+                }
+                Trame.Lecture entete = reponse.verifierOk().lecture();
+                if (!entete.chaine().equals(checksum))
+                    return false;
+                entete.longue();
+                long longueurServie = entete.longue();
+                if (longueurServie != longueur) {
+                    throw new IOException("Pièce incomplète: " + longueurServie + "/" + longueur + " octets");
+                }
+
+                recevoirIntervalle(connexion.getIn(), connexion.getCanal(), fichier, offset, offset + longueur,
+                        limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, source.getAdresse()), recus, 30000);
+                return true;
+            } finally {
+                connexions.remove(connexion);
+            }
+        }
+    }
+
+    /**
+     * Arbre de Merkle de la version checksum de nomFichier, demandé aux
+     * sources tour à tour et authentifié par la racine annoncée dans leurs
+     * catalogues, relus si aucun ne l'a encore. Sans racine, les hashes ne
+     * sont pas pris: un seul peer pourrait sinon faire échouer les pièces de
+     * tous les autres. Un fichier d'un seul bloc n'en a pas besoin: son
+     * checksum suffit.
+     *
+     * @return null si aucune racine n'est annoncée ou si aucune source ne
+     *         fournit des hashes qui la reconstruisent
+     */
+    private ArbreMerkle obtenirArbreMerkle(List<PeerInfo> sources, String nomFichier, String checksum, long taille) {
+        if (taille <= ArbreMerkle.TAILLE_BLOC)
+            return null;
+
+        String racine = racineAnnoncee(sources, nomFichier, checksum);
+        if (racine.isEmpty()) {
+            sources.forEach(this::mettreAJourCachePeer);
+            racine = racineAnnoncee(sources, nomFichier, checksum);
+        }
+        if (racine.isEmpty()) {
+            logDebug("Aucune racine de Merkle annoncée pour " + nomFichier + ", vérification du fichier entier");
+            return null;
+        }
+        for (PeerInfo source : sources) {
+            ArbreMerkle arbre = recupererArbreMerkle(source, nomFichier, checksum, racine);
+            if (arbre != null && arbre.getTailleFichier() == taille)
+                return arbre;
+        }
+        return null;
+    }
+
+    /**
+     * Hashes des blocs de nomFichier chez source (CHUNK_HASHES)
+     *
+     * @return null si la source ne les fournit pas, sert une autre version
+     *         ou des hashes qui ne correspondent pas à racineAttendue
+     */
+    private String racineAnnoncee(List<PeerInfo> sources, String nomFichier, String checksum) {
+        for (PeerInfo source : sources) {
+            Metadata meta = metadataChez(source, nomFichier);
+            if (meta != null && meta.aRacineMerkle() && checksum.equals(meta.getChecksum()))
+                return meta.getRacineMerkle();
+        }
+        return "";
+    }
+
+    private ArbreMerkle recupererArbreMerkle(PeerInfo source, String nomFichier, String checksum,
+            String racineAttendue) {
+        try {
+            return poolConnexions.executer(source, SOCKET_TIMEOUT_MS, connexion -> {
+                Trame reponse = connexion.echanger(Trame.CHUNK_HASHES,
+                        new Trame.Ecriture().chaine(nomFichier).toBytes());
+                if (reponse.getOpcode() != Trame.OK)
+                    return null;
+                Trame.Lecture lecture = reponse.lecture();
+                if (!lecture.chaine().equals(checksum))
+                    return null;
+                ArbreMerkle arbre = ArbreMerkle.lire(lecture);
+                if (!arbre.getRacine().equals(racineAttendue)) {
+                    logInfo(source + " fournit pour " + nomFichier + " des hashes qui ne correspondent pas à sa racine");
+                    return null;
+                }
+                return arbre;
+            });
+        } catch (IOException | IllegalArgumentException e) {
+            logDebug("Hashes des blocs de " + nomFichier + " indisponibles chez " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checksum final faux: seuls les blocs qui ne correspondent pas à l'arbre
+     * de Merkle sont redemandés aux sources, au lieu de tout retélécharger.
+     * Sans arbre, il est d'abord demandé aux sources.
+     *
+     * @return true si le fichier est réparé et vérifié
+     */
+    private boolean reparerFichier(File fichierPartiel, String nomFichier, String checksum, long taille,
+            ArbreMerkle arbre, List<PeerInfo> sources) {
+        if (arbre == null) {
+            arbre = obtenirArbreMerkle(sources, nomFichier, checksum, taille);
+        }
+        if (arbre == null || arbre.getTailleFichier() != taille)
+            return false;
+
+        try (FileChannel fichier = new RandomAccessFile(fichierPartiel, "rw").getChannel()) {
+            List<Integer> corrompus = arbre.blocsCorrompus(fichier);
+            logInfo(nomFichier + ": " + corrompus.size() + " bloc(s) corrompu(s) sur " + arbre.getNombreBlocs()
+                    + ", redemandé(s)");
+            Set<Closeable> connexions = ConcurrentHashMap.newKeySet();
+            for (int bloc : corrompus) {
+                boolean refait = false;
+                for (Iterator<PeerInfo> it = sources.iterator(); !refait && it.hasNext();) {
+                    PeerInfo source = it.next();
+                    try {
+                        refait = recevoirPiece(source, nomFichier, checksum, arbre.debutBloc(bloc),
+                                arbre.longueurBloc(bloc), fichier, connexions, recus -> {
+                                }) && arbre.verifierBloc(fichier, bloc);
+                    } catch (IOException e) {
+                        logDebug("Bloc " + bloc + " indisponible chez " + source + ": " + e.getMessage());
+                    }
+                }
+                if (!refait) {
+                    logError("Bloc " + bloc + " de " + nomFichier + " irrécupérable");
+                    return false;
+                }
+            }
+            fichier.force(false);
+        } catch (IOException e) {
+            logError("Réparation de " + nomFichier + " impossible", e);
+            return false;
+        }
+        fileManager.invaliderCache(fichierPartiel);
+        return verifierIntegriteFichier(fichierPartiel, checksum);
+    }
+
+    /**
+     * Met à jour un fichier local depuis la version d'un peer distant en ne
+     * transférant que ses différences (DELTA). La nouvelle version est
+     * reconstruite à côté puis remplace le fichier local, au lieu d'une
+     * copie sous un nouveau nom. Sans version locale, le fichier est
+     * téléchargé entièrement.
+     *
+     * @return true si le fichier local est à jour et vérifié
+     */
+    public boolean synchroniserDepuisPeer(String nomFichier, String ip, int port) {
+        if (!existeLocalement(nomFichier))
+            return telechargerFichierDepuisPeer(nomFichier, ip, port);
+
+        PeerInfo source = new PeerInfo(ip, port, "");
+        return synchroniser(source, nomFichier, new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, source));
+    }
+
+    private boolean existeLocalement(String nomFichier) {
+        return estNomFichierValide(nomFichier) && new File(dossierPartage, nomFichier).isFile();
+    }
+
+    private boolean synchroniser(PeerInfo source, String nomFichier, Transfert suivi) {
+        File fichierLocal = new File(dossierPartage, nomFichier);
+        for (int tentative = 1;; tentative++) {
+            try {
+                return synchroniserUneFois(source, nomFichier, fichierLocal, suivi);
+            } catch (PeerOccupeException e) {
+                if (tentative >= MAX_TENTATIVES_OCCUPE || !attendre(e.getDelaiReessaiMs())) {
+                    logInfo(source + " toujours occupé, abandon de la synchronisation de " + nomFichier);
+                    return false;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private boolean synchroniserUneFois(PeerInfo source, String nomFichier, File fichierLocal, Transfert suivi)
+            throws PeerOccupeException {
+        File reconstruction = new File(dossierPartage, nomFichier + EXTENSION_DELTA);
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.ecriture(fichierLocal);
+                ConnexionPeer connexion = new ConnexionPeer(source, SOCKET_TIMEOUT_MS)) {
+            connexion.setTimeout(30000);
+            String checksumLocal = fileManager.calculerChecksum(fichierLocal);
+            DeltaFichier.Signatures signatures = DeltaFichier.signer(fichierLocal,
+                    DeltaFichier.tailleBloc(fichierLocal.length()));
+
+            Trame.Ecriture demande = new Trame.Ecriture().chaine(nomFichier).chaine(checksumLocal);
+            signatures.ecrire(demande);
+            Trame reponse = connexion.echanger(Trame.DELTA, demande.toBytes());
+            if (reponse.getOpcode() == Trame.BUSY) {
+                throw new PeerOccupeException(reponse.lecture().entier());
+            }
+            if (reponse.getOpcode() != Trame.OK) {
+                logError("Erreur lors de la demande de delta: " + reponse.getMessageErreur());
+                return false;
+            }
+            Trame.Lecture entete = reponse.lecture();
+            String checksum = entete.chaine();
+            long taille = entete.longue();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connexion.getIn(), (int) TRANCHE_LIMITEE));
+            if (checksum.equals(checksumLocal)) {
+                in.readByte(); // FIN
+                suivi.demarrer(taille, taille);
+                logInfo("Fichier déjà à jour: " + nomFichier);
+                return true;
+            }
+
+            suivi.demarrer(taille);
+            long litteraux;
+            Empreinte empreinte = new Empreinte();
+            try (RandomAccessFile versionLocale = new RandomAccessFile(fichierLocal, "r");
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(reconstruction),
+                            (int) TRANCHE_LIMITEE)) {
+                litteraux = DeltaFichier.reconstruire(in, versionLocale, signatures.tailleBloc, empreinte.sur(out),
+                        limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, source.getAdresse()), suivi);
+            }
+
+            if (reconstruction.length() != taille || !verifierIntegriteFichier(reconstruction, checksum, empreinte)) {
+                logError("Erreur checksum pour la version reconstruite de " + nomFichier);
+                reconstruction.delete();
+                return false;
+            }
+            if (!reconstruction.renameTo(fichierLocal)
+                    && !(fichierLocal.delete() && reconstruction.renameTo(fichierLocal))) {
+                logError("Impossible de remplacer " + nomFichier + " par sa nouvelle version");
+                reconstruction.delete();
+                return false;
+            }
+            fileManager.enregistrerEmpreinte(fichierLocal, empreinte);
+
+            logInfo("Fichier synchronisé: " + nomFichier + " (" + litteraux + "/" + taille + " octets transférés)");
+            catalogueModifie();
+            return true;
+        } catch (PeerOccupeException e) {
+            throw e;
+        } catch (Exception e) {
+            logError("Erreur lors de la synchronisation de " + nomFichier + " depuis " + source, e);
+            reconstruction.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Télécharge plusieurs fichiers d'un peer sur une seule connexion par
+     * lot (GET_MANY). Chaque fichier est vérifié par son checksum; un fichier
+     * introuvable ou corrompu n'interrompt pas les suivants.
+     *
+     * @param noms Noms des fichiers distants
+     * @param ip   Adresse IP du peer distant
+     * @param port Port du peer distant
+     * @return le bilan par fichier, avec le nom local de chaque fichier reçu
      */
-    public boolean telechargerFichierDepuisPeer(String filename, String ip, int port) {
-        // Créer un PeerInfo temporaire pour utiliser la méthode existante
-        PeerInfo peer = new PeerInfo(ip, port, "");
-        return telechargerDepuisPeer(peer, filename);
+    public BilanTransferts telechargerFichiersDepuisPeer(List<String> noms, String ip, int port) {
+        PeerInfo source = new PeerInfo(ip, port, "");
+        BilanTransferts bilan = new BilanTransferts();
+        List<String> demandes = new ArrayList<>();
+        for (String nom : noms) {
+            if (estNomFichierValide(nom)) {
+                demandes.add(nom);
+            } else {
+                bilan.echec(nom, "nom de fichier invalide");
+            }
+        }
+
+        for (int debut = 0; debut < demandes.size(); debut += MAX_FICHIERS_SESSION) {
+            List<String> lot = demandes.subList(debut, Math.min(demandes.size(), debut + MAX_FICHIERS_SESSION));
+            for (int tentative = 1;; tentative++) {
+                try {
+                    telechargerLot(lot, source, bilan);
+                    break;
+                } catch (PeerOccupeException e) {
+                    if (tentative < MAX_TENTATIVES_OCCUPE && attendre(e.getDelaiReessaiMs()))
+                        continue;
+                    lot.forEach(nom -> bilan.echec(nom, "peer occupé"));
+                    break;
+                } catch (IOException e) {
+                    logError("Erreur lors du téléchargement groupé depuis " + ip + ":" + port, e);
+                    lot.stream()
+                            .filter(nom -> !bilan.contient(nom))
+                            .forEach(nom -> bilan.echec(nom, String.valueOf(e.getMessage())));
+                    break;
+                }
+            }
+        }
+
+        if (!bilan.getReussites().isEmpty()) {
+            catalogueModifie();
+        }
+        logInfo("Téléchargement groupé terminé: " + bilan);
+        return bilan;
+    }
+
+    /**
+     * Un GET_MANY: chaque fichier est reçu dans son fichier de travail puis
+     * renommé une fois son checksum vérifié
+     *
+     * @throws PeerOccupeException si le peer refuse la requête (BUSY)
+     */
+    @SuppressWarnings("try")
+    private void telechargerLot(List<String> noms, PeerInfo source, BilanTransferts bilan) throws IOException {
+        Trame.Ecriture demande = new Trame.Ecriture().entier(noms.size());
+        noms.forEach(demande::chaine);
+
+        try (ConnexionPeer connexion = new ConnexionPeer(source, SOCKET_TIMEOUT_MS)) {
+            connexion.setTimeout(30000);
+            Trame requete = connexion.envoyer(Trame.GET_MANY, demande.toBytes());
+            Trame reponse = connexion.lireReponse(requete);
+            if (reponse.getOpcode() == Trame.BUSY) {
+                throw new PeerOccupeException(reponse.lecture().entier());
+            }
+            reponse.verifierOk();
+
+            LimiteurDebit.Flux flux = limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, source.getAdresse());
+            for (String nom : noms) {
+                Trame entree = connexion.lireReponse(requete);
+                if (entree.getOpcode() != Trame.OK) {
+                    bilan.echec(nom, entree.getMessageErreur());
+                    continue;
+                }
+                Trame.Lecture entete = entree.lecture();
+                String checksum = entete.chaine();
+                long taille = entete.longue();
+
+                File fichierPartiel = new File(dossierPartage, nom + EXTENSION_LOT);
+                Empreinte empreinte;
+                try (VerrousFichiers.Verrou verrou = verrousFichiers.ecriture(fichierPartiel)) {
+                    Transfert suivi = new Transfert(Transfert.Type.TELECHARGEMENT, nom, source);
+                    suivi.demarrer(taille);
+                    empreinte = recevoirFichier(connexion.getIn(), connexion.getCanal(), flux, suivi, fichierPartiel,
+                            0, taille, nom, 30000, null);
+                } catch (IOException e) {
+                    fichierPartiel.delete();
+                    throw e;
+                }
+
+                if (!verifierIntegriteFichier(fichierPartiel, checksum, empreinte)) {
+                    fichierPartiel.delete();
+                    bilan.echec(nom, "checksum invalide");
+                    continue;
+                }
+                File fichierLocal = new File(dossierPartage, nom);
+                if (fichierLocal.exists()) {
+                    fichierLocal = new File(dossierPartage, genererNomUnique(fichierLocal));
+                }
+                if (fichierPartiel.renameTo(fichierLocal)) {
+                    fileManager.enregistrerEmpreinte(fichierLocal, empreinte);
+                    bilan.reussite(nom, fichierLocal.getName());
+                } else {
+                    fichierPartiel.delete();
+                    bilan.echec(nom, "impossible de renommer le fichier partiel");
+                }
+            }
+        }
     }
 
     /**
@@ -1092,19 +3026,12 @@ public class Peer {
      * Méthode interne pour obtenir les métadonnées complètes
      */
     private List<Metadata> listerFichiersPeerDistantAvecMetadata(String ip, int port) {
-        try (Socket socket = new Socket(ip, port)) {
-            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
-
-            try (OutputStream out = socket.getOutputStream();
-                    InputStream in = socket.getInputStream()) {
-
-                out.write("LIST\n".getBytes(StandardCharsets.UTF_8));
-                out.flush();
+        try {
+            byte[] data = poolConnexions.executer(new PeerInfo(ip, port, ""), SOCKET_TIMEOUT_MS,
+                    connexion -> connexion.echanger(Trame.LIST, demandeListe()).verifierOk().getPayload());
 
-                byte[] data = lireDonneesBinaires(in);
-                if (data.length > 0) {
-                    return deserialiserListeMetadata(data);
-                }
+            if (data.length > 0) {
+                return deserialiserListeMetadata(data);
             }
         } catch (Exception e) {
             logError("Erreur lors de la récupération des fichiers du peer " + ip + ":" + port, e);
@@ -1141,7 +3068,8 @@ public class Peer {
     }
 
     /**
-     * Télécharge un fichier depuis le réseau P2P
+     * Télécharge un fichier depuis le réseau P2P. Si le fichier existe déjà
+     * localement, il est mis à jour par delta depuis un des peers qui l'ont.
      * 
      * @param nomFichier Le nom du fichier à télécharger
      * @return true si le téléchargement a réussi, false sinon
@@ -1157,31 +3085,264 @@ public class Peer {
 
         logInfo("Fichier trouvé chez " + peersAvecFichier.size() + " peer(s)");
 
+        List<PeerInfo> sources = new ArrayList<>();
         for (String peerId : peersAvecFichier) {
             // Découper l'identifiant "ip:port"
             String[] parts = peerId.split(":");
             if (parts.length != 2)
                 continue;
 
-            String ip = parts[0];
-            int port;
             try {
-                port = Integer.parseInt(parts[1]);
+                sources.add(new PeerInfo(parts[0], Integer.parseInt(parts[1]), ""));
             } catch (NumberFormatException e) {
                 continue;
             }
+        }
 
-            logInfo("Tentative de téléchargement depuis " + peerId);
-            if (telechargerFichierDepuisPeer(nomFichier, ip, port)) {
-                mettreAJourCacheComplet();
-                return true;
+        // Version locale existante: mise à jour par delta depuis la première
+        // source qui répond, plutôt qu'une copie "(1)"
+        if (existeLocalement(nomFichier)) {
+            for (PeerInfo source : sources) {
+                Transfert suivi = new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, source);
+                if (synchroniser(source, nomFichier, suivi)) {
+                    mettreAJourCacheComplet();
+                    return true;
+                }
+            }
+            logInfo("Échec de la synchronisation depuis tous les peers");
+            return false;
+        }
+
+        // Reprise: les sources d'un téléchargement interrompu passent en tête
+        JournalTelechargement journal = JournalTelechargement.charger(dossierPartage, nomFichier);
+        if (journal != null) {
+            List<PeerInfo> precedentes = journal.getSources();
+            precedentes.retainAll(sources);
+            sources.removeAll(precedentes);
+            sources.addAll(0, precedentes);
+        }
+
+        // Catalogues où le fichier attend encore son checksum: relus, le
+        // temps d'un hachage court, avant de choisir la version
+        for (int relecture = 0; relecture < MAX_RELECTURES_EN_ATTENTE; relecture++) {
+            List<PeerInfo> enAttente = sources.stream()
+                    .filter(source -> estEnAttenteChez(source, nomFichier))
+                    .collect(Collectors.toList());
+            if (enAttente.isEmpty() || relecture > 0 && !attendre(DELAI_RELECTURE_EN_ATTENTE_MS))
+                break;
+            enAttente.forEach(this::mettreAJourCachePeer);
+        }
+
+        // Plusieurs détenteurs de la même version: téléchargement en essaim
+        Metadata version = choisirVersion(nomFichier, sources, journal);
+        if (version != null && obtenirDepuisContenuLocal(nomFichier, version) != null) {
+            return true;
+        }
+        if (version != null && version.getTaille() > TAILLE_PIECE) {
+            // Un même peer peut être connu sous plusieurs noms (localhost, 127.0.0.1)
+            Set<String> adresses = new HashSet<>();
+            List<PeerInfo> detenteurs = sources.stream()
+                    .filter(source -> version.getChecksum().equals(checksumChez(source, nomFichier)))
+                    .filter(source -> adresses.add(adresseResolue(source)))
+                    .collect(Collectors.toList());
+            if (detenteurs.size() >= 2
+                    || !detenteurs.isEmpty() && fluxParPeer > 1 && version.getTaille() >= SEUIL_FLUX_PARALLELES) {
+                logInfo("Téléchargement en essaim depuis " + detenteurs.size() + " peer(s)");
+                Transfert transfert = new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, detenteurs.get(0));
+                if (telechargerEnEssaim(nomFichier, detenteurs, version.getChecksum(), version.getTaille(),
+                        transfert)) {
+                    mettreAJourCacheComplet();
+                    return true;
+                }
+                logInfo("Essaim incomplet, reprise source par source");
+            }
+        }
+
+        // Une source occupée est laissée de côté au profit des suivantes, puis
+        // retentée après le plus court délai demandé si aucune n'a abouti
+        for (int tour = 1; !sources.isEmpty(); tour++) {
+            List<PeerInfo> occupees = new ArrayList<>();
+            int delaiMin = Integer.MAX_VALUE;
+
+            for (PeerInfo source : sources) {
+                logInfo("Tentative de téléchargement depuis " + source.getAdresse() + ":" + source.getPort());
+                try {
+                    Transfert transfert = new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, source);
+                    if (telechargerDepuisPeerUneFois(source, nomFichier, transfert)) {
+                        mettreAJourCacheComplet();
+                        return true;
+                    }
+                } catch (PeerOccupeException e) {
+                    logInfo("Source occupée: " + e.getMessage());
+                    occupees.add(source);
+                    delaiMin = Math.min(delaiMin, e.getDelaiReessaiMs());
+                }
             }
+
+            if (occupees.isEmpty() || tour >= MAX_TENTATIVES_OCCUPE || !attendre(delaiMin))
+                break;
+            sources = occupees;
         }
 
         logInfo("Échec du téléchargement depuis tous les peers");
         return false;
     }
 
+    /**
+     * Télécharge un contenu désigné par son checksum, quel que soit le nom
+     * sous lequel les peers le partagent. Rien n'est transféré si le dossier
+     * partagé a déjà ce contenu.
+     *
+     * @return le fichier local qui a ce contenu, null en cas d'échec
+     */
+    public File telechargerParChecksum(String checksum) {
+        File existant = fileManager.trouverParChecksum(checksum);
+        if (existant != null) {
+            logInfo("Contenu déjà présent: " + existant.getName());
+            return existant;
+        }
+
+        // Détenteurs du contenu, regroupés par nom
+        Map<String, List<PeerInfo>> detenteursParNom = new HashMap<>();
+        Map<String, Metadata> versions = new HashMap<>();
+        Set<String> adresses = new HashSet<>();
+        for (PeerInfo peer : peersConnus) {
+            List<Metadata> fichiers = cacheFichiersPeers.get(peer.getAdresse() + ":" + peer.getPort());
+            if (fichiers == null || !peer.estActif(PEER_TIMEOUT_MS) || !adresses.add(adresseResolue(peer)))
+                continue;
+            for (Metadata meta : fichiers) {
+                if (checksum.equals(meta.getChecksum())) {
+                    detenteursParNom.computeIfAbsent(meta.getNom(), nom -> new ArrayList<>()).add(peer);
+                    versions.put(meta.getNom(), meta);
+                    break;
+                }
+            }
+        }
+        if (detenteursParNom.isEmpty()) {
+            logInfo("Contenu " + checksum + " introuvable sur le réseau");
+            return null;
+        }
+
+        // Le nom le plus partagé, et ses détenteurs
+        String nomFichier = Collections.max(detenteursParNom.entrySet(),
+                Comparator.comparingInt(entree -> entree.getValue().size())).getKey();
+        List<PeerInfo> detenteurs = detenteursParNom.get(nomFichier);
+        Metadata version = versions.get(nomFichier);
+        long taille = version.getTaille();
+
+        // Contenu local pas encore haché: seuls les fichiers de cette taille sont hachés
+        existant = fileManager.trouverParChecksum(checksum, taille, version.getHachageRapide());
+        if (existant != null) {
+            logInfo("Contenu déjà présent: " + existant.getName());
+            return existant;
+        }
+
+        boolean telecharge = false;
+        if (detenteurs.size() >= 2 && taille > TAILLE_PIECE) {
+            Transfert transfert = new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, detenteurs.get(0));
+            telecharge = telechargerEnEssaim(nomFichier, detenteurs, checksum, taille, transfert);
+        }
+        for (Iterator<PeerInfo> it = detenteurs.iterator(); !telecharge && it.hasNext();) {
+            PeerInfo source = it.next();
+            try {
+                telecharge = telechargerDepuisPeerUneFois(source, nomFichier,
+                        new Transfert(Transfert.Type.TELECHARGEMENT, nomFichier, source));
+            } catch (PeerOccupeException e) {
+                logInfo("Source occupée: " + e.getMessage());
+            }
+        }
+
+        // La source peut avoir changé le fichier depuis son dernier catalogue
+        File fichier = telecharge ? fileManager.trouverParChecksum(checksum, taille, null) : null;
+        if (telecharge && fichier == null) {
+            logError(nomFichier + " a changé chez ses détenteurs, contenu " + checksum + " introuvable");
+        }
+        return fichier;
+    }
+
+    /**
+     * Version de nomFichier à télécharger d'après les catalogues des sources:
+     * celle d'un téléchargement interrompu si une source l'a encore, sinon
+     * celle du plus grand nombre de sources
+     */
+    private Metadata choisirVersion(String nomFichier, List<PeerInfo> sources, JournalTelechargement journal) {
+        Map<String, Metadata> versions = new HashMap<>();
+        Map<String, Integer> detenteurs = new HashMap<>();
+        for (PeerInfo source : sources) {
+            List<Metadata> fichiers = cacheFichiersPeers.get(source.getAdresse() + ":" + source.getPort());
+            if (fichiers == null)
+                continue;
+            for (Metadata meta : fichiers) {
+                if (meta.getNom().equals(nomFichier) && !meta.estEnAttente()) {
+                    if (journal != null && journal.correspond(meta.getChecksum(), meta.getTaille()))
+                        return meta;
+                    versions.putIfAbsent(meta.getChecksum(), meta);
+                    detenteurs.merge(meta.getChecksum(), 1, Integer::sum);
+                }
+            }
+        }
+        return detenteurs.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .map(entree -> versions.get(entree.getKey()))
+                .orElse(null);
+    }
+
+    private static String adresseResolue(PeerInfo peer) {
+        try {
+            return InetAddress.getByName(peer.getAdresse()).getHostAddress() + ":" + peer.getPort();
+        } catch (UnknownHostException e) {
+            return peer.getAdresse() + ":" + peer.getPort();
+        }
+    }
+
+    private String checksumChez(PeerInfo source, String nomFichier) {
+        Metadata meta = metadataChez(source, nomFichier);
+        return meta != null ? meta.getChecksum() : null;
+    }
+
+    private boolean estEnAttenteChez(PeerInfo source, String nomFichier) {
+        List<Metadata> fichiers = cacheFichiersPeers.get(source.getAdresse() + ":" + source.getPort());
+        return fichiers != null
+                && fichiers.stream().anyMatch(meta -> meta.getNom().equals(nomFichier) && meta.estEnAttente());
+    }
+
+    /**
+     * Métadonnées de nomFichier dans le dernier catalogue reçu de source,
+     * null si ce fichier y est encore en attente de hachage
+     */
+    private Metadata metadataChez(PeerInfo source, String nomFichier) {
+        List<Metadata> fichiers = cacheFichiersPeers.get(source.getAdresse() + ":" + source.getPort());
+        if (fichiers == null)
+            return null;
+        return fichiers.stream()
+                .filter(meta -> meta.getNom().equals(nomFichier) && !meta.estEnAttente())
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Fichiers dont le téléchargement a été interrompu et peut être repris
+     * en relançant simplement le téléchargement
+     */
+    public List<String> getTelechargementsInterrompus() {
+        return JournalTelechargement.lister(dossierPartage);
+    }
+
+    /**
+     * Attend le délai demandé par un peer occupé
+     *
+     * @return false si le thread a été interrompu
+     */
+    private boolean attendre(long delaiMs) {
+        try {
+            Thread.sleep(delaiMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Supprime un fichier du dossier de partage.
      *
@@ -1200,6 +3361,7 @@ public class Peer {
         if (deleted) {
             // Notifier les autres peers que le fichier a été supprimé
             mettreAJourCacheComplet();
+            catalogueModifie();
         }
         return deleted;
     }
@@ -1233,6 +3395,25 @@ public class Peer {
      * @return true si l'upload a réussi, false sinon
      */
     public boolean uploaderFichierVersPeer(String filename, String targetIp, int targetPort) {
+        PeerInfo cible = new PeerInfo(targetIp, targetPort, "");
+        return uploaderFichierVersPeer(filename, cible, new Transfert(Transfert.Type.UPLOAD, filename, cible));
+    }
+
+    /**
+     * Version asynchrone de uploaderFichierVersPeer
+     *
+     * @return le suivi du transfert (résultat, annulation, progression)
+     */
+    public Transfert uploaderFichierVersPeerAsync(String filename, String targetIp, int targetPort) {
+        PeerInfo cible = new PeerInfo(targetIp, targetPort, "");
+        Transfert transfert = new Transfert(Transfert.Type.UPLOAD, filename, cible);
+        lancerTransfert(transfert, () -> uploaderFichierVersPeer(filename, cible, transfert));
+        return transfert;
+    }
+
+    private boolean uploaderFichierVersPeer(String filename, PeerInfo cible, Transfert transfert) {
+        String targetIp = cible.getAdresse();
+        int targetPort = cible.getPort();
         File fichierLocal = new File(dossierPartage, filename);
 
         if (!fichierLocal.exists() || !fichierLocal.isFile()) {
@@ -1240,46 +3421,162 @@ public class Peer {
             return false;
         }
 
-        try (Socket socket = new Socket(targetIp, targetPort)) {
-            socket.setSoTimeout(30000);
+        try (ConnexionPeer connexion = new ConnexionPeer(cible, SOCKET_TIMEOUT_MS);
+                InputStream fileIn = new FileInputStream(fichierLocal)) {
+            connexion.setTimeout(30000);
+            transfert.attacher(connexion);
 
-            try (InputStream fileIn = new FileInputStream(fichierLocal);
-                    OutputStream socketOut = socket.getOutputStream();
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            // Calculer le checksum du fichier
+            String checksum = fileManager.calculerChecksum(fichierLocal);
+            long taille = fichierLocal.length();
 
-                // Calculer le checksum du fichier
-                String checksum = fileManager.calculerChecksum(fichierLocal);
-                long taille = fichierLocal.length();
+            // Envoyer la requête UPLOAD avec les métadonnées
+            Trame requete = connexion.envoyer(Trame.UPLOAD,
+                    new Trame.Ecriture().chaine(filename).longue(taille).chaine(checksum).toBytes());
 
-                // Envoyer la commande UPLOAD avec les métadonnées
-                out.println("UPLOAD " + filename + " " + taille + " " + checksum);
+            // Lire la réponse du serveur
+            Trame reponse = connexion.lireReponse(requete);
+            if (reponse.getOpcode() != Trame.OK) {
+                logError("Peer distant pas prêt à recevoir: " + reponse.getMessageErreur());
+                return false;
+            }
 
-                // Lire la réponse du serveur
-                String reponse = in.readLine();
-                if (reponse == null || !reponse.startsWith("READY")) {
-                    logError("Peer distant pas prêt à recevoir: " + reponse);
-                    return false;
+            // Envoyer le fichier
+            logInfo("Début de l'upload de " + filename + " vers " + targetIp + ":" + targetPort);
+            transfert.demarrer(taille);
+            copierAvecProgressionUpload(fileIn, connexion.getOut(), taille, filename,
+                    limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, targetIp), transfert);
+            connexion.getOut().flush();
+
+            // Attendre confirmation
+            Trame confirmation = connexion.lireReponse(requete);
+            if (confirmation.getOpcode() == Trame.OK) {
+                logInfo("Upload réussi: " + filename);
+                return true;
+            } else {
+                logError("Échec de l'upload: " + confirmation.getMessageErreur());
+                return false;
+            }
+        } catch (Exception e) {
+            if (transfert.estAnnule()) {
+                logInfo("Upload annulé: " + filename);
+            } else {
+                logError("Erreur lors de l'upload vers " + targetIp + ":" + targetPort, e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Upload plusieurs fichiers vers un peer sur une seule connexion par
+     * session: un manifeste, les contenus bout à bout, puis un bilan unique
+     * qui donne le résultat de chaque fichier
+     *
+     * @param noms       Noms des fichiers locaux à envoyer
+     * @param targetIp   Adresse IP du peer destinataire
+     * @param targetPort Port du peer destinataire
+     * @return le bilan par fichier; un fichier local introuvable y figure en échec
+     */
+    public BilanTransferts uploaderFichiersVersPeer(List<String> noms, String targetIp, int targetPort) {
+        PeerInfo cible = new PeerInfo(targetIp, targetPort, "");
+        BilanTransferts bilan = new BilanTransferts();
+        List<File> fichiers = new ArrayList<>();
+        Map<File, String> checksums = new HashMap<>();
+        for (String nom : noms) {
+            File fichier = new File(dossierPartage, nom);
+            if (!fichier.isFile()) {
+                bilan.echec(nom, "fichier local introuvable");
+                continue;
+            }
+            try {
+                checksums.put(fichier, fileManager.calculerChecksum(fichier));
+                fichiers.add(fichier);
+            } catch (Exception e) {
+                bilan.echec(nom, "fichier local illisible: " + e.getMessage());
+            }
+        }
+
+        for (int debut = 0; debut < fichiers.size(); debut += MAX_FICHIERS_SESSION) {
+            List<File> lot = fichiers.subList(debut, Math.min(fichiers.size(), debut + MAX_FICHIERS_SESSION));
+            for (int tentative = 1;; tentative++) {
+                try {
+                    uploaderSession(lot, checksums, cible, bilan);
+                    break;
+                } catch (PeerOccupeException e) {
+                    if (tentative < MAX_TENTATIVES_OCCUPE && attendre(e.getDelaiReessaiMs()))
+                        continue;
+                    lot.forEach(fichier -> bilan.echec(fichier.getName(), "peer occupé"));
+                    break;
+                } catch (IOException e) {
+                    logError("Erreur lors de la session d'upload vers " + targetIp + ":" + targetPort, e);
+                    lot.stream()
+                            .filter(fichier -> !bilan.contient(fichier.getName()))
+                            .forEach(fichier -> bilan.echec(fichier.getName(), String.valueOf(e.getMessage())));
+                    break;
                 }
+            }
+        }
 
-                // Envoyer le fichier
-                logInfo("Début de l'upload de " + filename + " vers " + targetIp + ":" + targetPort);
-                copierAvecProgressionUpload(fileIn, socketOut, taille, filename);
+        logInfo("Session d'upload terminée: " + bilan);
+        return bilan;
+    }
 
-                // Attendre confirmation
-                String confirmation = in.readLine();
-                if ("SUCCESS".equals(confirmation)) {
-                    logInfo("Upload réussi: " + filename);
-                    return true;
-                } else {
-                    logError("Échec de l'upload: " + confirmation);
-                    return false;
+    /**
+     * Une session d'upload: manifeste, contenus des fichiers acceptés puis bilan
+     *
+     * @throws PeerOccupeException si le peer refuse la session (BUSY)
+     */
+    private void uploaderSession(List<File> fichiers, Map<File, String> checksums, PeerInfo cible,
+            BilanTransferts bilan) throws IOException {
+        long[] tailles = new long[fichiers.size()];
+        Trame.Ecriture manifeste = new Trame.Ecriture().entier(fichiers.size());
+        for (int i = 0; i < fichiers.size(); i++) {
+            File fichier = fichiers.get(i);
+            tailles[i] = fichier.length();
+            manifeste.chaine(fichier.getName()).longue(tailles[i]).chaine(checksums.get(fichier));
+        }
+
+        try (ConnexionPeer connexion = new ConnexionPeer(cible, SOCKET_TIMEOUT_MS)) {
+            connexion.setTimeout(30000);
+            Trame requete = connexion.envoyer(Trame.UPLOAD_SESSION, manifeste.toBytes());
+            Trame reponse = connexion.lireReponse(requete);
+            if (reponse.getOpcode() == Trame.BUSY) {
+                throw new PeerOccupeException(reponse.lecture().entier());
+            }
+            byte[] acceptes = reponse.verifierOk().lecture().octets();
+            if (acceptes.length != fichiers.size()) {
+                throw new IOException("Réponse invalide: " + acceptes.length + " acceptations pour "
+                        + fichiers.size() + " fichiers");
+            }
+
+            // Contenus bout à bout, une seule vidange à la fin
+            LimiteurDebit.Flux flux = limiteurDebit.flux(LimiteurDebit.Sens.ENVOI, cible.getAdresse());
+            OutputStream out = new BufferedOutputStream(connexion.getOut(), (int) TRANCHE_LIMITEE);
+            for (int i = 0; i < fichiers.size(); i++) {
+                if (acceptes[i] == 0)
+                    continue;
+                File fichier = fichiers.get(i);
+                try (InputStream in = new FileInputStream(fichier)) {
+                    copierAvecProgressionUpload(in, out, tailles[i], fichier.getName(), flux,
+                            new Transfert(Transfert.Type.UPLOAD, fichier.getName(), cible));
                 }
+            }
+            out.flush();
 
+            Trame.Lecture resultats = connexion.lireReponse(requete).verifierOk().lecture();
+            int nb = resultats.entier();
+            if (nb != fichiers.size()) {
+                throw new IOException("Bilan invalide: " + nb + " résultats pour " + fichiers.size() + " fichiers");
+            }
+            for (int i = 0; i < nb; i++) {
+                boolean recu = resultats.entier() == 1;
+                String detail = resultats.chaine();
+                if (recu) {
+                    bilan.reussite(fichiers.get(i).getName(), detail);
+                } else {
+                    bilan.echec(fichiers.get(i).getName(), detail);
+                }
             }
-        } catch (Exception e) {
-            logError("Erreur lors de l'upload vers " + targetIp + ":" + targetPort, e);
-            return false;
         }
     }
 
@@ -1287,16 +3584,17 @@ public class Peer {
      * Copie un fichier avec affichage de progression pour l'upload
      */
     private void copierAvecProgressionUpload(InputStream source, OutputStream destination,
-            long taille, String nomFichier) throws IOException {
+            long taille, String nomFichier, LimiteurDebit.Flux flux, Transfert suivi) throws IOException {
         byte[] buffer = new byte[BUFFER_SIZE];
         long totalEnvoye = 0;
         int lu;
 
         while (totalEnvoye < taille && (lu = source.read(buffer, 0,
                 (int) Math.min(buffer.length, taille - totalEnvoye))) != -1) {
+            flux.consommer(lu);
             destination.write(buffer, 0, lu);
-            destination.flush();
             totalEnvoye += lu;
+            suivi.avancer(lu);
 
             // Afficher progression pour gros fichiers
             if (taille > 1024 * 1024 && totalEnvoye % (1024 * 1024) == 0) {
@@ -1304,6 +3602,10 @@ public class Peer {
                 System.out.print("\rUpload " + nomFichier + ": " + progression + "%");
             }
         }
+        if (totalEnvoye < taille) {
+            // Le destinataire attend taille octets: le flux serait désynchronisé
+            throw new EOFException(nomFichier + " raccourci pendant l'envoi: " + totalEnvoye + "/" + taille);
+        }
 
         if (taille > 1024 * 1024) {
             System.out.println(); // Nouvelle ligne après progression
@@ -1313,27 +3615,44 @@ public class Peer {
     /**
      * Gère la réception d'un fichier uploadé par un peer distant
      */
-    private void handleUploadFile(String[] parts, InputStream socketIn, PrintWriter out) {
+    private void handleUploadFile(String[] parts, InetAddress adresseDistante, InputStream socketIn,
+            PrintWriter out) {
         if (parts.length < 4) {
             out.println("ERREUR: commande UPLOAD invalide (format: UPLOAD filename size checksum)");
             return;
         }
 
-        String nomFichier = parts[1];
         long tailleFichier;
-        String checksumAttendu = parts[3];
-
         try {
             tailleFichier = Long.parseLong(parts[2]);
-            if (tailleFichier < 0 || tailleFichier > 1_000_000_000L) { // Max 1GB
-                out.println("ERREUR: taille de fichier invalide");
-                return;
-            }
         } catch (NumberFormatException e) {
             out.println("ERREUR: taille de fichier invalide");
             return;
         }
 
+        // Flux v1 bufferisé: une partie du contenu peut déjà être lue, pas de canal
+        recevoirUpload(parts[1], tailleFichier, parts[3], socketIn, null,
+                limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, adresseDistante),
+                transfertServi(Transfert.Type.TELECHARGEMENT, parts[1], adresseDistante), new ReponseV1(out));
+    }
+
+    /**
+     * Reçoit le contenu d'un fichier uploadé, quelle que soit la version du
+     * protocole
+     */
+    @SuppressWarnings("try")
+    private void recevoirUpload(String nomFichier, long tailleFichier, String checksumAttendu,
+            InputStream socketIn, SocketChannel canal, LimiteurDebit.Flux flux, Transfert suivi,
+            ReponseTransfert reponse) {
+        if (!estNomFichierValide(nomFichier)) {
+            repondreErreur(reponse, "nom de fichier invalide");
+            return;
+        }
+        if (tailleFichier < 0 || tailleFichier > TAILLE_UPLOAD_MAX) {
+            repondreErreur(reponse, "taille de fichier invalide");
+            return;
+        }
+
         // Vérifier si le fichier existe déjà
         File fichierDestination = new File(dossierPartage, nomFichier);
         if (fichierDestination.exists()) {
@@ -1343,31 +3662,32 @@ public class Peer {
             logInfo("Fichier existant, sauvegarde sous: " + nomUnique);
         }
 
-        synchronized (fileLock) {
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.ecriture(fichierDestination)) {
             try {
-                out.println("READY");
-                out.flush();
+                reponse.pret();
 
                 // Recevoir le fichier
-                try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(fichierDestination))) {
-                    copierAvecProgression(socketIn, bos, tailleFichier, nomFichier);
-                }
+                suivi.demarrer(tailleFichier);
+                Empreinte empreinte = recevoirFichier(socketIn, canal, flux, suivi, fichierDestination, 0,
+                        tailleFichier, nomFichier, SOCKET_TIMEOUT_MS, null);
 
                 // Vérifier l'intégrité
-                if (verifierIntegriteFichier(fichierDestination, checksumAttendu)) {
-                    out.println("SUCCESS");
+                if (verifierIntegriteFichier(fichierDestination, checksumAttendu, empreinte)) {
+                    fileManager.enregistrerEmpreinte(fichierDestination, empreinte);
+                    reponse.succes();
                     logInfo("Fichier reçu avec succès: " + fichierDestination.getName());
 
-                    // Mettre à jour le cache
+                    // Mettre à jour le cache et annoncer le nouveau catalogue
                     schedulerMaintenance.execute(this::mettreAJourCacheComplet);
+                    catalogueModifie();
                 } else {
-                    out.println("ERREUR: checksum invalide");
+                    reponse.erreur("checksum invalide");
                     fichierDestination.delete();
                     logError("Checksum invalide pour le fichier reçu: " + nomFichier);
                 }
 
             } catch (Exception e) {
-                out.println("ERREUR: " + e.getMessage());
+                repondreErreur(reponse, String.valueOf(e.getMessage()));
                 if (fichierDestination.exists()) {
                     fichierDestination.delete();
                 }
@@ -1377,6 +3697,151 @@ public class Peer {
     }
 
 
+    /**
+     * Reçoit une session d'upload (voir Trame.UPLOAD_SESSION). Un fichier
+     * refusé d'après le manifeste n'est pas envoyé; un fichier dont le
+     * checksum ne correspond pas est écarté sans interrompre la session.
+     * Seule une erreur de flux y met fin, le bilan ne pouvant plus suivre.
+     */
+    @SuppressWarnings("try")
+    private void recevoirSessionUpload(Trame requete, InetAddress adresseDistante, InputStream socketIn,
+            OutputStream socketOut, SocketChannel canal) throws IOException {
+        Trame.Lecture manifeste = requete.lecture();
+        int nbFichiers = manifeste.entier();
+        if (nbFichiers < 0 || nbFichiers > MAX_FICHIERS_SESSION) {
+            requete.erreur("nombre de fichiers invalide: " + nbFichiers).ecrire(socketOut);
+            return;
+        }
+
+        String[] noms = new String[nbFichiers];
+        long[] tailles = new long[nbFichiers];
+        String[] checksums = new String[nbFichiers];
+        String[] resultats = new String[nbFichiers];
+        byte[] acceptes = new byte[nbFichiers];
+        for (int i = 0; i < nbFichiers; i++) {
+            noms[i] = manifeste.chaine();
+            tailles[i] = manifeste.longue();
+            checksums[i] = manifeste.chaine();
+            if (!estNomFichierValide(noms[i])) {
+                resultats[i] = "nom de fichier invalide";
+            } else if (tailles[i] < 0 || tailles[i] > TAILLE_UPLOAD_MAX) {
+                resultats[i] = "taille de fichier invalide";
+            } else {
+                acceptes[i] = 1;
+            }
+        }
+        requete.ok(new Trame.Ecriture().octets(acceptes).toBytes()).ecrire(socketOut);
+
+        LimiteurDebit.Flux flux = limiteurDebit.flux(LimiteurDebit.Sens.RECEPTION, adresseDistante);
+        boolean[] recus = new boolean[nbFichiers];
+        int nbRecus = 0;
+        try {
+            for (int i = 0; i < nbFichiers; i++) {
+                if (acceptes[i] == 0)
+                    continue;
+
+                File destination = new File(dossierPartage, noms[i]);
+                if (destination.exists()) {
+                    destination = new File(dossierPartage, genererNomUnique(destination));
+                }
+                try (VerrousFichiers.Verrou verrou = verrousFichiers.ecriture(destination)) {
+                    Transfert suivi = transfertServi(Transfert.Type.TELECHARGEMENT, noms[i], adresseDistante);
+                    suivi.demarrer(tailles[i]);
+                    Empreinte empreinte = recevoirFichier(socketIn, canal, flux, suivi, destination, 0, tailles[i],
+                            noms[i], SOCKET_TIMEOUT_MS, null);
+                    if (verifierIntegriteFichier(destination, checksums[i], empreinte)) {
+                        fileManager.enregistrerEmpreinte(destination, empreinte);
+                        recus[i] = true;
+                        resultats[i] = destination.getName();
+                        nbRecus++;
+                    } else {
+                        destination.delete();
+                        resultats[i] = "checksum invalide";
+                    }
+                } catch (IOException e) {
+                    destination.delete();
+                    throw e;
+                }
+            }
+        } finally {
+            if (nbRecus > 0) {
+                schedulerMaintenance.execute(this::mettreAJourCacheComplet);
+                catalogueModifie();
+            }
+        }
+
+        Trame.Ecriture bilan = new Trame.Ecriture().entier(nbFichiers);
+        for (int i = 0; i < nbFichiers; i++) {
+            bilan.entier(recus[i] ? 1 : 0).chaine(resultats[i]);
+        }
+        requete.ok(bilan.toBytes()).ecrire(socketOut);
+        logInfo("Session d'upload reçue: " + nbRecus + "/" + nbFichiers + " fichier(s)");
+    }
+
+    /**
+     * Répond à CHUNK_HASHES: checksum et hashes des blocs du fichier
+     */
+    @SuppressWarnings("try")
+    private void envoyerHashesBlocs(Trame requete, String nomFichier, OutputStream socketOut) throws IOException {
+        File fichier = new File(dossierPartage, nomFichier);
+        Trame.Ecriture reponse = new Trame.Ecriture();
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.lecture(fichier)) {
+            if (!estNomFichierValide(nomFichier) || !fichier.isFile()) {
+                requete.erreur("fichier introuvable").ecrire(socketOut);
+                return;
+            }
+            reponse.chaine(fileManager.calculerChecksum(fichier));
+            fileManager.calculerArbreMerkle(fichier).ecrire(reponse);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            requete.erreur("checksum impossible").ecrire(socketOut);
+            return;
+        }
+        requete.ok(reponse.toBytes()).ecrire(socketOut);
+    }
+
+    /**
+     * Répond à DELTA: les instructions qui transforment la version signée
+     * par le client en version locale, ou FIN seule si le client l'a déjà
+     */
+    @SuppressWarnings("try")
+    private void envoyerDelta(Trame requete, String nomFichier, String checksumClient,
+            DeltaFichier.Signatures signatures, OutputStream socketOut, LimiteurDebit.Flux flux) throws IOException {
+        File fichier = new File(dossierPartage, nomFichier);
+        try (VerrousFichiers.Verrou verrou = verrousFichiers.lecture(fichier)) {
+            if (!estNomFichierValide(nomFichier) || !fichier.isFile()) {
+                requete.erreur("fichier introuvable").ecrire(socketOut);
+                return;
+            }
+            String checksum;
+            try {
+                checksum = fileManager.calculerChecksum(fichier);
+            } catch (Exception e) {
+                requete.erreur("checksum impossible").ecrire(socketOut);
+                return;
+            }
+            requete.ok(new Trame.Ecriture().chaine(checksum).longue(fichier.length()).toBytes()).ecrire(socketOut);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socketOut, (int) TRANCHE_LIMITEE));
+            if (checksum.equals(checksumClient)) {
+                out.writeByte(DeltaFichier.FIN);
+                out.flush();
+                return;
+            }
+            long litteraux = DeltaFichier.encoder(fichier, signatures, out, flux);
+            logDebug("Delta de " + nomFichier + ": " + litteraux + "/" + fichier.length() + " octets en littéral");
+        }
+    }
+
+    /**
+     * Nom d'un fichier du dossier partagé: ni chemin, ni fichier de travail
+     */
+    private static boolean estNomFichierValide(String nom) {
+        return nom != null && !nom.isEmpty() && nom.indexOf('/') < 0 && nom.indexOf('\\') < 0
+                && !nom.equals(".") && !nom.equals("..") && !JournalTelechargement.estFichierInterne(nom);
+    }
+
     public FileManager getFileManager(){
         return this.fileManager;
     }
@@ -19,6 +19,8 @@ public class PeerInfo {
     private final int port;
     private String pseudo;
     private long dernierePing;
+    // Version du catalogue annoncée par découverte, -1 si inconnue
+    private volatile long versionCatalogue = -1;
 
     public PeerInfo(String adresse, int port, String pseudo) {
         this.adresse = adresse != null ? adresse : "";
@@ -52,6 +54,14 @@ public class PeerInfo {
         this.dernierePing = System.currentTimeMillis();
     }
 
+    public long getVersionCatalogue() {
+        return versionCatalogue;
+    }
+
+    void setVersionCatalogue(long versionCatalogue) {
+        this.versionCatalogue = versionCatalogue;
+    }
+
     // Vérifier si le peer est encore actif (ping récent)
     public boolean estActif(long timeoutMs) {
         return (System.currentTimeMillis() - dernierePing) < timeoutMs;
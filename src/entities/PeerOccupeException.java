@@ -0,0 +1,21 @@
+package entities;
+
+import java.io.IOException;
+
+/**
+ * Le peer distant a répondu BUSY: la requête n'a pas été traitée et peut
+ * être rejouée après le délai indiqué
+ */
+class PeerOccupeException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final int delaiReessaiMs;
+
+    PeerOccupeException(int delaiReessaiMs) {
+        super("Peer occupé, nouvel essai dans " + delaiReessaiMs + " ms");
+        this.delaiReessaiMs = delaiReessaiMs;
+    }
+
+    int getDelaiReessaiMs() {
+        return delaiReessaiMs;
+    }
+}
@@ -0,0 +1,154 @@
+package entities;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Pool de connexions persistantes indexé par PeerInfo.
+ *
+ * Les connexions inactives sont conservées pour les commandes suivantes,
+ * évincées après DUREE_INACTIVITE_MAX_MS et vérifiées par un PING lors de
+ * l'entretien périodique.
+ */
+class PoolConnexions {
+    private static final int MAX_INACTIVES_PAR_PEER = 2;
+    private static final long DUREE_INACTIVITE_MAX_MS = 30_000;
+    private static final long SEUIL_VERIFICATION_MS = 10_000;
+    private static final int TIMEOUT_VERIFICATION_MS = 2000;
+
+    private final Map<PeerInfo, Deque<ConnexionPeer>> inactives = new ConcurrentHashMap<>();
+    private volatile boolean ferme = false;
+
+    /**
+     * Échange requête/réponse exécuté sur une connexion du pool
+     */
+    interface Echange<T> {
+        T executer(ConnexionPeer connexion) throws IOException;
+    }
+
+    /**
+     * Exécute un échange sur une connexion réutilisée ou neuve. Si une
+     * connexion réutilisée a été fermée par le peer entre deux échanges,
+     * l'échange est rejoué une fois sur une connexion neuve (les commandes
+     * passant par le pool sont idempotentes). Un refus BUSY n'est pas rejoué.
+     */
+    <T> T executer(PeerInfo peer, int timeoutMs, Echange<T> echange) throws IOException {
+        ConnexionPeer connexion = prendreInactive(peer);
+        if (connexion != null) {
+            try {
+                return executerSur(connexion, timeoutMs, echange);
+            } catch (PeerOccupeException e) {
+                throw e;
+            } catch (IOException e) {
+                // Connexion périmée: rejouer sur une connexion neuve
+            }
+        }
+
+        return executerSur(new ConnexionPeer(peer, timeoutMs), timeoutMs, echange);
+    }
+
+    private <T> T executerSur(ConnexionPeer connexion, int timeoutMs, Echange<T> echange) throws IOException {
+        try {
+            connexion.setTimeout(timeoutMs);
+            T resultat = echange.executer(connexion);
+            rendre(connexion);
+            return resultat;
+        } catch (PeerOccupeException e) {
+            // La connexion reste saine: seule la requête a été refusée
+            rendre(connexion);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            connexion.close();
+            throw e;
+        }
+    }
+
+    private ConnexionPeer prendreInactive(PeerInfo peer) {
+        Deque<ConnexionPeer> file = inactives.get(peer);
+        if (file == null)
+            return null;
+
+        ConnexionPeer connexion;
+        while ((connexion = file.pollFirst()) != null) {
+            if (connexion.estOuverte()) {
+                return connexion;
+            }
+            connexion.close();
+        }
+        return null;
+    }
+
+    private void rendre(ConnexionPeer connexion) {
+        connexion.marquerUtilisee();
+        Deque<ConnexionPeer> file = inactives.computeIfAbsent(connexion.getPeer(),
+                k -> new ConcurrentLinkedDeque<>());
+
+        if (ferme || file.size() >= MAX_INACTIVES_PAR_PEER) {
+            connexion.close();
+        } else {
+            file.offerFirst(connexion);
+        }
+    }
+
+    /**
+     * Évince les connexions inactives depuis trop longtemps et vérifie les
+     * autres par un PING
+     */
+    void entretenir() {
+        long maintenant = System.currentTimeMillis();
+
+        for (Deque<ConnexionPeer> file : inactives.values()) {
+            List<ConnexionPeer> survivantes = new ArrayList<>();
+            ConnexionPeer connexion;
+
+            while ((connexion = file.pollLast()) != null) {
+                long inactivite = maintenant - connexion.getDerniereUtilisation();
+                if (inactivite > DUREE_INACTIVITE_MAX_MS || !connexion.estOuverte()) {
+                    connexion.close();
+                } else if (inactivite > SEUIL_VERIFICATION_MS && !verifier(connexion)) {
+                    connexion.close();
+                } else {
+                    survivantes.add(connexion);
+                }
+            }
+
+            for (ConnexionPeer survivante : survivantes) {
+                file.offerFirst(survivante);
+            }
+        }
+
+        inactives.values().removeIf(Deque::isEmpty);
+    }
+
+    private boolean verifier(ConnexionPeer connexion) {
+        try {
+            connexion.setTimeout(TIMEOUT_VERIFICATION_MS);
+            connexion.echanger(Trame.PING, new byte[0]).verifierOk();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Ferme les connexions inactives vers un peer
+     */
+    void fermer(PeerInfo peer) {
+        Deque<ConnexionPeer> file = inactives.remove(peer);
+        if (file != null) {
+            file.forEach(ConnexionPeer::close);
+        }
+    }
+
+    void fermerTout() {
+        ferme = true;
+        inactives.values().forEach(file -> file.forEach(ConnexionPeer::close));
+        inactives.clear();
+    }
+
+    int getNombreConnexions() {
+        return inactives.values().stream().mapToInt(Deque::size).sum();
+    }
+}
@@ -0,0 +1,76 @@
+package entities;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Seau à jetons: un jeton par octet, rechargé à debit octets par seconde.
+ *
+ * Un appel à consommer réserve ses jetons immédiatement, quitte à rendre le
+ * solde négatif, puis attend hors du verrou le temps de rembourser la dette.
+ * Plusieurs threads partageant le seau se répartissent ainsi le débit sans
+ * attente active. Un débit nul ou négatif signifie illimité.
+ */
+class SeauJetons {
+    // Rafale autorisée après une période d'inactivité (au moins une tranche de copie)
+    private static final long RAFALE_MIN = 64 * 1024;
+
+    private long debit;
+    private double jetons;
+    private long derniereRecharge = System.nanoTime();
+
+    SeauJetons(long debit) {
+        setDebit(debit);
+    }
+
+    synchronized void setDebit(long debit) {
+        recharger();
+        this.debit = Math.max(0, debit);
+        this.jetons = Math.min(jetons, capacite());
+        if (this.jetons == 0 && this.debit > 0) {
+            this.jetons = capacite();
+        }
+    }
+
+    synchronized long getDebit() {
+        return debit;
+    }
+
+    synchronized boolean estIllimite() {
+        return debit == 0;
+    }
+
+    /**
+     * Prélève octets jetons, en attendant si le seau est à découvert
+     */
+    void consommer(long octets) throws InterruptedIOException {
+        long attenteNanos;
+        synchronized (this) {
+            if (debit == 0)
+                return;
+            recharger();
+            jetons -= octets;
+            attenteNanos = jetons < 0 ? (long) (-jetons * 1_000_000_000L / debit) : 0;
+        }
+
+        if (attenteNanos > 0) {
+            try {
+                Thread.sleep(attenteNanos / 1_000_000, (int) (attenteNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Attente de bande passante interrompue");
+            }
+        }
+    }
+
+    private void recharger() {
+        long maintenant = System.nanoTime();
+        if (debit > 0) {
+            jetons = Math.min(capacite(), jetons + (maintenant - derniereRecharge) * (double) debit / 1_000_000_000L);
+        }
+        derniereRecharge = maintenant;
+    }
+
+    private long capacite() {
+        return Math.max(debit / 10, RAFALE_MIN);
+    }
+}
@@ -0,0 +1,453 @@
+package entities;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Moteur de connexions non bloquant basé sur un ServerSocketChannel et un
+ * Selector.
+ *
+ * Un unique thread sélecteur accepte les connexions et lit les requêtes,
+ * lignes de commande v1 ou trames v2 selon le premier octet reçu. Les
+ * requêtes du plan de contrôle (PING, LIST, PEERS, ANNOUNCE)
+ * sont exécutées par un pool fixe de threads d'E/S, puis leur réponse est
+ * écrite par le sélecteur. Les transferts (GET, UPLOAD) sont rendus au Peer
+ * en mode bloquant.
+ *
+ * Une connexion reste ouverte après chaque réponse pour les commandes
+ * suivantes, jusqu'à DUREE_INACTIVITE_MAX_MS d'inactivité.
+ *
+ * Chaque connexion acceptée prend une place du contrôle d'admission du
+ * Peer, rendue à sa fermeture ou à la fin de son transfert. Au-delà du
+ * plafond, la première requête reçoit BUSY dans le tampon initial, sans
+ * agrandissement, puis la connexion est fermée; au plus
+ * MAX_REFUS_EN_ATTENTE connexions refusées attendent leur requête, pendant
+ * DELAI_REFUS_MS au plus.
+ */
+class ServeurNio {
+    private static final int TAILLE_LIGNE_MAX = 8192;
+    private static final long DUREE_INACTIVITE_MAX_MS = 60_000;
+    private static final long INTERVALLE_NETTOYAGE_MS = 5_000;
+    private static final int MAX_REFUS_EN_ATTENTE = 64;
+    private static final long DELAI_REFUS_MS = 1000;
+
+    private final Peer peer;
+    private final ControleAdmission controleAdmission;
+    private final int port;
+    private final ExecutorService executorIo;
+    private final Queue<Runnable> operationsEnAttente = new ConcurrentLinkedQueue<>();
+    // Connexions à rendre en mode bloquant (accédé par le seul thread sélecteur)
+    private final List<SelectionKey> transferts = new ArrayList<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean actif = false;
+    // Connexions refusées en attente de leur BUSY (thread sélecteur)
+    private int refusEnAttente;
+
+    /**
+     * État d'une connexion gérée par le sélecteur
+     */
+    private static class Connexion {
+        final InetAddress adresse;
+        // Place prise dans le contrôle d'admission; sinon BUSY puis fermeture
+        final boolean admise;
+        ByteBuffer lecture = ByteBuffer.allocate(512);
+        ByteBuffer ecriture;
+        // Version du protocole, connue au premier octet reçu
+        Boolean v2;
+        long derniereActivite = System.currentTimeMillis();
+        boolean fermerApresEcriture;
+        boolean fermee;
+
+        Connexion(InetAddress adresse, boolean admise) {
+            this.adresse = adresse;
+            this.admise = admise;
+        }
+    }
+
+    ServeurNio(Peer peer, ControleAdmission controleAdmission, int port, int nbThreadsIo) {
+        this.peer = peer;
+        this.controleAdmission = controleAdmission;
+        this.port = port;
+        this.executorIo = Executors.newFixedThreadPool(nbThreadsIo, r -> {
+            Thread t = new Thread(r, "nio-io-" + port);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void demarrer() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        actif = true;
+
+        Thread threadSelecteur = new Thread(this::boucleSelection, "nio-selecteur-" + port);
+        threadSelecteur.setDaemon(true);
+        threadSelecteur.start();
+    }
+
+    void arreter() {
+        actif = false;
+        executorIo.shutdownNow();
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException | ClosedSelectorException ignored) {
+        }
+    }
+
+    private void boucleSelection() {
+        long dernierNettoyage = System.currentTimeMillis();
+
+        while (actif) {
+            try {
+                selector.select(intervalleNettoyage());
+
+                Runnable operation;
+                while ((operation = operationsEnAttente.poll()) != null) {
+                    operation.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accepter();
+                        } else if (key.isReadable()) {
+                            lire(key);
+                        } else if (key.isWritable()) {
+                            ecrire(key);
+                        }
+                    } catch (IOException e) {
+                        fermer(key);
+                    }
+                }
+
+                if (!transferts.isEmpty()) {
+                    remettreEnModeBloquant();
+                }
+
+                if (System.currentTimeMillis() - dernierNettoyage >= intervalleNettoyage()) {
+                    fermerInactives();
+                    dernierNettoyage = System.currentTimeMillis();
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (actif) {
+                    System.err.println("[ERROR] Erreur du sélecteur NIO: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accepter() throws IOException {
+        SocketChannel canal = serverChannel.accept();
+        if (canal == null)
+            return;
+
+        boolean admise = controleAdmission.admettreConnexion();
+        if (!admise) {
+            if (refusEnAttente >= MAX_REFUS_EN_ATTENTE) {
+                canal.close();
+                return;
+            }
+            refusEnAttente++;
+        }
+        try {
+            canal.configureBlocking(false);
+            InetAddress adresse = ((InetSocketAddress) canal.getRemoteAddress()).getAddress();
+            canal.register(selector, SelectionKey.OP_READ, new Connexion(adresse, admise));
+        } catch (IOException e) {
+            rendrePlace(admise);
+            canal.close();
+        }
+    }
+
+    private void rendrePlace(boolean admise) {
+        if (admise) {
+            controleAdmission.libererConnexion();
+        } else {
+            refusEnAttente--;
+        }
+    }
+
+    /**
+     * Lit les octets disponibles et aiguille la commande dès qu'une ligne
+     * complète est reçue
+     */
+    private void lire(SelectionKey key) throws IOException {
+        SocketChannel canal = (SocketChannel) key.channel();
+        Connexion connexion = (Connexion) key.attachment();
+
+        if (!connexion.lecture.hasRemaining()) {
+            if (!connexion.admise) {
+                throw new IOException("Requête trop longue pour une connexion refusée");
+            }
+            int tailleMax = Boolean.TRUE.equals(connexion.v2)
+                    ? Trame.TAILLE_ENTETE + Trame.TAILLE_PAYLOAD_MAX
+                    : TAILLE_LIGNE_MAX;
+            if (connexion.lecture.capacity() >= tailleMax) {
+                throw new IOException("Requête trop longue");
+            }
+            ByteBuffer agrandi = ByteBuffer.allocate(Math.min(connexion.lecture.capacity() * 2, tailleMax));
+            connexion.lecture.flip();
+            agrandi.put(connexion.lecture);
+            connexion.lecture = agrandi;
+        }
+
+        if (canal.read(connexion.lecture) == -1) {
+            fermer(key);
+            return;
+        }
+        connexion.derniereActivite = System.currentTimeMillis();
+
+        traiterTampon(key);
+    }
+
+    /**
+     * Aiguille la prochaine requête complète du tampon de lecture, s'il y en a une
+     */
+    private void traiterTampon(SelectionKey key) throws IOException {
+        Connexion connexion = (Connexion) key.attachment();
+
+        if (connexion.v2 == null) {
+            if (connexion.lecture.position() == 0)
+                return;
+            connexion.v2 = connexion.lecture.get(0) == Trame.MAGIC;
+        }
+        if (!connexion.admise) {
+            repondreOccupe(key, connexion);
+            return;
+        }
+        if (connexion.v2) {
+            traiterTrame(key, connexion);
+            return;
+        }
+
+        String commande = extraireLigne(connexion.lecture);
+        if (commande == null)
+            return;
+
+        if (commande.isEmpty()) {
+            fermer(key);
+            return;
+        }
+
+        if (Peer.estCommandeTransfert(commande)) {
+            key.attach(new Object[] { commande, restant(connexion.lecture) });
+            key.cancel();
+            transferts.add(key);
+            return;
+        }
+
+        // Plan de contrôle: handler sur un thread d'E/S, écriture par le sélecteur
+        key.interestOps(0);
+        executorIo.submit(() -> {
+            byte[] reponse = peer.repondreCommande(commande, connexion.adresse);
+            operationsEnAttente.add(() -> preparerEcriture(key, reponse));
+            selector.wakeup();
+        });
+    }
+
+    /**
+     * Connexion refusée: BUSY dès que l'en-tête de trame ou la ligne de
+     * commande est reçue, puis fermeture
+     */
+    private void repondreOccupe(SelectionKey key, Connexion connexion) throws IOException {
+        int delai = controleAdmission.delaiReessai(false);
+        byte[] reponse;
+        if (connexion.v2) {
+            if (connexion.lecture.position() < Trame.TAILLE_ENTETE)
+                return;
+            int requestId = connexion.lecture.getInt(2);
+            reponse = new Trame(Trame.BUSY, requestId, new Trame.Ecriture().entier(delai).toBytes()).encoder();
+        } else {
+            if (extraireLigne(connexion.lecture) == null)
+                return;
+            reponse = ("BUSY " + delai + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        connexion.fermerApresEcriture = true;
+        connexion.ecriture = ByteBuffer.wrap(reponse);
+        ecrire(key);
+    }
+
+    private void traiterTrame(SelectionKey key, Connexion connexion) throws IOException {
+        connexion.lecture.flip();
+        Trame requete;
+        try {
+            requete = Trame.extraire(connexion.lecture);
+        } finally {
+            connexion.lecture.compact();
+        }
+        if (requete == null)
+            return;
+
+        if (Trame.estTransfert(requete.getOpcode())) {
+            key.attach(new Object[] { requete, restant(connexion.lecture) });
+            key.cancel();
+            transferts.add(key);
+            return;
+        }
+
+        key.interestOps(0);
+        executorIo.submit(() -> {
+            byte[] reponse = peer.repondreTrame(requete, connexion.adresse);
+            operationsEnAttente.add(() -> preparerEcriture(key, reponse));
+            selector.wakeup();
+        });
+    }
+
+    private void preparerEcriture(SelectionKey key, byte[] reponse) {
+        if (!key.isValid())
+            return;
+
+        Connexion connexion = (Connexion) key.attachment();
+        connexion.ecriture = ByteBuffer.wrap(reponse);
+        try {
+            ecrire(key);
+        } catch (IOException e) {
+            fermer(key);
+        }
+    }
+
+    private void ecrire(SelectionKey key) throws IOException {
+        SocketChannel canal = (SocketChannel) key.channel();
+        Connexion connexion = (Connexion) key.attachment();
+
+        canal.write(connexion.ecriture);
+        if (connexion.ecriture.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        if (connexion.fermerApresEcriture) {
+            fermer(key);
+            return;
+        }
+
+        // Réponse complète: attendre la commande suivante sur la même connexion
+        connexion.ecriture = null;
+        connexion.derniereActivite = System.currentTimeMillis();
+        key.interestOps(SelectionKey.OP_READ);
+        traiterTampon(key);
+    }
+
+    /**
+     * Nettoyage plus fréquent tant que des connexions refusées attendent
+     */
+    private long intervalleNettoyage() {
+        return refusEnAttente > 0 ? DELAI_REFUS_MS : INTERVALLE_NETTOYAGE_MS;
+    }
+
+    /**
+     * Ferme les connexions en attente de commande depuis trop longtemps
+     */
+    private void fermerInactives() {
+        long maintenant = System.currentTimeMillis();
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connexion
+                    && key.interestOps() == SelectionKey.OP_READ) {
+                Connexion connexion = (Connexion) key.attachment();
+                long duree = connexion.admise ? DUREE_INACTIVITE_MAX_MS : DELAI_REFUS_MS;
+                if (connexion.derniereActivite < maintenant - duree) {
+                    fermer(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Désenregistre les canaux de transfert puis les confie au Peer
+     */
+    private void remettreEnModeBloquant() throws IOException {
+        // Vider les clés annulées avant de repasser les canaux en mode bloquant
+        selector.selectNow();
+        if (!selector.selectedKeys().isEmpty()) {
+            // Ne pas laisser attendre les clés prêtes sélectionnées par selectNow
+            selector.wakeup();
+        }
+
+        for (SelectionKey key : transferts) {
+            SocketChannel canal = (SocketChannel) key.channel();
+            Object[] etat = (Object[]) key.attachment();
+            try {
+                canal.configureBlocking(true);
+                if (etat[0] instanceof Trame) {
+                    peer.traiterTransfert(canal, (Trame) etat[0], (byte[]) etat[1]);
+                } else {
+                    peer.traiterTransfert(canal, (String) etat[0], (byte[]) etat[1]);
+                }
+            } catch (IOException | RejectedExecutionException e) {
+                // Transfert jamais lancé: sa place n'est pas rendue par le Peer
+                controleAdmission.libererConnexion();
+                try {
+                    canal.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        transferts.clear();
+    }
+
+    /**
+     * Extrait la première ligne du tampon (mode écriture) et compacte le reste
+     */
+    private static String extraireLigne(ByteBuffer tampon) {
+        for (int i = 0; i < tampon.position(); i++) {
+            if (tampon.get(i) == '\n') {
+                byte[] ligne = new byte[i];
+                tampon.flip();
+                tampon.get(ligne);
+                tampon.get(); // '\n'
+                tampon.compact();
+                return new String(ligne, StandardCharsets.UTF_8).trim();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] restant(ByteBuffer tampon) {
+        tampon.flip();
+        byte[] reste = new byte[tampon.remaining()];
+        tampon.get(reste);
+        return reste;
+    }
+
+    private void fermer(SelectionKey key) {
+        if (key.attachment() instanceof Connexion) {
+            Connexion connexion = (Connexion) key.attachment();
+            if (!connexion.fermee) {
+                connexion.fermee = true;
+                rendrePlace(connexion.admise);
+            }
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package entities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Téléchargement d'un fichier par pièces depuis tous les peers qui en
+ * annoncent le même checksum.
+ *
+ * Le fichier partiel, préalloué à sa taille finale, est découpé en pièces de
+ * taillePiece octets. Chaque source a son fil, qui prend la pièce suivante
+ * dans une file commune et la lit par GET_RANGE directement à sa position:
+ * une source rapide prend d'elle-même plus de pièces qu'une lente. Une pièce
+ * en échec retourne en tête de file. Une source est écartée après
+ * MAX_ECHECS_SOURCE échecs consécutifs, ou dès qu'elle sert un autre
+ * checksum. Quand la file est vide, les fils inoccupés doublent les pièces
+ * encore en cours ailleurs (phase finale). La première copie arrivée réserve
+ * la pièce et ferme les connexions des autres copies; elle n'est vérifiée et
+ * comptée qu'une fois ces copies sorties, pour qu'aucune n'écrive plus dans
+ * la pièce après sa vérification.
+ *
+ * Une source peut recevoir plusieurs flux parallèles, utile quand un seul
+ * flux TCP ne remplit pas un lien à forte latence. Chaque source démarre
+ * avec un flux; tant que le débit mesuré sur PERIODE_MESURE_MS progresse
+ * d'au moins GAIN_MIN, un flux de plus est ouvert vers chaque source, dans
+ * la limite demandée. Un BUSY arrête la croissance.
+ *
+ * Avec l'arbre de Merkle du fichier, une pièce est un bloc de l'arbre:
+ * elle est vérifiée dès son arrivée et redemandée si elle est corrompue,
+ * ce qui compte comme un échec de sa source.
+ *
+ * Les pièces consécutives terminées depuis le début du fichier servent de
+ * point de reprise au journal du téléchargement.
+ */
+class TelechargementEssaim implements Closeable {
+    static final int TAILLE_PIECE_DEFAUT = 1024 * 1024;
+    private static final int MAX_ECHECS_SOURCE = 3;
+    private static final long ATTENTE_PIECE_MS = 50;
+    private static final long PERIODE_MESURE_MS = 500;
+    private static final double GAIN_MIN = 0.10;
+
+    private final Peer peer;
+    private final String nomFichier;
+    private final String checksum;
+    private final long taille;
+    private final int taillePiece;
+    private final int nbPieces;
+    private final FileChannel fichier;
+    private final JournalTelechargement journal;
+    private final Transfert suivi;
+    private final ArbreMerkle arbre;
+
+    // État des pièces, protégé par this
+    private final BitSet terminees = new BitSet();
+    // Pièces réservées par une copie arrivée, en attente de la sortie des autres
+    private final BitSet reservees = new BitSet();
+    private final Deque<Integer> aFaire = new ArrayDeque<>();
+    private final int[] copiesEnCours;
+    private final long[] debutsPieces;
+
+    // Connexions des copies en cours de chaque pièce
+    private final Map<Integer, Set<Closeable>> connexions = new ConcurrentHashMap<>();
+    private final List<CompletableFuture<Void>> fils = new CopyOnWriteArrayList<>();
+    private final Set<PeerInfo> sourcesActives = ConcurrentHashMap.newKeySet();
+    private final AtomicLong octetsRecus = new AtomicLong();
+    private volatile boolean arrete = false;
+    private volatile boolean occupe = false;
+
+    TelechargementEssaim(Peer peer, String nomFichier, String checksum, long taille, int taillePiece,
+            FileChannel fichier, JournalTelechargement journal, Transfert suivi, ArbreMerkle arbre) {
+        this.peer = peer;
+        this.nomFichier = nomFichier;
+        this.checksum = checksum;
+        this.taille = taille;
+        this.taillePiece = taillePiece;
+        this.nbPieces = (int) ((taille + taillePiece - 1) / taillePiece);
+        this.fichier = fichier;
+        this.journal = journal;
+        this.suivi = suivi;
+        this.arbre = arbre;
+        this.copiesEnCours = new int[nbPieces];
+        this.debutsPieces = new long[nbPieces];
+
+        // Les pièces déjà confirmées par le journal ne sont pas redemandées
+        int dejaPresentes = (int) Math.min(nbPieces, journal.getOctetsConfirmes() / taillePiece);
+        terminees.set(0, dejaPresentes);
+        for (int i = dejaPresentes; i < nbPieces; i++) {
+            aFaire.add(i);
+        }
+    }
+
+    /**
+     * Octets déjà présents avant le début du téléchargement
+     */
+    synchronized long getOctetsPresents() {
+        return Math.min(taille, (long) terminees.cardinality() * taillePiece);
+    }
+
+    /**
+     * Fin des pièces consécutives terminées depuis le début du fichier
+     */
+    synchronized long getPrefixeTermine() {
+        return Math.min(taille, (long) terminees.nextClearBit(0) * taillePiece);
+    }
+
+    /**
+     * Télécharge toutes les pièces, jusqu'à fluxMaxParSource flux par source
+     *
+     * @return true si toutes les pièces sont arrivées
+     */
+    boolean executer(List<PeerInfo> sources, int fluxMaxParSource, Executor executor) {
+        sourcesActives.addAll(sources);
+        for (PeerInfo source : sources) {
+            lancerFlux(source, executor);
+        }
+        if (fluxMaxParSource > 1) {
+            ajusterFlux(fluxMaxParSource, executor);
+        }
+        // Les flux ajoutés en cours de route sont attendus aussi
+        for (int i = 0; i < fils.size(); i++) {
+            fils.get(i).join();
+        }
+
+        synchronized (this) {
+            return !arrete && terminees.cardinality() == nbPieces;
+        }
+    }
+
+    /**
+     * Interrompt le téléchargement: connexions fermées, fils arrêtés
+     */
+    @Override
+    public void close() {
+        arrete = true;
+        fermerConnexions();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void lancerFlux(PeerInfo source, Executor executor) {
+        fils.add(CompletableFuture.runAsync(() -> servirDepuis(source), executor));
+    }
+
+    /**
+     * Ouvre un flux de plus par source tant que chaque palier gagne au moins
+     * GAIN_MIN de débit sur le précédent
+     */
+    private void ajusterFlux(int fluxMaxParSource, Executor executor) {
+        int fluxParSource = 1;
+        double debitPrecedent = 0;
+        long recusPrecedent = octetsRecus.get();
+        long instantPrecedent = System.nanoTime();
+
+        while (fluxParSource < fluxMaxParSource && !occupe && attendreMesure()) {
+            long recus = octetsRecus.get();
+            long instant = System.nanoTime();
+            double debit = (recus - recusPrecedent) * 1e9 / (instant - instantPrecedent);
+            if (debitPrecedent > 0 && debit < debitPrecedent * (1 + GAIN_MIN))
+                break;
+
+            for (PeerInfo source : sourcesActives) {
+                lancerFlux(source, executor);
+            }
+            fluxParSource++;
+            debitPrecedent = debit;
+            recusPrecedent = recus;
+            instantPrecedent = instant;
+        }
+        peer.logInfo(nomFichier + ": " + fluxParSource + " flux par source");
+    }
+
+    /**
+     * Attend la fin d'une période de mesure
+     *
+     * @return false si le téléchargement est terminé ou interrompu entre-temps
+     */
+    private synchronized boolean attendreMesure() {
+        long fin = System.currentTimeMillis() + PERIODE_MESURE_MS;
+        long reste;
+        while ((reste = fin - System.currentTimeMillis()) > 0 && !arrete && terminees.cardinality() < nbPieces) {
+            try {
+                wait(reste);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                arrete = true;
+            }
+        }
+        return !arrete && terminees.cardinality() < nbPieces;
+    }
+
+    private void servirDepuis(PeerInfo source) {
+        int echecsConsecutifs = 0;
+        int piece;
+        while ((piece = prochainePiece()) >= 0) {
+            long offset = (long) piece * taillePiece;
+            long longueur = Math.min(taillePiece, taille - offset);
+            try {
+                Set<Closeable> connexionsPiece = connexions.computeIfAbsent(piece,
+                        p -> ConcurrentHashMap.newKeySet());
+                if (!peer.recevoirPiece(source, nomFichier, checksum, offset, longueur, fichier, connexionsPiece,
+                        octetsRecus::addAndGet)) {
+                    peer.logInfo(source + " sert une autre version de " + nomFichier + ", source écartée");
+                    sourcesActives.remove(source);
+                    rendre(piece);
+                    return;
+                }
+                if (!reserver(piece))
+                    continue;
+                if (arbre != null && !arbre.verifierBloc(fichier, piece)) {
+                    peer.logInfo("Pièce " + piece + " de " + nomFichier + " corrompue par " + source + ", redemandée");
+                    liberer(piece);
+                    rendre(piece);
+                    if (++echecsConsecutifs >= MAX_ECHECS_SOURCE) {
+                        sourcesActives.remove(source);
+                        return;
+                    }
+                    continue;
+                }
+                echecsConsecutifs = 0;
+                terminer(piece, longueur);
+            } catch (IOException e) {
+                if (rendre(piece))
+                    continue; // copie annulée: une autre l'a emporté, pas un échec de la source
+                if (arrete || estComplet())
+                    return;
+                if (e instanceof PeerOccupeException) {
+                    occupe = true;
+                    attendre(((PeerOccupeException) e).getDelaiReessaiMs());
+                } else if (++echecsConsecutifs >= MAX_ECHECS_SOURCE) {
+                    peer.logInfo(source + " écartée du téléchargement de " + nomFichier + ": " + e.getMessage());
+                    sourcesActives.remove(source);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pièce suivante de la file; file vide, pièce en cours chez une seule
+     * source, la plus ancienne d'abord; -1 quand tout est terminé
+     */
+    private synchronized int prochainePiece() {
+        while (!arrete && terminees.cardinality() < nbPieces) {
+            Integer suivante = aFaire.poll();
+            if (suivante == null) {
+                suivante = pieceADoubler();
+            }
+            if (suivante != null) {
+                if (copiesEnCours[suivante]++ == 0) {
+                    debutsPieces[suivante] = System.nanoTime();
+                }
+                return suivante;
+            }
+            try {
+                wait(ATTENTE_PIECE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                arrete = true;
+            }
+        }
+        return -1;
+    }
+
+    private Integer pieceADoubler() {
+        int choisie = -1;
+        for (int i = terminees.nextClearBit(0); i < nbPieces; i = terminees.nextClearBit(i + 1)) {
+            if (copiesEnCours[i] == 1 && !reservees.get(i) && (choisie < 0 || debutsPieces[i] < debutsPieces[choisie])) {
+                choisie = i;
+            }
+        }
+        return choisie >= 0 ? choisie : null;
+    }
+
+    /**
+     * Réserve une pièce reçue pour la vérifier: les autres copies en cours
+     * sont fermées et attendues
+     *
+     * @return false si une autre copie l'a déjà réservée (la copie est alors
+     *         rendue sans échec)
+     */
+    private synchronized boolean reserver(int piece) {
+        if (arrete || terminees.get(piece) || reservees.get(piece)) {
+            copiesEnCours[piece]--;
+            notifyAll();
+            return false;
+        }
+        reservees.set(piece);
+        // Une copie qui se connecte pendant l'attente est fermée au tour suivant
+        while (copiesEnCours[piece] > 1 && !arrete) {
+            fermer(connexions.get(piece));
+            try {
+                wait(ATTENTE_PIECE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                arrete = true;
+            }
+        }
+        if (arrete) {
+            reservees.clear(piece);
+            copiesEnCours[piece]--;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pièce réservée qui n'a pas passé la vérification
+     */
+    private synchronized void liberer(int piece) {
+        reservees.clear(piece);
+    }
+
+    private void terminer(int piece, long longueur) throws IOException {
+        boolean premiere;
+        boolean complet;
+        long prefixe;
+        synchronized (this) {
+            copiesEnCours[piece]--;
+            premiere = !terminees.get(piece);
+            terminees.set(piece);
+            reservees.clear(piece);
+            connexions.remove(piece);
+            complet = terminees.cardinality() == nbPieces;
+            prefixe = Math.min(taille, (long) terminees.nextClearBit(0) * taillePiece);
+            notifyAll();
+        }
+        if (!premiere)
+            return;
+
+        suivi.avancer(longueur);
+        if (complet) {
+            // Les copies en double encore en route ne servent plus à rien
+            fermerConnexions();
+        } else if (prefixe - journal.getOctetsConfirmes() >= JournalTelechargement.INTERVALLE_CONFIRMATION) {
+            fichier.force(false);
+            journal.confirmer(prefixe);
+        }
+    }
+
+    /**
+     * Pièce en échec: retour en tête de file si aucune autre copie n'est en route
+     *
+     * @return true si une autre copie a déjà réservé ou terminé la pièce
+     */
+    private synchronized boolean rendre(int piece) {
+        copiesEnCours[piece]--;
+        boolean prise = terminees.get(piece) || reservees.get(piece);
+        if (!prise && copiesEnCours[piece] == 0 && !aFaire.contains(piece)) {
+            aFaire.addFirst(piece);
+        }
+        notifyAll();
+        return prise;
+    }
+
+    private synchronized boolean estComplet() {
+        return terminees.cardinality() == nbPieces;
+    }
+
+    private void attendre(long delaiMs) {
+        try {
+            Thread.sleep(delaiMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            arrete = true;
+        }
+    }
+
+    private void fermerConnexions() {
+        for (Set<Closeable> connexionsPiece : connexions.values()) {
+            fermer(connexionsPiece);
+        }
+    }
+
+    private static void fermer(Set<Closeable> connexionsPiece) {
+        if (connexionsPiece == null)
+            return;
+        for (Closeable connexion : connexionsPiece) {
+            try {
+                connexion.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
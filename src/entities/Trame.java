@@ -0,0 +1,328 @@
+package entities;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Trame du protocole binaire v2
+ * Format: [MAGIC(1)][OPCODE(1)][REQUEST_ID(4)][LONGUEUR(4)][PAYLOAD]
+ *
+ * Le MAGIC n'est pas un caractère ASCII: le serveur distingue une trame v2
+ * d'une commande texte v1 dès le premier octet reçu, sur le même port.
+ * Les chaînes du payload sont encodées [LEN(4)][UTF-8], ce qui autorise
+ * espaces et caractères spéciaux dans les noms de fichiers.
+ *
+ * Pour GET, GET_RANGE, GET_MANY, UPLOAD et UPLOAD_SESSION, le contenu des fichiers
+ * suit la trame en flux brut, sa taille étant annoncée dans le payload; pour
+ * DELTA, ce sont les instructions de reconstruction.
+ */
+class Trame {
+    static final byte MAGIC = (byte) 0xB2;
+    static final int TAILLE_ENTETE = 10;
+    static final int TAILLE_PAYLOAD_MAX = 10_000_000; // 10MB max
+
+    // Opcodes des requêtes
+    static final byte PING = 0x01;
+    // Catalogue: payload vide, ou [VERSION(4)][NB(4)] puis NB fois [ALGO(4)]:
+    // version de métadonnées la plus récente lue par le demandeur et
+    // algorithmes de hash rapide acceptés (voir AlgorithmeHachage). Réponse OK
+    // avec les métadonnées en version 1 pour un payload vide, sinon dans la
+    // version demandée, ramenée à 2 si aucun algorithme n'est celui du peer
+    static final byte LIST = 0x02;
+    static final byte PEERS = 0x03;
+    static final byte ANNOUNCE = 0x04;
+    static final byte GET = 0x05;
+    static final byte UPLOAD = 0x06;
+    // Intervalle d'un fichier: payload [NOM][OFFSET(8)][LONGUEUR(8)], réponse
+    // OK [CHECKSUM][TAILLE_FICHIER(8)][LONGUEUR(8)] suivie des LONGUEUR octets
+    static final byte GET_RANGE = 0x07;
+    // Session d'upload: payload [NB(4)] puis NB fois [NOM][TAILLE(8)][CHECKSUM].
+    // Réponse OK [ACCEPTES] (un octet par fichier, 1 = à envoyer), puis les
+    // contenus acceptés bout à bout et un bilan OK [NB(4)] puis NB fois
+    // [RECU(4)][NOM_LOCAL ou MESSAGE]
+    static final byte UPLOAD_SESSION = 0x08;
+    // Plusieurs fichiers: payload [NB(4)] puis NB fois [NOM]. Réponse OK [NB(4)]
+    // puis, pour chaque nom dans l'ordre, OK [CHECKSUM][TAILLE(8)] suivie du
+    // contenu ou ERREUR [MESSAGE]
+    static final byte GET_MANY = 0x09;
+    // Transfert différentiel: payload [NOM][CHECKSUM_LOCAL] puis les
+    // signatures des blocs locaux (voir DeltaFichier). Réponse OK
+    // [CHECKSUM][TAILLE(8)] suivie des instructions de reconstruction
+    static final byte DELTA = 0x0A;
+    // Hashes des blocs d'un fichier (voir ArbreMerkle): payload [NOM], réponse
+    // OK [CHECKSUM][TAILLE_BLOC(4)][TAILLE(8)][NB(4)] puis NB fois [HASH]
+    static final byte CHUNK_HASHES = 0x0B;
+
+    // Opcodes des réponses
+    static final byte OK = (byte) 0x80;
+    static final byte ERREUR = (byte) 0x81;
+    // Requête refusée par le contrôle d'admission, payload [DELAI_REESSAI_MS(4)]
+    static final byte BUSY = (byte) 0x82;
+
+    private final byte opcode;
+    private final int requestId;
+    private final byte[] payload;
+
+    Trame(byte opcode, int requestId, byte[] payload) {
+        this.opcode = opcode;
+        this.requestId = requestId;
+        this.payload = payload != null ? payload : new byte[0];
+    }
+
+    byte getOpcode() {
+        return opcode;
+    }
+
+    int getRequestId() {
+        return requestId;
+    }
+
+    byte[] getPayload() {
+        return payload;
+    }
+
+    Lecture lecture() {
+        return new Lecture(payload);
+    }
+
+    /**
+     * Indique si l'opcode occupe la connexion pour un transfert de fichier
+     */
+    static boolean estTransfert(byte opcode) {
+        return opcode == GET || opcode == UPLOAD || opcode == GET_RANGE || opcode == UPLOAD_SESSION
+                || opcode == GET_MANY || opcode == DELTA;
+    }
+
+    /**
+     * Construit la réponse OK à cette requête
+     */
+    Trame ok(byte[] payloadReponse) {
+        return new Trame(OK, requestId, payloadReponse);
+    }
+
+    /**
+     * Construit la réponse d'erreur à cette requête
+     */
+    Trame erreur(String message) {
+        return new Trame(ERREUR, requestId, new Ecriture().chaine(message).toBytes());
+    }
+
+    /**
+     * Construit la réponse BUSY à cette requête
+     */
+    Trame occupe(int delaiReessaiMs) {
+        return new Trame(BUSY, requestId, new Ecriture().entier(delaiReessaiMs).toBytes());
+    }
+
+    /**
+     * Vérifie qu'une réponse est un succès
+     *
+     * @throws PeerOccupeException si le peer a répondu BUSY
+     * @throws IOException avec le message d'erreur du peer distant sinon
+     */
+    Trame verifierOk() throws IOException {
+        if (opcode == BUSY) {
+            throw new PeerOccupeException(lecture().entier());
+        }
+        if (opcode == ERREUR) {
+            throw new IOException(getMessageErreur());
+        }
+        if (opcode != OK) {
+            throw new IOException("Réponse inattendue: opcode 0x" + Integer.toHexString(opcode & 0xFF));
+        }
+        return this;
+    }
+
+    /**
+     * Message d'une réponse ERREUR
+     */
+    String getMessageErreur() {
+        try {
+            return lecture().chaine();
+        } catch (IOException e) {
+            return "erreur inconnue";
+        }
+    }
+
+    /**
+     * Sérialise la trame complète (en-tête + payload)
+     */
+    byte[] encoder() {
+        ByteBuffer buffer = ByteBuffer.allocate(TAILLE_ENTETE + payload.length);
+        buffer.put(MAGIC);
+        buffer.put(opcode);
+        buffer.putInt(requestId);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    void ecrire(OutputStream out) throws IOException {
+        out.write(encoder());
+        out.flush();
+    }
+
+    /**
+     * Lit une trame complète. L'en-tête est lu en une seule lecture, puis le
+     * payload; rien n'est lu au-delà, le flux brut éventuel reste intact.
+     *
+     * @param magicDejaLu true si le premier octet (MAGIC) a déjà été consommé
+     * @return la trame, ou null si le flux est terminé avant le premier octet
+     */
+    static Trame lire(InputStream in, boolean magicDejaLu) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        byte[] entete = new byte[TAILLE_ENTETE];
+        int debut = 0;
+
+        if (magicDejaLu) {
+            entete[0] = MAGIC;
+            debut = 1;
+        } else {
+            int premier = in.read();
+            if (premier == -1)
+                return null;
+            entete[0] = (byte) premier;
+            debut = 1;
+        }
+        dis.readFully(entete, debut, TAILLE_ENTETE - debut);
+
+        ByteBuffer buffer = ByteBuffer.wrap(entete);
+        if (buffer.get() != MAGIC) {
+            throw new IOException("Magic de trame invalide");
+        }
+        byte opcode = buffer.get();
+        int requestId = buffer.getInt();
+        int longueur = buffer.getInt();
+        if (longueur < 0 || longueur > TAILLE_PAYLOAD_MAX) {
+            throw new IOException("Longueur de trame invalide: " + longueur);
+        }
+
+        byte[] payload = new byte[longueur];
+        dis.readFully(payload);
+        return new Trame(opcode, requestId, payload);
+    }
+
+    /**
+     * Décode une trame complète depuis un tampon (moteur NIO)
+     *
+     * @return la trame, ou null si le tampon ne contient pas encore une trame entière
+     */
+    static Trame extraire(ByteBuffer tampon) throws IOException {
+        if (tampon.remaining() < TAILLE_ENTETE)
+            return null;
+
+        int debut = tampon.position();
+        if (tampon.get(debut) != MAGIC) {
+            throw new IOException("Magic de trame invalide");
+        }
+        int longueur = tampon.getInt(debut + 6);
+        if (longueur < 0 || longueur > TAILLE_PAYLOAD_MAX) {
+            throw new IOException("Longueur de trame invalide: " + longueur);
+        }
+        if (tampon.remaining() < TAILLE_ENTETE + longueur)
+            return null;
+
+        tampon.get();
+        byte opcode = tampon.get();
+        int requestId = tampon.getInt();
+        tampon.getInt();
+        byte[] payload = new byte[longueur];
+        tampon.get(payload);
+        return new Trame(opcode, requestId, payload);
+    }
+
+    /**
+     * Construction d'un payload
+     */
+    static class Ecriture {
+        private final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        private final DataOutputStream dos = new DataOutputStream(bos);
+
+        Ecriture chaine(String valeur) {
+            return octets(valeur.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Ecriture entier(int valeur) {
+            try {
+                dos.writeInt(valeur);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Ecriture longue(long valeur) {
+            try {
+                dos.writeLong(valeur);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Ecriture octets(byte[] valeur) {
+            entier(valeur.length);
+            bos.write(valeur, 0, valeur.length);
+            return this;
+        }
+
+        byte[] toBytes() {
+            return bos.toByteArray();
+        }
+    }
+
+    /**
+     * Lecture d'un payload
+     */
+    static class Lecture {
+        private final ByteBuffer buffer;
+
+        Lecture(byte[] payload) {
+            this.buffer = ByteBuffer.wrap(payload);
+        }
+
+        String chaine() throws IOException {
+            return new String(octets(), StandardCharsets.UTF_8);
+        }
+
+        int entier() throws IOException {
+            try {
+                return buffer.getInt();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Payload tronqué");
+            }
+        }
+
+        long longue() throws IOException {
+            try {
+                return buffer.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Payload tronqué");
+            }
+        }
+
+        byte[] octets() throws IOException {
+            int longueur = entier();
+            if (longueur < 0 || longueur > buffer.remaining()) {
+                throw new IOException("Longueur de champ invalide: " + longueur);
+            }
+            byte[] valeur = new byte[longueur];
+            buffer.get(valeur);
+            return valeur;
+        }
+
+        boolean aEncore() {
+            return buffer.hasRemaining();
+        }
+
+        /**
+         * Octets pas encore lus: borne le nombre d'entrées annoncé par le
+         * payload avant d'allouer quoi que ce soit
+         */
+        int restant() {
+            return buffer.remaining();
+        }
+    }
+}
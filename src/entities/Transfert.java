@@ -0,0 +1,241 @@
+package entities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Suivi d'un transfert de fichier en cours: résultat asynchrone, annulation,
+ * progression, débit et temps restant.
+ *
+ * Les écouteurs de progression sont appelés depuis le thread du transfert,
+ * au plus toutes les INTERVALLE_NOTIFICATION_MS et une dernière fois à la fin.
+ */
+public class Transfert {
+    private static final long INTERVALLE_NOTIFICATION_MS = 200;
+
+    public enum Type {
+        TELECHARGEMENT,
+        UPLOAD
+    }
+
+    private final Type type;
+    private final String nomFichier;
+    private final PeerInfo peer;
+    private final CompletableFuture<Boolean> resultat = new CompletableFuture<>();
+    private final List<Consumer<Transfert>> ecouteurs = new CopyOnWriteArrayList<>();
+
+    private volatile long taille = -1;
+    private volatile long octetsTransferes;
+    private volatile long octetsRepris;
+    private volatile long debutNanos;
+    private volatile long finNanos;
+    private volatile boolean annule = false;
+    private volatile Closeable ressource;
+    private long derniereNotification;
+
+    Transfert(Type type, String nomFichier, PeerInfo peer) {
+        this.type = type;
+        this.nomFichier = nomFichier;
+        this.peer = peer;
+    }
+
+    // ==================== API PUBLIQUE ====================
+
+    /**
+     * Résultat du transfert: true si le fichier a été transféré et vérifié.
+     * Annulé (isCancelled) si annuler() a été appelé.
+     */
+    public CompletableFuture<Boolean> getResultat() {
+        return resultat;
+    }
+
+    /**
+     * Annule le transfert. La connexion est fermée immédiatement, ce qui
+     * débloque une lecture en attente sans attendre le timeout du socket.
+     *
+     * @return false si le transfert était déjà terminé
+     */
+    public boolean annuler() {
+        if (resultat.isDone())
+            return false;
+
+        annule = true;
+        // Annulé avant la fermeture: l'échec de la connexion fermée ne
+        // complète pas le résultat à sa place
+        resultat.cancel(false);
+        fermerRessource();
+        return true;
+    }
+
+    public boolean estAnnule() {
+        return annule;
+    }
+
+    public boolean estTermine() {
+        return resultat.isDone();
+    }
+
+    /**
+     * Enregistre un écouteur de progression
+     */
+    public Transfert surProgression(Consumer<Transfert> ecouteur) {
+        ecouteurs.add(ecouteur);
+        return this;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getNomFichier() {
+        return nomFichier;
+    }
+
+    public PeerInfo getPeer() {
+        return peer;
+    }
+
+    /**
+     * Taille totale en octets, -1 tant qu'elle n'est pas connue
+     */
+    public long getTaille() {
+        return taille;
+    }
+
+    public long getOctetsTransferes() {
+        return octetsTransferes;
+    }
+
+    /**
+     * Progression entre 0 et 1, 0 tant que la taille n'est pas connue
+     */
+    public double getProgression() {
+        long total = taille;
+        if (total <= 0)
+            return total == 0 && finNanos != 0 ? 1.0 : 0.0;
+        return Math.min(1.0, (double) octetsTransferes / total);
+    }
+
+    /**
+     * Débit moyen depuis le début du transfert, en octets par seconde
+     */
+    public double getDebitOctetsParSeconde() {
+        long debut = debutNanos;
+        if (debut == 0)
+            return 0;
+        long fin = finNanos != 0 ? finNanos : System.nanoTime();
+        double secondes = (fin - debut) / 1_000_000_000.0;
+        return secondes > 0 ? (octetsTransferes - octetsRepris) / secondes : 0;
+    }
+
+    /**
+     * Temps restant estimé au débit moyen, -1 s'il n'est pas encore estimable
+     */
+    public long getTempsRestantMs() {
+        double debit = getDebitOctetsParSeconde();
+        if (taille < 0 || debit <= 0)
+            return -1;
+        return (long) ((taille - octetsTransferes) * 1000 / debit);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + nomFichier + " (" + peer + ") " + (int) (getProgression() * 100) + "%";
+    }
+
+    // ==================== CÔTÉ PEER ====================
+
+    /**
+     * Ressource à fermer en cas d'annulation (connexion du transfert)
+     */
+    void attacher(Closeable ressource) throws IOException {
+        this.ressource = ressource;
+        if (annule) {
+            fermerRessource();
+            throw new IOException("Transfert annulé");
+        }
+    }
+
+    /**
+     * La taille est connue, le contenu commence
+     */
+    void demarrer(long taille) {
+        demarrer(taille, 0);
+    }
+
+    /**
+     * Reprise d'un transfert dont octetsRepris sont déjà présents: ils
+     * comptent dans la progression, pas dans le débit
+     */
+    void demarrer(long taille, long octetsRepris) {
+        this.taille = taille;
+        this.octetsTransferes = octetsRepris;
+        this.octetsRepris = octetsRepris;
+        this.debutNanos = System.nanoTime();
+        notifier(true);
+    }
+
+    /**
+     * Décompte octets transférés; plusieurs fils peuvent avancer le même
+     * transfert (téléchargement en essaim)
+     *
+     * @throws IOException si le transfert a été annulé
+     */
+    synchronized void avancer(long octets) throws IOException {
+        if (annule) {
+            throw new IOException("Transfert annulé");
+        }
+        octetsTransferes += octets;
+        notifier(false);
+    }
+
+    /**
+     * Indique si des écouteurs attendent la progression
+     */
+    boolean estEcoute() {
+        return !ecouteurs.isEmpty();
+    }
+
+    void terminer(boolean succes) {
+        finNanos = System.nanoTime();
+        notifier(true);
+        resultat.complete(succes);
+    }
+
+    void echouer(Throwable erreur) {
+        finNanos = System.nanoTime();
+        resultat.completeExceptionally(erreur);
+    }
+
+    private void notifier(boolean forcer) {
+        if (ecouteurs.isEmpty())
+            return;
+
+        long maintenant = System.currentTimeMillis();
+        if (!forcer && maintenant - derniereNotification < INTERVALLE_NOTIFICATION_MS)
+            return;
+        derniereNotification = maintenant;
+
+        for (Consumer<Transfert> ecouteur : ecouteurs) {
+            try {
+                ecouteur.accept(this);
+            } catch (RuntimeException e) {
+                System.err.println("[ERROR] Écouteur de progression: " + e.getMessage());
+            }
+        }
+    }
+
+    private void fermerRessource() {
+        Closeable r = ressource;
+        if (r != null) {
+            try {
+                r.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package entities;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Registre de verrous lecture/écriture par fichier.
+ *
+ * Les lectures d'un même fichier (GET, LIST) s'exécutent en parallèle; une
+ * écriture (UPLOAD, téléchargement) n'exclut que les lecteurs et écrivains du
+ * même fichier. Les entrées sont comptées et retirées dès que plus personne
+ * ne tient ni n'attend le verrou, le registre ne grossit donc pas avec le
+ * nombre de fichiers servis.
+ */
+class VerrousFichiers {
+    private final Map<String, Entree> verrous = new ConcurrentHashMap<>();
+
+    /**
+     * Verrou tenu, libéré par close() (try-with-resources). La variable du
+     * try n'est en général pas utilisée dans le bloc: les méthodes qui le
+     * font portent @SuppressWarnings("try")
+     */
+    interface Verrou extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static class Entree {
+        final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+        int references;
+    }
+
+    /**
+     * Acquiert le verrou de lecture du fichier (bloquant)
+     */
+    Verrou lecture(File fichier) {
+        return acquerir(fichier, false);
+    }
+
+    /**
+     * Acquiert le verrou d'écriture du fichier (bloquant)
+     */
+    Verrou ecriture(File fichier) {
+        return acquerir(fichier, true);
+    }
+
+    /**
+     * Acquiert le verrou de lecture sans attendre
+     *
+     * @return le verrou, ou null si le fichier est en cours d'écriture
+     */
+    Verrou tenterLecture(File fichier) {
+        String cle = cle(fichier);
+        Entree entree = reserver(cle);
+        Lock lock = entree.verrou.readLock();
+        if (!lock.tryLock()) {
+            liberer(cle);
+            return null;
+        }
+        return () -> {
+            lock.unlock();
+            liberer(cle);
+        };
+    }
+
+    private Verrou acquerir(File fichier, boolean exclusif) {
+        String cle = cle(fichier);
+        Entree entree = reserver(cle);
+        Lock lock = exclusif ? entree.verrou.writeLock() : entree.verrou.readLock();
+        lock.lock();
+        return () -> {
+            lock.unlock();
+            liberer(cle);
+        };
+    }
+
+    private Entree reserver(String cle) {
+        return verrous.compute(cle, (k, entree) -> {
+            if (entree == null) {
+                entree = new Entree();
+            }
+            entree.references++;
+            return entree;
+        });
+    }
+
+    private void liberer(String cle) {
+        verrous.computeIfPresent(cle, (k, entree) -> --entree.references == 0 ? null : entree);
+    }
+
+    /**
+     * Chemin absolu normalisé. Passe par l'URI plutôt que par toPath(), qui
+     * échoue sur les noms accentués quand sun.jnu.encoding n'est pas UTF-8.
+     */
+    private static String cle(File fichier) {
+        return fichier.getAbsoluteFile().toURI().normalize().getPath();
+    }
+
+    /**
+     * Nombre de fichiers dont le verrou est tenu ou attendu
+     */
+    int getNombreVerrous() {
+        return verrous.size();
+    }
+}
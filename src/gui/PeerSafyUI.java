@@ -1,6 +1,7 @@
 package gui;
 
 import javax.swing.*;
+import entities.Transfert;
 import clients.PeerSafy;
 import java.awt.*;
 import java.awt.event.*;
@@ -551,12 +552,20 @@ public class PeerSafyUI extends JFrame {
             String ip = parts[0];
             int port = Integer.parseInt(parts[1]);
 
-            if (peer.telechargerFichierDepuisPeer(filename, ip, port)) {
-                log("Téléchargement réussi: " + filename + " depuis " + ip + ":" + port);
-                refreshLocalFiles();
-            } else {
-                log("Échec du téléchargement: " + filename);
-            }
+            // Téléchargement hors de l'EDT, progression affichée dans le statut
+            statusLabel.setText("Téléchargement de " + filename + "...");
+            Transfert transfert = peer.telechargerFichierDepuisPeerAsync(filename, ip, port);
+            transfert.surProgression(t -> SwingUtilities.invokeLater(() -> statusLabel.setText(formatProgression(t))));
+            transfert.getResultat().whenComplete((succes, erreur) -> {
+                if (Boolean.TRUE.equals(succes)) {
+                    log("Téléchargement réussi: " + filename + " depuis " + ip + ":" + port);
+                    refreshLocalFiles();
+                    SwingUtilities.invokeLater(() -> statusLabel.setText("Téléchargement terminé"));
+                } else {
+                    log("Échec du téléchargement: " + filename);
+                    SwingUtilities.invokeLater(() -> statusLabel.setText("Échec du téléchargement"));
+                }
+            });
         } else {
             // Personnaliser les polices pour le message d'avertissement
             UIManager.put("OptionPane.messageFont", new Font("Poppins", Font.PLAIN, 26));
@@ -596,6 +605,20 @@ public class PeerSafyUI extends JFrame {
         });
     }
 
+    /**
+     * Texte de statut d'un transfert en cours: pourcentage, débit, temps restant
+     */
+    private String formatProgression(Transfert t) {
+        String texte = (t.getType() == Transfert.Type.UPLOAD ? "Upload " : "Téléchargement ")
+                + t.getNomFichier() + ": " + (int) (t.getProgression() * 100) + "% - "
+                + formatFileSize((long) t.getDebitOctetsParSeconde()) + "/s";
+        long restantMs = t.getTempsRestantMs();
+        if (restantMs >= 0) {
+            texte += " - " + (restantMs / 1000) + " s restantes";
+        }
+        return texte;
+    }
+
     private String formatFileSize(long size) {
         if (size < 1024)
             return size + " B";
@@ -780,11 +803,13 @@ public class PeerSafyUI extends JFrame {
             JOptionPane.QUESTION_MESSAGE);
 
     if (response == JOptionPane.YES_OPTION) {
-        // Exécuter l'upload dans un thread séparé pour ne pas bloquer l'interface
+        // Upload asynchrone pour ne pas bloquer l'interface
         SwingUtilities.invokeLater(() -> statusLabel.setText("🔄 Upload en cours..."));
         
-        new Thread(() -> {
-            boolean success = peer.uploaderFichierVersPeer(filename, ip, port);
+        Transfert transfert = peer.uploaderFichierVersPeerAsync(filename, ip, port);
+        transfert.surProgression(t -> SwingUtilities.invokeLater(() -> statusLabel.setText(formatProgression(t))));
+        transfert.getResultat().whenComplete((resultat, erreur) -> {
+            boolean success = Boolean.TRUE.equals(resultat);
             
             SwingUtilities.invokeLater(() -> {
                 if (success) {
@@ -807,7 +832,7 @@ public class PeerSafyUI extends JFrame {
                     }
                 }, 2000);
             });
-        }).start();
+        });
     }
 }
 